@@ -9,15 +9,143 @@
  */
 package com.idega.block.quote;
 
+import java.io.File;
+import java.util.TimeZone;
+
+import com.idega.block.quote.business.QuoteBusiness;
+import com.idega.block.quote.business.QuoteDatabaseTransport;
+import com.idega.block.quote.business.QuoteInvalidationChannel;
+import com.idega.block.quote.business.QuoteInvalidationTransport;
+import com.idega.block.quote.business.QuoteRotation;
+import com.idega.block.quote.business.QuoteRotationScheduler;
+import com.idega.block.quote.business.QuoteSnapshot;
+import com.idega.block.quote.stats.QuoteQueryTrace;
+import com.idega.block.quote.stats.QuoteStats;
 import com.idega.idegaweb.IWBundle;
 import com.idega.idegaweb.IWBundleStartable;
 
 
 public class IWBundleStarter implements IWBundleStartable {
 
+	private QuoteRotationScheduler rotationScheduler;
+	private QuoteInvalidationChannel invalidationChannel;
+	private QuoteSnapshot snapshot;
+
 	public void start(IWBundle starterBundle) {
+		try {
+			new QuoteStats(QuoteBusiness.getQuoteBusinessInstace()).register();
+		}
+		catch (Exception e) {
+			e.printStackTrace(System.err);
+		}
+
+		QuoteQueryTrace.setSlowQueryThreshold(getLongProperty(starterBundle, QuoteQueryTrace.PROPERTY_SLOW_QUERY_MILLIS, QuoteQueryTrace.DEFAULT_SLOW_QUERY_MILLIS));
+		QuoteQueryTrace.setSlowQueryRows(getLongProperty(starterBundle, QuoteQueryTrace.PROPERTY_SLOW_QUERY_ROWS, QuoteQueryTrace.DEFAULT_SLOW_QUERY_ROWS));
+		QuoteQueryTrace.setSampleRate((int) getLongProperty(starterBundle, QuoteQueryTrace.PROPERTY_SLOW_QUERY_SAMPLE_RATE, QuoteQueryTrace.DEFAULT_SLOW_QUERY_SAMPLE_RATE));
+		QuoteQueryTrace.setEnabled(Boolean.valueOf(starterBundle.getProperty(QuoteQueryTrace.PROPERTY_ENABLED)).booleanValue());
+
+		QuoteBusiness.getQuoteBusinessInstace().setLocaleFallbacks(starterBundle.getProperty(QuoteBusiness.PROPERTY_LOCALE_FALLBACKS));
+
+		String timeZone = starterBundle.getProperty(QuoteBusiness.PROPERTY_TIME_ZONE);
+		if (timeZone != null && timeZone.length() > 0) {
+			QuoteBusiness.getQuoteBusinessInstace().setTimeZone(TimeZone.getTimeZone(timeZone));
+		}
+		String rotation = starterBundle.getProperty(QuoteBusiness.PROPERTY_ROTATION);
+		if (rotation != null && rotation.length() > 0) {
+			try {
+				QuoteBusiness.getQuoteBusinessInstace().setDefaultRotation(QuoteRotation.valueOf(rotation));
+			}
+			catch (IllegalArgumentException iae) {
+				iae.printStackTrace(System.err);
+			}
+		}
+
+		String transferDirectory = starterBundle.getProperty(QuoteBusiness.PROPERTY_TRANSFER_DIRECTORY);
+		QuoteBusiness.getQuoteBusinessInstace().setTransferDirectory(transferDirectory != null && transferDirectory.length() > 0 ? new File(transferDirectory) : new File(getWorkDirectory(starterBundle), "transfer"));
+
+		String snapshotFile = starterBundle.getProperty(QuoteSnapshot.PROPERTY_FILE);
+		if (snapshotFile == null || snapshotFile.length() == 0) {
+			snapshotFile = new File(getWorkDirectory(starterBundle), "quotes.snapshot").getPath();
+		}
+		this.snapshot = new QuoteSnapshot(QuoteBusiness.getQuoteBusinessInstace(), new File(snapshotFile));
+		this.snapshot.start();
+
+		this.rotationScheduler = new QuoteRotationScheduler(QuoteBusiness.getQuoteBusinessInstace());
+		this.rotationScheduler.start();
+
+		Thread reformatter = new Thread(new Runnable() {
+
+			public void run() {
+				QuoteBusiness.getQuoteBusinessInstace().addOrdinalConstraint();
+				QuoteBusiness.getQuoteBusinessInstace().reformatQuotes();
+			}
+		}, "QuoteReformatter");
+		reformatter.setDaemon(true);
+		reformatter.start();
+
+		String transport = starterBundle.getProperty(QuoteInvalidationChannel.PROPERTY_TRANSPORT);
+		if (transport != null && transport.length() > 0) {
+			try {
+				QuoteInvalidationTransport invalidationTransport = (QuoteInvalidationTransport) Class.forName(transport).getDeclaredConstructor().newInstance();
+				if (invalidationTransport instanceof QuoteDatabaseTransport) {
+					QuoteDatabaseTransport databaseTransport = (QuoteDatabaseTransport) invalidationTransport;
+					databaseTransport.setDatasource(starterBundle.getProperty(QuoteDatabaseTransport.PROPERTY_DATASOURCE));
+					databaseTransport.setPollMillis(getLongProperty(starterBundle, QuoteDatabaseTransport.PROPERTY_POLL_MILLIS, QuoteDatabaseTransport.DEFAULT_POLL_MILLIS));
+				}
+				this.invalidationChannel = new QuoteInvalidationChannel(QuoteBusiness.getQuoteBusinessInstace(), invalidationTransport);
+				this.invalidationChannel.start();
+			}
+			catch (Exception e) {
+				e.printStackTrace(System.err);
+				this.invalidationChannel = null;
+			}
+		}
 	}
 
 	public void stop(IWBundle starterBundle) {
+		try {
+			QuoteStats.unregister();
+		}
+		catch (Exception e) {
+			e.printStackTrace(System.err);
+		}
+
+		if (this.rotationScheduler != null) {
+			this.rotationScheduler.stop();
+			this.rotationScheduler = null;
+		}
+
+		if (this.invalidationChannel != null) {
+			this.invalidationChannel.stop();
+			this.invalidationChannel = null;
+		}
+
+		if (this.snapshot != null) {
+			this.snapshot.stop();
+			this.snapshot = null;
+		}
+
+		QuoteQueryTrace.setEnabled(false);
+	}
+
+	/**
+	 * @return The directory the bundle keeps its files in, under <code>WEB-INF</code> of the application so that it is
+	 *         never served.
+	 */
+	private static File getWorkDirectory(IWBundle bundle) {
+		return new File(new File(bundle.getApplication().getApplicationRealPath(), "WEB-INF"), "quote");
+	}
+
+	private static long getLongProperty(IWBundle bundle, String property, long defaultValue) {
+		String value = bundle.getProperty(property);
+		if (value != null && value.length() > 0) {
+			try {
+				return Long.parseLong(value.trim());
+			}
+			catch (NumberFormatException nfe) {
+				nfe.printStackTrace(System.err);
+			}
+		}
+		return defaultValue;
 	}
 }
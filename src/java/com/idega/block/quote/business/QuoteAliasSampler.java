@@ -0,0 +1,94 @@
+package com.idega.block.quote.business;
+
+import java.util.Random;
+
+/**
+ * Picks quotes at random in proportion to their weights with Walker's alias method (in the form given by Vose): the
+ * table is built in O(n) and each pick takes one random number and one comparison, O(1) whatever the number of
+ * quotes. Immutable, a new sampler is built when the quotes of a locale change.
+ */
+final class QuoteAliasSampler {
+
+	private final QuoteColumns quotes;
+	private final double[] probability;
+	private final int[] alias;
+	private final boolean uniform;
+
+	QuoteAliasSampler(QuoteColumns quotes) {
+		this.quotes = quotes;
+		int n = quotes.size();
+		this.probability = new double[n];
+		this.alias = new int[n];
+
+		double total = 0;
+		boolean equal = true;
+		for (int i = 0; i < n; i++) {
+			int weight = quotes.getWeight(i);
+			total += weight;
+			equal = equal && weight == quotes.getWeight(0);
+		}
+		this.uniform = equal || total <= 0;
+		if (this.uniform) {
+			return;
+		}
+
+		// Scale the weights to an average of 1, then pair each column below 1 with one above 1
+		double[] scaled = new double[n];
+		int[] small = new int[n];
+		int[] large = new int[n];
+		int smallCount = 0;
+		int largeCount = 0;
+		for (int i = 0; i < n; i++) {
+			scaled[i] = quotes.getWeight(i) * n / total;
+			if (scaled[i] < 1) {
+				small[smallCount++] = i;
+			}
+			else {
+				large[largeCount++] = i;
+			}
+		}
+		while (smallCount > 0 && largeCount > 0) {
+			int less = small[--smallCount];
+			int more = large[--largeCount];
+			this.probability[less] = scaled[less];
+			this.alias[less] = more;
+			scaled[more] = (scaled[more] + scaled[less]) - 1;
+			if (scaled[more] < 1) {
+				small[smallCount++] = more;
+			}
+			else {
+				large[largeCount++] = more;
+			}
+		}
+		// What is left is 1 up to rounding errors
+		while (largeCount > 0) {
+			this.probability[large[--largeCount]] = 1;
+		}
+		while (smallCount > 0) {
+			this.probability[small[--smallCount]] = 1;
+		}
+	}
+
+	/**
+	 * @return <code>true</code> if all quotes have the same weight, picks are then uniform.
+	 */
+	boolean isUniform() {
+		return this.uniform;
+	}
+
+	/**
+	 * @return The quotes the sampler was built for, the indexes returned by {@link #next(Random)} refer to these columns.
+	 */
+	QuoteColumns getQuotes() {
+		return this.quotes;
+	}
+
+	int next(Random random) {
+		double u = random.nextDouble() * this.quotes.size();
+		int column = (int) u;
+		if (this.uniform || u - column < this.probability[column]) {
+			return column;
+		}
+		return this.alias[column];
+	}
+}
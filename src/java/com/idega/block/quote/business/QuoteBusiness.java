@@ -1,13 +1,50 @@
 package com.idega.block.quote.business;
 
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
 import javax.ejb.FinderException;
 
 import com.idega.block.quote.data.QuoteEntity;
 import com.idega.block.quote.data.QuoteEntityHome;
+import com.idega.block.quote.data.QuoteRowHandler;
+import com.idega.block.quote.stats.QuoteMetrics;
+import com.idega.core.localisation.business.ICLocaleBusiness;
 import com.idega.data.IDOException;
 import com.idega.idegaweb.IWApplicationContext;
+import com.idega.idegaweb.IWMainApplication;
 import com.idega.presentation.IWContext;
-import com.idega.util.IWTimestamp;
+import com.idega.util.text.TextSoap;
 
 public class QuoteBusiness {
 
@@ -18,6 +55,7 @@ public class QuoteBusiness {
 	public static final String PARAMETER_QUOTE_TEXT = "quote_text";
 	public static final String PARAMETER_QUOTE_AUTHOR = "quote_author";
 	public static final String PARAMETER_QUOTE_ORIGIN = "quote_origin";
+	public static final String PARAMETER_QUOTE_WEIGHT = "quote_weight";
 	public static final String PARAMETER_MODE = "mode";
 	public static final String PARAMETER_NEW = "new";
 	public static final String PARAMETER_DELETE = "delete";
@@ -25,61 +63,413 @@ public class QuoteBusiness {
 	public static final String PARAMETER_SAVE = "save";
 	public static final String PARAMETER_CLOSE = "close";
 	public static final String PARAMETER_OBJECT_INSTANCE_ID = "qu_o_i_id";
+	public static final String PARAMETER_IMPORT = "import";
+	public static final String PARAMETER_IMPORT_FILE = "import_file";
+	public static final String PARAMETER_IMPORT_FORMAT = "import_format";
+	public static final String PARAMETER_EXPORT = "export";
+	public static final String PARAMETER_LIST = "list";
+	public static final String PARAMETER_AFTER_ID = "after_id";
+	public static final String PARAMETER_AFTER_AUTHOR = "after_author";
+	public static final String PARAMETER_SORT = "sort";
+	public static final String SORT_AUTHOR = "author";
+
+	/**
+	 * The bundle property holding the locale fallback chains, see {@link #setLocaleFallbacks(String)}.
+	 */
+	public static final String PROPERTY_LOCALE_FALLBACKS = "locale_fallbacks";
+	/**
+	 * Stands for the default locale of the application in a fallback chain.
+	 */
+	public static final String FALLBACK_DEFAULT = "default";
+	/**
+	 * Stands for all locales without a chain of their own in {@link #setLocaleFallbacks(String)}.
+	 */
+	public static final String FALLBACK_ALL = "*";
+
+	/**
+	 * The bundle property holding the ID of the time zone quotes rotate in, e.g. <code>Atlantic/Reykjavik</code>.
+	 * The default time zone of the server is used if not set.
+	 */
+	public static final String PROPERTY_TIME_ZONE = "time_zone";
+	/**
+	 * The bundle property holding the rotation of blocks that have none set, see {@link QuoteRotation}. Quotes rotate
+	 * daily if not set.
+	 */
+	public static final String PROPERTY_ROTATION = "rotation";
+	/**
+	 * The bundle property holding the directory on the server that quotes are imported from and exported to, see
+	 * {@link #getTransferFile(String)}.
+	 */
+	public static final String PROPERTY_TRANSFER_DIRECTORY = "transfer_directory";
+
+	/**
+	 * Locales with more quotes than this are not kept in memory, random quotes are then picked by ordinal in the database.
+	 */
+	public static final int DEFAULT_MAX_RESIDENT_QUOTES = 50000;
+
+	/**
+	 * The version of the formatting applied to quote texts on save. Increase it when {@link #formatText(String)}
+	 * changes, stored quotes are then formatted again by {@link #reformatQuotes()} on the next startup.
+	 */
+	public static final int FORMAT_VERSION = 1;
+
+	/**
+	 * The weight of quotes that have none set. A quote with weight 2 is picked twice as often as one with the default.
+	 */
+	public static final int DEFAULT_WEIGHT = 1;
+
+	private static final Logger LOGGER = Logger.getLogger(QuoteBusiness.class.getName());
 
-	private static QuoteBusiness instance;
+	private static final int REFORMAT_CHUNK_SIZE = 500;
+	private static final int SCAN_FETCH_SIZE = 500;
+	/**
+	 * How often a new quote is stored with the next ordinal after concurrent inserts took the previous ones.
+	 */
+	private static final int MAX_ORDINAL_ATTEMPTS = 5;
+	/**
+	 * How often a weighted pick is repeated when it hits the quote currently shown. Bounded, since a quote may carry
+	 * nearly all the weight of its locale.
+	 */
+	private static final int WEIGHTED_REDRAWS = 3;
+	/**
+	 * The most shuffle bags kept, one per object instance and locale, as many as the quote cache holds by default.
+	 * Beyond that bags are dropped; an instance whose bag was dropped starts a new one.
+	 */
+	private static final int MAX_BAGS = QuoteCache.DEFAULT_MAX_SIZE;
+
+	private static final QuoteBusiness instance = new QuoteBusiness();
 
 	private QuoteEntityHome quoteHome;
+	private QuoteCatalog catalog = new QuoteCatalog();
+	private QuoteLocaleCounts counts = new QuoteLocaleCounts();
+	private volatile QuoteSnapshot snapshot;
+	private volatile Map<Integer, int[]> fallbacks = new HashMap<Integer, int[]>();
+	private volatile int[] defaultFallbacks = new int[0];
+	private volatile QuoteCache cache = new QuoteCache();
+	private volatile TimeZone timeZone = TimeZone.getDefault();
+	private volatile QuoteRotation defaultRotation = QuoteRotation.EVERY_DAY;
+	private volatile File transferDirectory;
+	private Set<QuoteRotation> rotations = new CopyOnWriteArraySet<QuoteRotation>();
+	private QuoteSingleFlight<QuoteHolder> refreshes = new QuoteSingleFlight<QuoteHolder>();
+	private QuoteSingleFlight<QuoteColumns> loads = new QuoteSingleFlight<QuoteColumns>();
+	private int maxResidentQuotes = DEFAULT_MAX_RESIDENT_QUOTES;
+	private Map<Long, QuoteShuffleBag> bags = new ConcurrentHashMap<Long, QuoteShuffleBag>();
+	private Random random = new Random();
+	private QuoteSearchIndex searchIndex = new QuoteSearchIndex();
+	private List<QuoteChangeListener> listeners = new CopyOnWriteArrayList<QuoteChangeListener>();
+	private final Object importLock = new Object();
+	private final AtomicReference<QuoteImportStatus> importStatus = new AtomicReference<QuoteImportStatus>();
 
 	private QuoteBusiness() {
 	}
 
+	/**
+	 * Creates a business reading from the given home instead of the one looked up through IDO, for benchmarks and
+	 * load tests that run without a database.
+	 */
+	QuoteBusiness(QuoteEntityHome quoteHome) {
+		this.quoteHome = quoteHome;
+	}
+
 	public static QuoteBusiness getQuoteBusinessInstace() {
-		if (instance == null) {
-			instance = new QuoteBusiness();
-		}
 		return instance;
 	}
 
+	/**
+	 * Returns the current quote of the object instance. The quote is kept in the quote cache until the next rotation
+	 * of the default rotation, unless <code>fetchFromDatabase</code> is set, in which case the next quote is returned
+	 * on every call.
+	 * <p>
+	 * Only one thread refreshes an expired quote. Other threads asking for the same quote meanwhile get the previous
+	 * quote, or wait for the refresh if there is no previous quote.
+	 */
 	public QuoteHolder getRandomQuote(IWApplicationContext iwc, int localeID, int objectID, boolean fetchFromDatabase) {
-		QuoteHolder holder = null;
-		QuoteHolder newHolder = null;
-		String date = null;
-		String dateNow = new IWTimestamp().toSQLDateString();
-		
-		if(!fetchFromDatabase){
-			try {
-				holder = (QuoteHolder) iwc.getApplicationAttribute(PARAMETER_QUOTE + "_" + Integer.toString(localeID) + "_" + String.valueOf(objectID));
-			}
-			catch (Exception e) {
-				holder = null;
-			}
-		
-			date = (String) iwc.getApplicationAttribute(PARAMETER_QUOTE_DATE + "_" + Integer.toString(localeID) + "_" + String.valueOf(objectID));
+		return getRandomQuote(iwc, localeID, objectID, fetchFromDatabase, null);
+	}
+
+	/**
+	 * Same as {@link #getRandomQuote(IWApplicationContext, int, int, boolean)}, but only picks quotes matching the
+	 * search query, see {@link #searchQuotes(int, String, int)}. All quotes of the locale are used if the query is
+	 * <code>null</code> or empty.
+	 */
+	public QuoteHolder getRandomQuote(IWApplicationContext iwc, int localeID, int objectID, boolean fetchFromDatabase, String searchQuery) {
+		return getRandomQuote(iwc, localeID, objectID, fetchFromDatabase, searchQuery, null);
+	}
+
+	/**
+	 * Same as {@link #getRandomQuote(IWApplicationContext, int, int, boolean, String)}, but the quote is kept until
+	 * the next rotation of <code>rotation</code>. The expiry is computed once, when the quote is assigned.
+	 *
+	 * @param rotation The rotation of the block, or <code>null</code> for the default rotation.
+	 */
+	public QuoteHolder getRandomQuote(IWApplicationContext iwc, int requestedLocaleID, final int objectID, boolean fetchFromDatabase, final String searchQuery, QuoteRotation rotation) {
+		if (fetchFromDatabase) {
+			return getNextQuoteHolder(resolveLocale(requestedLocaleID), objectID, searchQuery);
 		}
-		
-		
-		if (!fetchFromDatabase && date != null && holder != null && date.equalsIgnoreCase(dateNow)) {
+
+		// A locale with quotes of its own resolves to itself, so the fallback chain is only walked on a miss
+		final QuoteCache quoteCache = this.cache;
+		QuoteHolder holder = quoteCache.probe(requestedLocaleID, objectID, System.currentTimeMillis());
+		if (holder != null) {
 			return holder;
 		}
-		else {
-			newHolder = getQuoteHolder(getRandomQuote(localeID));
-			if (holder != null && getNumberOfQuotes(localeID) > 1) {
-				while (holder.getQuoteID() == newHolder.getQuoteID()) {
-					newHolder = getQuoteHolder(getRandomQuote(localeID));
+		final int localeID = resolveLocale(requestedLocaleID);
+		holder = quoteCache.get(localeID, objectID, System.currentTimeMillis());
+		if (holder != null) {
+			return holder;
+		}
+
+		long key = QuoteCache.getKey(localeID, objectID);
+		QuoteCache.Entry previous = quoteCache.getEntry(localeID, objectID);
+		if (previous != null && this.refreshes.isInFlight(key)) {
+			QuoteMetrics.STALE_QUOTES_SERVED.increment();
+			return previous.getHolder();
+		}
+
+		final QuoteRotation quoteRotation = getRotation(rotation);
+		return this.refreshes.execute(key, new Callable<QuoteHolder>() {
+
+			public QuoteHolder call() {
+				long now = System.currentTimeMillis();
+				QuoteHolder current = quoteCache.peek(localeID, objectID, now);
+				if (current != null) {
+					return current;
 				}
-			}
-			if (newHolder != null) {
-				if(!fetchFromDatabase){
-					iwc.setApplicationAttribute(PARAMETER_QUOTE + "_" + Integer.toString(localeID) + "_" + String.valueOf(objectID), newHolder);
-					iwc.setApplicationAttribute(PARAMETER_QUOTE_DATE + "_" + Integer.toString(localeID) + "_" + String.valueOf(objectID), dateNow);
+
+				QuoteHolder newHolder = getNextQuoteHolder(localeID, objectID, searchQuery);
+				if (newHolder != null) {
+					quoteCache.put(localeID, objectID, newHolder, getNextRotation(quoteRotation, now), quoteRotation, searchQuery);
 				}
 				return newHolder;
 			}
+		});
+	}
+
+	/**
+	 * Computes the quotes for the period starting at <code>boundary</code> for every cached quote that expires then,
+	 * including quotes attached at the previous rollover that have not been looked up since, and attaches them to the
+	 * cache once all are computed, so that no request has to rotate quotes at the rollover. A quote that fails to compute keeps its current assignment and is refreshed on demand instead.
+	 *
+	 * @return The number of quotes rotated in advance.
+	 */
+	public int preRotate(long boundary) {
+		QuoteCache quoteCache = this.cache;
+		List<QuoteCache.Entry> entries = quoteCache.getEntries();
+		List<QuoteCache.Entry> rotated = new ArrayList<QuoteCache.Entry>(entries.size());
+		for (Iterator<QuoteCache.Entry> iter = entries.iterator(); iter.hasNext();) {
+			QuoteCache.Entry entry = iter.next();
+			// Or the quote attached at the previous rollover expires then, if the entry was not looked up since
+			if (entry.getExpires() != boundary && (entry.next == null || entry.nextExpires != boundary)) {
+				continue;
+			}
+			try {
+				QuoteHolder next = getNextQuoteHolder(entry.getLocaleID(), entry.getObjectID(), entry.getSearchQuery());
+				if (next != null) {
+					long nextExpires = getNextRotation(entry.getRotation(), boundary);
+					rotated.add(new QuoteCache.Entry(entry.key, entry.getHolder(), boundary, entry.getRotation(), entry.getSearchQuery(), next, nextExpires));
+				}
+			}
+			catch (RuntimeException re) {
+				re.printStackTrace(System.err);
+			}
+		}
+
+		int count = 0;
+		for (Iterator<QuoteCache.Entry> iter = rotated.iterator(); iter.hasNext();) {
+			QuoteCache.Entry entry = iter.next();
+			if (quoteCache.putNext(entry.getLocaleID(), entry.getObjectID(), boundary, entry.next, entry.nextExpires)) {
+				count++;
+			}
+		}
+		QuoteMetrics.PRE_ROTATIONS.add(count);
+		return count;
+	}
+
+	/**
+	 * @return The rotation the current quote of the object instance was cached with, or <code>null</code> if it has
+	 *         none cached.
+	 */
+	public QuoteRotation getQuoteRotation(int localeID, int objectID) {
+		QuoteCache.Entry entry = this.cache.getEntry(resolveLocale(localeID), objectID);
+		return entry != null ? entry.getRotation() : null;
+	}
+
+	/**
+	 * @return The time at which the quote the object instance shows at <code>now</code> is replaced: the expiry of
+	 *         its cache entry, which follows the rotation of its block, or the next rotation of the default rotation if
+	 *         it has none cached.
+	 */
+	public long getQuoteExpiry(int localeID, int objectID, long now) {
+		QuoteCache.Entry entry = this.cache.getEntry(resolveLocale(localeID), objectID);
+		if (entry != null) {
+			if (now < entry.getExpires()) {
+				return entry.getExpires();
+			}
+			if (entry.next != null && now < entry.nextExpires) {
+				return entry.nextExpires;
+			}
+		}
+		return getNextRotation(now);
+	}
+
+	/**
+	 * @return The time at which the quotes cached at <code>now</code> with the default rotation are replaced by the
+	 *         next ones.
+	 */
+	public long getNextRotation(long now) {
+		return getNextRotation(this.defaultRotation, now);
+	}
+
+	/**
+	 * @param rotation The rotation, or <code>null</code> for the default rotation.
+	 * @return The first rotation after <code>now</code> in the time zone of the site.
+	 */
+	public long getNextRotation(QuoteRotation rotation, long now) {
+		return getRotation(rotation).getNextRotation(now, this.timeZone);
+	}
+
+	/**
+	 * @return The first rotation after <code>now</code> of any rotation quotes have been cached with.
+	 */
+	long getNextBoundary(long now) {
+		long boundary = getNextRotation(this.defaultRotation, now);
+		for (Iterator<QuoteRotation> iter = this.rotations.iterator(); iter.hasNext();) {
+			boundary = Math.min(boundary, getNextRotation(iter.next(), now));
+		}
+		return boundary;
+	}
+
+	/**
+	 * @return The rotation, or the default rotation if <code>null</code>. The rotation is remembered for the
+	 *         rotation scheduler.
+	 */
+	private QuoteRotation getRotation(QuoteRotation rotation) {
+		if (rotation == null) {
+			return this.defaultRotation;
+		}
+		if (!rotation.equals(this.defaultRotation) && !this.rotations.contains(rotation)) {
+			this.rotations.add(rotation);
+		}
+		return rotation;
+	}
+
+	public QuoteRotation getDefaultRotation() {
+		return this.defaultRotation;
+	}
+
+	/**
+	 * Sets the rotation of blocks that have none set. Quotes already cached keep their expiry.
+	 */
+	public void setDefaultRotation(QuoteRotation rotation) {
+		this.defaultRotation = rotation != null ? rotation : QuoteRotation.EVERY_DAY;
+	}
+
+	public TimeZone getTimeZone() {
+		return this.timeZone;
+	}
+
+	/**
+	 * Sets the time zone rotations are computed in. Quotes already cached keep their expiry.
+	 */
+	public void setTimeZone(TimeZone timeZone) {
+		this.timeZone = timeZone != null ? timeZone : TimeZone.getDefault();
+	}
+
+	public File getTransferDirectory() {
+		return this.transferDirectory;
+	}
+
+	/**
+	 * Sets the directory that quotes are imported from and exported to. Without one, the editor can neither import
+	 * nor export.
+	 */
+	public void setTransferDirectory(File directory) {
+		this.transferDirectory = directory;
+	}
+
+	/**
+	 * Resolves a file name given by an editor inside the transfer directory. Only bare file names are accepted, so a
+	 * name can never point outside the directory.
+	 *
+	 * @return The file, or <code>null</code> if there is no transfer directory or the name is not a bare file name.
+	 */
+	public File getTransferFile(String name) {
+		File directory = this.transferDirectory;
+		if (directory == null || name == null) {
+			return null;
+		}
+		name = name.trim();
+		if (name.length() == 0 || name.startsWith(".") || name.indexOf('/') != -1 || name.indexOf('\\') != -1 || name.indexOf(':') != -1 || name.indexOf('\0') != -1) {
+			return null;
+		}
+		try {
+			File file = new File(directory, name).getCanonicalFile();
+			if (!directory.getCanonicalFile().equals(file.getParentFile())) {
+				return null;
+			}
+			return file;
+		}
+		catch (IOException ioe) {
 			return null;
 		}
 	}
 
+	/**
+	 * @return The names of the files in the transfer directory, sorted.
+	 */
+	public String[] getTransferFileNames() {
+		File directory = this.transferDirectory;
+		String[] names = directory != null ? directory.list() : null;
+		if (names == null) {
+			return new String[0];
+		}
+		List<String> files = new ArrayList<String>();
+		for (int i = 0; i < names.length; i++) {
+			File file = getTransferFile(names[i]);
+			if (file != null && file.isFile()) {
+				files.add(names[i]);
+			}
+		}
+		String[] result = files.toArray(new String[files.size()]);
+		Arrays.sort(result);
+		return result;
+	}
+
+	public long getQuoteCacheHits() {
+		return this.cache.getHits();
+	}
+
+	public long getQuoteCacheMisses() {
+		return this.cache.getMisses();
+	}
+
+	public void setQuoteCacheSize(int maxSize) {
+		this.cache = new QuoteCache(maxSize);
+	}
+
+	/**
+	 * Drops the cached quote of the object instance, so that the next request assigns a new one.
+	 */
+	void removeCachedQuote(int localeID, int objectID) {
+		this.cache.remove(localeID, objectID);
+	}
+
 	public int getNumberOfQuotes(int localeID) {
+		QuoteColumns quotes = this.catalog.getQuotes(localeID);
+		if (quotes != null) {
+			return quotes.size();
+		}
+		int count = this.counts.get(localeID);
+		if (count == -1) {
+			loadCounts();
+			count = this.counts.get(localeID);
+		}
+		if (count == -1) {
+			count = this.catalog.getNonResidentCount(localeID);
+		}
+		if (count != -1) {
+			return count;
+		}
 		try {
 			return getQuoteHome().getNumberOfQuotes(localeID);
 		}
@@ -92,6 +482,14 @@ public class QuoteBusiness {
 	}
 	
 	public void saveQuote(IWContext iwc, int objectID, int quoteID, int iLocaleID, String quoteOrigin, String quoteText, String quoteAuthor) {
+		saveQuote(iwc, objectID, quoteID, iLocaleID, quoteOrigin, quoteText, quoteAuthor, -1);
+	}
+
+	/**
+	 * @param weight The weight of the quote in random selection, or -1 to leave it unchanged.
+	 */
+	public synchronized void saveQuote(IWContext iwc, int objectID, int quoteID, int iLocaleID, String quoteOrigin, String quoteText, String quoteAuthor, int weight) {
+		long start = QuoteMetrics.SAVE_QUOTE.start();
 		try {
 			boolean update = false;
 			if (quoteID != -1) {
@@ -99,12 +497,16 @@ public class QuoteBusiness {
 			}
 			QuoteEntityHome qhome = getQuoteHome();
 			QuoteEntity quote = null;
+			QuoteHolder old = null;
 			if (update) {
 				quote = qhome.findByPrimaryKey(new Integer(quoteID));
 				if (quote == null) {
 					quote = qhome.create();
 					update = false;
 				}
+				else {
+					old = getQuoteHolder(quote);
+				}
 			}
 			else {
 				quote = qhome.create();
@@ -119,15 +521,31 @@ public class QuoteBusiness {
 			if (quoteAuthor != null && quoteAuthor.length() > 0) {
 				quote.setQuoteAuthor(quoteAuthor);
 			}
+			if (weight >= 0) {
+				quote.setWeight(weight);
+			}
 
 			if (!update) {
 				quote.setICLocaleID(iLocaleID);
 			}
+			formatQuote(quote);
 
 			try {
-				quote.store();
-				iwc.removeApplicationAttribute(PARAMETER_QUOTE + "_" + Integer.toString(iLocaleID) + "_" + String.valueOf(objectID));
-				iwc.removeApplicationAttribute(PARAMETER_QUOTE_DATE + "_" + Integer.toString(iLocaleID) + "_" + String.valueOf(objectID));
+				if (update) {
+					quote.store();
+				}
+				else {
+					storeNewQuote(qhome, quote, iLocaleID);
+				}
+				QuoteHolder holder = getQuoteHolder(quote);
+				this.catalog.put(holder);
+				if (!update) {
+					this.counts.add(holder.getLocaleID(), 1);
+				}
+				this.searchIndex.put(old, holder);
+				this.cache.replaceQuote(holder.getQuoteID(), holder);
+				this.cache.remove(iLocaleID, objectID);
+				fireQuoteChanged(holder.getLocaleID(), holder.getQuoteID());
 			}
 			catch (Exception e) {
 				e.printStackTrace(System.err);
@@ -137,65 +555,1111 @@ public class QuoteBusiness {
 		catch (Exception e) {
 			e.printStackTrace();
 		}
+		finally {
+			QuoteMetrics.SAVE_QUOTE.stop(start);
+		}
 	}
 
-	public void deleteQuote(IWContext iwc, int objectID, int quoteID, int localeID) {
+	public synchronized void deleteQuote(IWContext iwc, int objectID, int quoteID, int localeID) {
+		long start = QuoteMetrics.DELETE_QUOTE.start();
 		try {
 			if (quoteID != -1) {
 				QuoteEntityHome qhome = getQuoteHome();
 				QuoteEntity quote = qhome.findByPrimaryKey(new Integer(quoteID));
+				int quoteLocaleID = quote.getICLocaleID();
+				int ordinal = quote.getOrdinal();
+				QuoteHolder old = getQuoteHolder(quote);
 				quote.remove();
-				iwc.removeApplicationAttribute(PARAMETER_QUOTE + "_" + Integer.toString(localeID) + "_" + String.valueOf(objectID));
-				iwc.removeApplicationAttribute(PARAMETER_QUOTE_DATE + "_" + Integer.toString(localeID) + "_" + String.valueOf(objectID));
+				fillOrdinalGap(quoteLocaleID, ordinal);
+				this.catalog.remove(quoteID, quoteLocaleID);
+				this.counts.add(quoteLocaleID, -1);
+				this.searchIndex.remove(old);
+				this.cache.replaceQuote(quoteID, null);
+				this.cache.remove(localeID, objectID);
+				fireQuoteChanged(quoteLocaleID, quoteID);
 			}
 		}
 		catch (Exception e) {
 			e.printStackTrace(System.err);
 		}
+		finally {
+			QuoteMetrics.DELETE_QUOTE.stop(start);
+		}
+	}
+
+	/**
+	 * Applies a change made to a quote on another node: the quote is read again from the database and replaces the
+	 * old version in the catalog and in the cached quotes, or is dropped from them if it has been deleted. A quote ID
+	 * of -1 invalidates the whole locale. Local listeners are notified as for a local change.
+	 */
+	public void applyQuoteChange(int localeID, int quoteID) {
+		applyQuoteChanges(new int[] { localeID }, new int[] { quoteID });
+	}
+
+	/**
+	 * Applies a burst of changes made on other nodes, see {@link #applyQuoteChange(int, int)}. The changed quotes are
+	 * read with one query and each affected locale of the catalog is rebuilt once.
+	 */
+	public void applyQuoteChanges(int[] localeIDs, int[] quoteIDs) {
+		// Whether the quotes were added, edited or deleted is not known, so the counts are read again
+		this.counts.invalidate();
+		Map<Integer, Integer> changes = new LinkedHashMap<Integer, Integer>();
+		Set<Integer> invalidLocales = new HashSet<Integer>();
+		for (int i = 0; i < quoteIDs.length; i++) {
+			if (quoteIDs[i] == -1) {
+				invalidLocales.add(new Integer(localeIDs[i]));
+			}
+			else {
+				changes.put(new Integer(quoteIDs[i]), new Integer(localeIDs[i]));
+			}
+		}
+
+		// Quotes deleted on the other node are missing from the result
+		Map<Integer, QuoteHolder> holders = new HashMap<Integer, QuoteHolder>();
+		if (!changes.isEmpty()) {
+			int[] ids = new int[changes.size()];
+			int count = 0;
+			for (Iterator<Integer> iter = changes.keySet().iterator(); iter.hasNext();) {
+				ids[count++] = iter.next().intValue();
+			}
+			try {
+				QuoteHolderList quotes = new QuoteHolderList();
+				getQuoteHome().scanQuotesByIDs(ids, quotes);
+				for (Iterator<QuoteHolder> iter = quotes.getQuotes().iterator(); iter.hasNext();) {
+					QuoteHolder holder = iter.next();
+					holders.put(new Integer(holder.getQuoteID()), holder);
+				}
+			}
+			catch (Exception e) {
+				e.printStackTrace(System.err);
+				invalidLocales.addAll(changes.values());
+			}
+		}
+
+		for (Iterator<Integer> iter = invalidLocales.iterator(); iter.hasNext();) {
+			int localeID = iter.next().intValue();
+			this.catalog.invalidate(localeID);
+			this.searchIndex.invalidate(localeID);
+		}
+
+		List<QuoteHolder> changed = new ArrayList<QuoteHolder>();
+		List<QuoteHolder> olds = new ArrayList<QuoteHolder>();
+		List<Integer> removed = new ArrayList<Integer>();
+		for (Iterator<Map.Entry<Integer, Integer>> iter = changes.entrySet().iterator(); iter.hasNext();) {
+			Map.Entry<Integer, Integer> change = iter.next();
+			if (invalidLocales.contains(change.getValue())) {
+				continue;
+			}
+			// The words of the old version are only known if it is resident, or if the locale is and the quote is new
+			QuoteHolder old = this.catalog.getQuote(change.getKey().intValue());
+			if (old == null && !this.catalog.isLoaded(change.getValue().intValue())) {
+				this.searchIndex.invalidate(change.getValue().intValue());
+			}
+			olds.add(old);
+			QuoteHolder holder = holders.get(change.getKey());
+			if (holder != null) {
+				changed.add(holder);
+			}
+			else {
+				removed.add(change.getKey());
+			}
+		}
+		int[] removedIDs = new int[removed.size()];
+		int[] removedLocaleIDs = new int[removed.size()];
+		for (int i = 0; i < removedIDs.length; i++) {
+			removedIDs[i] = removed.get(i).intValue();
+			removedLocaleIDs[i] = changes.get(removed.get(i)).intValue();
+		}
+		this.catalog.update(changed, removedIDs, removedLocaleIDs);
+
+		int index = 0;
+		for (Iterator<Map.Entry<Integer, Integer>> iter = changes.entrySet().iterator(); iter.hasNext();) {
+			Map.Entry<Integer, Integer> change = iter.next();
+			if (invalidLocales.contains(change.getValue())) {
+				continue;
+			}
+			QuoteHolder old = olds.get(index++);
+			QuoteHolder holder = holders.get(change.getKey());
+			if (holder != null) {
+				this.searchIndex.put(old, holder);
+			}
+			else if (old != null) {
+				this.searchIndex.remove(old);
+			}
+			this.cache.replaceQuote(change.getKey().intValue(), holder);
+		}
+
+		for (int i = 0; i < quoteIDs.length; i++) {
+			fireQuoteChanged(localeIDs[i], quoteIDs[i]);
+		}
+	}
+
+	/**
+	 * Imports the quotes of a CSV or JSON stream, see {@link QuoteTransfer} for the formats. The stream is read one
+	 * quote at a time and written with batched inserts committed in chunks, so the size of the stream is not limited
+	 * by memory. The catalog is invalidated once for each affected locale when the import is done. If the import
+	 * fails, the chunks committed before the failure are kept.
+	 * <p>
+	 * Imports run one at a time, but do not hold up edits. The imported quotes are inserted without an ordinal, so
+	 * that they cannot collide with quotes saved meanwhile, and the affected locales are numbered again when the
+	 * import is done.
+	 *
+	 * @param format {@link QuoteTransfer#FORMAT_CSV} or {@link QuoteTransfer#FORMAT_JSON}.
+	 * @param defaultLocaleID The locale (IC_LOCALE_ID) of quotes that do not specify one.
+	 * @param listener Notified after each committed chunk, may be <code>null</code>.
+	 * @return The number of quotes imported.
+	 */
+	public long importQuotes(InputStream stream, String format, int defaultLocaleID, QuoteImportListener listener) throws IOException, IDOException {
+		synchronized (this.importLock) {
+			return importQuotesLocked(stream, format, defaultLocaleID, listener);
+		}
+	}
+
+	private long importQuotesLocked(InputStream stream, String format, int defaultLocaleID, QuoteImportListener listener) throws IOException, IDOException {
+		Reader reader = new InputStreamReader(stream, QuoteTransfer.ENCODING);
+		QuoteRecordReader records;
+		if (QuoteTransfer.FORMAT_JSON.equalsIgnoreCase(format)) {
+			records = new QuoteJsonReader(reader);
+		}
+		else if (QuoteTransfer.FORMAT_CSV.equalsIgnoreCase(format)) {
+			records = new QuoteCsvReader(reader);
+		}
+		else {
+			throw new IllegalArgumentException("Unknown import format: " + format);
+		}
+
+		QuoteImporter importer = new QuoteImporter(this, getQuoteHome());
+		try {
+			return importer.importQuotes(records, defaultLocaleID, listener);
+		}
+		finally {
+			int[] localeIDs = importer.getLocaleIDs();
+			this.counts.invalidate();
+			for (int i = 0; i < localeIDs.length; i++) {
+				try {
+					getQuoteHome().assignOrdinals(localeIDs[i]);
+				}
+				catch (IDOException e) {
+					LOGGER.log(Level.WARNING, "Could not number the quotes of locale " + localeIDs[i] + " after an import", e);
+				}
+				this.catalog.invalidate(localeIDs[i]);
+				this.searchIndex.invalidate(localeIDs[i]);
+				fireQuoteChanged(localeIDs[i], -1);
+			}
+		}
+	}
+
+	/**
+	 * Imports a file in the background, see {@link #importQuotes(InputStream, String, int, QuoteImportListener)}.
+	 *
+	 * @return The status to follow the import with, or <code>null</code> if an import started this way is still running.
+	 */
+	public QuoteImportStatus startImport(final File file, final String format, final int defaultLocaleID) {
+		QuoteImportStatus current = this.importStatus.get();
+		final QuoteImportStatus status = new QuoteImportStatus(file.getName());
+		if (current != null && !current.isFinished() || !this.importStatus.compareAndSet(current, status)) {
+			return null;
+		}
+
+		Thread thread = new Thread(new Runnable() {
+
+			public void run() {
+				boolean failed = true;
+				InputStream stream = null;
+				try {
+					stream = new FileInputStream(file);
+					importQuotes(stream, format, defaultLocaleID, status);
+					failed = false;
+				}
+				catch (Exception e) {
+					LOGGER.log(Level.WARNING, "Could not import quotes from " + file, e);
+				}
+				finally {
+					if (stream != null) {
+						try {
+							stream.close();
+						}
+						catch (IOException e) {
+						}
+					}
+					status.finish(failed);
+				}
+			}
+		}, "QuoteImport");
+		thread.setDaemon(true);
+		thread.start();
+		return status;
+	}
+
+	/**
+	 * @return The status of the last import started with {@link #startImport(File, String, int)}, or <code>null</code>.
+	 */
+	public QuoteImportStatus getImportStatus() {
+		return this.importStatus.get();
+	}
+
+	/**
+	 * Writes the quotes of the locales to the stream as CSV or JSON, in a form that {@link #importQuotes(InputStream,
+	 * String, int, QuoteImportListener)} reads back. The quotes are read with a database cursor and written as they
+	 * arrive, so neither entities nor the whole catalog are held in memory. The stream is flushed but not closed.
+	 *
+	 * @param format {@link QuoteTransfer#FORMAT_CSV} or {@link QuoteTransfer#FORMAT_JSON}.
+	 * @return The number of quotes exported.
+	 */
+	public long exportQuotes(OutputStream stream, String format, int[] localeIDs) throws IOException, IDOException {
+		Writer writer = new BufferedWriter(new OutputStreamWriter(stream, QuoteTransfer.ENCODING));
+		final QuoteRecordWriter records;
+		if (QuoteTransfer.FORMAT_JSON.equalsIgnoreCase(format)) {
+			records = new QuoteJsonWriter(writer);
+		}
+		else if (QuoteTransfer.FORMAT_CSV.equalsIgnoreCase(format)) {
+			records = new QuoteCsvWriter(writer);
+		}
+		else {
+			throw new IllegalArgumentException("Unknown export format: " + format);
+		}
+
+		final long[] count = new long[1];
+		QuoteRowHandler handler = new QuoteRowHandler() {
+
+			public void handleRow(int quoteID, int localeID, int ordinal, String text, String author, String origin, String formattedText, int formatVersion, int weight) throws IOException {
+				records.write(quoteID, localeID, text, author, origin, weight);
+				count[0]++;
+			}
+		};
+		for (int i = 0; i < localeIDs.length; i++) {
+			getQuoteHome().scanQuotesByLocale(localeIDs[i], SCAN_FETCH_SIZE, handler);
+		}
+		records.finish();
+		return count[0];
+	}
+
+	/**
+	 * Adds the unique index on the ordinals of the quotes if it does not exist yet, see
+	 * {@link QuoteEntityHome#addOrdinalConstraint()}. Called in the background on startup.
+	 */
+	public void addOrdinalConstraint() {
+		try {
+			getQuoteHome().addOrdinalConstraint();
+		}
+		catch (IDOException e) {
+			LOGGER.log(Level.WARNING, "Could not add the unique index on the quote ordinals", e);
+		}
+	}
+
+	/**
+	 * Formats the quotes that were saved with an older (or no) format version. Works through the outdated quotes in
+	 * chunks, so it can run over a large catalog in the background. The affected locales are invalidated once at the
+	 * end rather than patched quote by quote.
+	 *
+	 * @return The number of quotes formatted.
+	 */
+	public int reformatQuotes() {
+		int count = 0;
+		Set<Integer> localeIDs = new HashSet<Integer>();
+		QuoteEntityHome qhome = getQuoteHome();
+		while (true) {
+			java.util.Collection quotes;
+			try {
+				quotes = qhome.findQuotesWithOutdatedFormat(FORMAT_VERSION, REFORMAT_CHUNK_SIZE);
+			}
+			catch (FinderException fe) {
+				break;
+			}
+			if (quotes.isEmpty()) {
+				break;
+			}
+
+			int formatted = 0;
+			for (Iterator iter = quotes.iterator(); iter.hasNext();) {
+				QuoteEntity quote = (QuoteEntity) iter.next();
+				try {
+					formatQuote(quote);
+					quote.store();
+					localeIDs.add(new Integer(quote.getICLocaleID()));
+					formatted++;
+				}
+				catch (Exception e) {
+					e.printStackTrace(System.err);
+				}
+			}
+			count += formatted;
+			if (formatted == 0) {
+				break;
+			}
+		}
+
+		for (Iterator<Integer> iter = localeIDs.iterator(); iter.hasNext();) {
+			int localeID = iter.next().intValue();
+			this.catalog.invalidate(localeID);
+			fireQuoteChanged(localeID, -1);
+		}
+		return count;
+	}
+
+	private void formatQuote(QuoteEntity quote) {
+		quote.setFormattedText(formatText(quote.getQuoteText()));
+		quote.setFormatVersion(FORMAT_VERSION);
+	}
+
+	protected String formatText(String text) {
+		return TextSoap.formatText(text != null ? text : "");
+	}
+
+	public void addQuoteChangeListener(QuoteChangeListener listener) {
+		if (!this.listeners.contains(listener)) {
+			this.listeners.add(listener);
+		}
+	}
+
+	public void removeQuoteChangeListener(QuoteChangeListener listener) {
+		this.listeners.remove(listener);
+	}
+
+	protected void fireQuoteChanged(int localeID, int quoteID) {
+		for (Iterator<QuoteChangeListener> iter = this.listeners.iterator(); iter.hasNext();) {
+			try {
+				iter.next().quoteChanged(localeID, quoteID);
+			}
+			catch (RuntimeException re) {
+				re.printStackTrace(System.err);
+			}
+		}
 	}
 
 	public QuoteHolder getQuoteHolder(QuoteEntity quote) {
 		QuoteHolder holder = null;
 		if (quote != null) {
-			holder = new QuoteHolder();
-			holder.setQuoteID(((Integer) quote.getPrimaryKey()).intValue());
-			holder.setAuthor(quote.getQuoteAuthor());
-			holder.setOrigin(quote.getQuoteOrigin());
-			holder.setText(quote.getQuoteText());
-			holder.setLocaleID(quote.getICLocaleID());
+			holder = getQuoteHolder(((Integer) quote.getPrimaryKey()).intValue(), quote.getICLocaleID(), quote.getQuoteText(), quote.getQuoteAuthor(), quote.getQuoteOrigin(), quote.getFormattedText(), quote.getFormatVersion(), quote.getWeight());
+		}
+		return holder;
+	}
+
+	/**
+	 * Creates the record of a quote from its column values, formatting the text if it was stored with an older format.
+	 */
+	QuoteHolder getQuoteHolder(int quoteID, int localeID, String text, String author, String origin, String formattedText, int formatVersion, int weight) {
+		QuoteHolder holder = new QuoteHolder();
+		holder.setQuoteID(quoteID);
+		holder.setAuthor(author);
+		holder.setOrigin(origin);
+		holder.setText(text);
+		if (formatVersion == FORMAT_VERSION) {
+			holder.setFormattedText(formattedText);
+		}
+		else {
+			holder.setFormattedText(formatText(text));
 		}
+		holder.setLocaleID(localeID);
+		holder.setWeight(weight >= 0 ? weight : DEFAULT_WEIGHT);
 		return holder;
 	}
 
 	public QuoteHolder getQuoteHolder(int quoteID) {
+		QuoteHolder holder = this.catalog.getQuote(quoteID);
+		if (holder != null) {
+			return holder;
+		}
 		try {
-			QuoteEntityHome qhome = this.getQuoteHome();
-			QuoteEntity quote = qhome.findByPrimaryKey(new Integer(quoteID));
-			return getQuoteHolder(quote);
+			return readQuoteHolder(quoteID);
 		}
 		catch (Exception e) {
 			return null;
 		}
 	}
 
+	/**
+	 * Reads a quote from the database into a record, without creating an entity bean.
+	 *
+	 * @return The quote, or <code>null</code> if it does not exist.
+	 */
+	private QuoteHolder readQuoteHolder(int quoteID) throws IDOException, IOException {
+		QuoteHolderList quotes = new QuoteHolderList();
+		getQuoteHome().scanQuotesByIDs(new int[] { quoteID }, quotes);
+		return quotes.getFirst();
+	}
+
+	/**
+	 * @deprecated Use {@link #getRandomQuoteHolder(int)}, which picks from the resident catalog without loading an entity.
+	 */
+	@Deprecated
 	public QuoteEntity getRandomQuote(int localeID) {
+		QuoteHolder holder = getRandomQuoteHolder(localeID);
+		if (holder == null) {
+			return null;
+		}
 		try {
-			java.util.Collection cQuotes;
-			QuoteEntityHome qhome = getQuoteHome();
-			cQuotes = qhome.findAllQuotesByLocale(localeID);
+			return getQuoteHome().findByPrimaryKey(new Integer(holder.getQuoteID()));
+		}
+		catch (Exception e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Picks a quote of the locale at random, in proportion to the quote weights. Locales too large to be resident are
+	 * picked from uniformly.
+	 */
+	public QuoteHolder getRandomQuoteHolder(int localeID) {
+		QuoteColumns quotes = getResidentQuotes(localeID);
+		if (quotes != null) {
+			QuoteAliasSampler sampler = this.catalog.getSampler(localeID);
+			if (sampler != null && !sampler.isUniform()) {
+				return sampler.getQuotes().get(sampler.next(this.random));
+			}
+			return this.catalog.getRandomQuote(quotes);
+		}
+		int count = getNumberOfQuotes(localeID);
+		if (count <= 0) {
+			return null;
+		}
+		return getQuoteHolderByOrdinal(localeID, this.catalog.nextRandom(count));
+	}
+
+	/**
+	 * Returns one page of the quotes of the locale for listing, starting after the quote <code>afterID</code>. Pass
+	 * -1 for the first page and the ID of the last quote of a page for the page after it.
+	 *
+	 * @param afterAuthor The author of the last quote of the previous page as listed, <code>null</code> if it had
+	 *        none. Only used when sorting by author.
+	 * @param sortByAuthor Whether the quotes are sorted by author instead of by ID.
+	 */
+	public List<QuoteHolder> getQuotes(int localeID, String afterAuthor, int afterID, int maxNumberOfQuotes, boolean sortByAuthor) {
+		QuoteHolderList quotes = new QuoteHolderList();
+		try {
+			getQuoteHome().scanQuotePageByLocale(localeID, afterAuthor, afterID, maxNumberOfQuotes, sortByAuthor, quotes);
+		}
+		catch (Exception e) {
+			e.printStackTrace(System.err);
+		}
+		return quotes.getQuotes();
+	}
+
+	/**
+	 * Finds the quotes of the locale whose text, author or origin contain all words of the query. Words are matched
+	 * whole, ignoring case and accents; a word can be limited to one field by prefixing it with <code>text:</code>,
+	 * <code>author:</code> or <code>origin:</code>. The locale is indexed on the first search and kept current as
+	 * quotes are saved and deleted.
+	 *
+	 * @param maxNumberOfQuotes The maximum number of quotes returned, in ascending ID order.
+	 */
+	public List<QuoteHolder> searchQuotes(int localeID, String query, int maxNumberOfQuotes) {
+		int[] matches = searchQuoteIDs(localeID, query);
+		if (matches.length > maxNumberOfQuotes) {
+			matches = Arrays.copyOf(matches, maxNumberOfQuotes);
+		}
+
+		// Resident quotes are taken from the catalog, the others are read with one query
+		List<QuoteHolder> quotes = new ArrayList<QuoteHolder>(matches.length);
+		QuoteColumns resident = this.catalog.getQuotes(localeID);
+		if (resident != null) {
+			for (int i = 0; i < matches.length; i++) {
+				int index = resident.indexOf(matches[i]);
+				if (index == -1) {
+					resident = null;
+					quotes.clear();
+					break;
+				}
+				quotes.add(resident.get(index));
+			}
+		}
+		if (resident == null && matches.length > 0) {
+			QuoteHolderList read = new QuoteHolderList();
+			try {
+				getQuoteHome().scanQuotesByIDs(matches, read);
+			}
+			catch (Exception e) {
+				e.printStackTrace(System.err);
+			}
+			quotes.addAll(read.getQuotes());
+			Collections.sort(quotes, new Comparator<QuoteHolder>() {
+
+				public int compare(QuoteHolder first, QuoteHolder second) {
+					return first.getQuoteID() < second.getQuoteID() ? -1 : (first.getQuoteID() == second.getQuoteID() ? 0 : 1);
+				}
+			});
+		}
+		return quotes;
+	}
+
+	/**
+	 * @return The number of quotes of the locale matching the query.
+	 */
+	public int getNumberOfMatchingQuotes(int localeID, String query) {
+		return searchQuoteIDs(localeID, query).length;
+	}
+
+	/**
+	 * Picks one of the quotes matching the query at random.
+	 *
+	 * @return The quote, or <code>null</code> if no quote matches.
+	 */
+	public QuoteHolder getRandomQuoteHolder(int localeID, String query) {
+		int[] matches = searchQuoteIDs(localeID, query);
+		if (matches.length == 0) {
+			return null;
+		}
+		return getQuoteHolder(matches[this.random.nextInt(matches.length)]);
+	}
+
+	private int[] searchQuoteIDs(int localeID, String query) {
+		QuoteSearchIndex.LocaleIndex index = getSearchIndex(localeID);
+		return index != null ? index.search(query) : new int[0];
+	}
+
+	/**
+	 * Returns the search index of the locale, building it with a scan over the quotes of the locale the first time.
+	 * Threads that ask for the index while it is built wait for it. If the scan fails the index is dropped and
+	 * <code>null</code> is returned, so that the next request builds it again.
+	 */
+	private QuoteSearchIndex.LocaleIndex getSearchIndex(int localeID) {
+		QuoteSearchIndex.LocaleIndex index = this.searchIndex.getIndex(localeID);
+		if (index != null) {
+			return index;
+		}
+		index = this.searchIndex.createIndex(localeID, ICLocaleBusiness.getLocale(localeID));
+		if (index == null) {
+			return this.searchIndex.getIndex(localeID);
+		}
 
-			QuoteEntity[] quotes = (QuoteEntity[]) cQuotes.toArray(new QuoteEntity[0]);
-			if (quotes != null) {
-				if (quotes.length > 0) {
-					int quoteNumber = (int) Math.round(Math.random() * (quotes.length - 1));
-					return quotes[quoteNumber];
+		final QuoteSearchIndex.LocaleIndex newIndex = index;
+		boolean built = false;
+		try {
+			getQuoteHome().scanQuotesByLocale(localeID, SCAN_FETCH_SIZE, new QuoteRowHandler() {
+
+				public void handleRow(int quoteID, int quoteLocaleID, int ordinal, String text, String author, String origin, String formattedText, int formatVersion, int weight) {
+					newIndex.add(quoteID, text, author, origin);
 				}
+			});
+			built = true;
+		}
+		catch (Exception e) {
+			e.printStackTrace(System.err);
+		}
+		finally {
+			if (!built) {
+				newIndex.fail();
+				this.searchIndex.invalidate(localeID);
+			}
+			newIndex.unlock();
+		}
+		return built ? newIndex : null;
+	}
+
+	/**
+	 * Returns the next quote in the shuffle bag of the object instance, so that every quote of the locale is shown once
+	 * before any quote is repeated and the same quote is never shown twice in a row. In a locale where the quotes
+	 * have different weights, quotes are instead drawn in proportion to their weights, still avoiding a repeat of
+	 * the quote currently shown.
+	 */
+	public QuoteHolder getNextQuoteHolder(int localeID, int objectID) {
+		return getNextQuoteHolder(localeID, objectID, null);
+	}
+
+	/**
+	 * Returns the next quote for the object instance among the quotes matching the search query, picked at random
+	 * but never the quote currently shown if another one matches. All quotes of the locale are used if the query is
+	 * <code>null</code> or empty, see {@link #getNextQuoteHolder(int, int)}.
+	 */
+	public QuoteHolder getNextQuoteHolder(int localeID, int objectID, String searchQuery) {
+		if (searchQuery != null && searchQuery.trim().length() > 0) {
+			int[] matches = searchQuoteIDs(localeID, searchQuery);
+			if (matches.length == 0) {
+				return null;
+			}
+			QuoteCache.Entry current = this.cache.getEntry(localeID, objectID);
+			int index = this.random.nextInt(matches.length);
+			if (current != null && matches.length > 1 && matches[index] == current.getHolder().getQuoteID()) {
+				index = (index + 1 + this.random.nextInt(matches.length - 1)) % matches.length;
 			}
+			QuoteMetrics.ROTATIONS.increment();
+			return getQuoteHolder(matches[index]);
+		}
+
+		QuoteColumns quotes = getResidentQuotes(localeID);
+		int size = quotes != null ? quotes.size() : getNumberOfQuotes(localeID);
+		if (size <= 0) {
 			return null;
 		}
+
+		if (quotes != null) {
+			QuoteAliasSampler sampler = this.catalog.getSampler(localeID);
+			if (sampler != null && !sampler.isUniform()) {
+				return getWeightedQuoteHolder(sampler, localeID, objectID);
+			}
+		}
+
+		int index = nextBagIndex(localeID, objectID, size);
+		if (quotes != null) {
+			return quotes.get(index);
+		}
+		return getQuoteHolderByOrdinal(localeID, index);
+	}
+
+	/**
+	 * Steps the shuffle bag of the object instance.
+	 *
+	 * @return The index of the next quote, between 0 and <code>size</code> - 1.
+	 */
+	private int nextBagIndex(int localeID, int objectID, int size) {
+		Long key = new Long(QuoteCache.getKey(localeID, objectID));
+		QuoteShuffleBag bag = this.bags.get(key);
+		if (bag == null || bag.getSize() != size) {
+			bag = new QuoteShuffleBag(size, this.random.nextLong());
+		}
+		else {
+			bag = bag.next(this.random.nextLong());
+		}
+		if (this.bags.put(key, bag) == null && this.bags.size() > MAX_BAGS) {
+			dropBag(key);
+		}
+		QuoteMetrics.ROTATIONS.increment();
+		return bag.getIndex();
+	}
+
+	/**
+	 * Drops a shuffle bag other than the one of <code>keep</code>, to bound the number of bags. The map is not ordered,
+	 * so the bag dropped is an arbitrary one.
+	 */
+	private void dropBag(Long keep) {
+		for (Iterator<Long> iter = this.bags.keySet().iterator(); iter.hasNext();) {
+			if (!iter.next().equals(keep)) {
+				iter.remove();
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Assigns quotes to all object instances of the keys (see {@link QuoteCache#getKey(int, int)}) that have no
+	 * current quote in the cache, with at most one query per locale: resident locales are loaded once for all
+	 * instances, and the quotes of other locales are read by ordinal in one batch. Used to resolve all Quote blocks
+	 * of a page on the first miss instead of one block at a time, see {@link QuoteRequestLoader}.
+	 *
+	 * @param rotations The rotation of each object instance, <code>null</code> for the default rotation.
+	 * @return The number of quotes assigned.
+	 */
+	int prefetchQuotes(long[] keys, QuoteRotation[] rotations) {
+		QuoteCache quoteCache = this.cache;
+		long now = System.currentTimeMillis();
+		Map<Integer, List<Integer>> missing = new HashMap<Integer, List<Integer>>();
+		Map<Integer, QuoteRotation> rotationsByObject = new HashMap<Integer, QuoteRotation>();
+		for (int i = 0; i < keys.length; i++) {
+			int localeID = resolveLocale((int) (keys[i] >>> 32));
+			int objectID = (int) keys[i];
+			rotationsByObject.put(new Integer(objectID), getRotation(rotations[i]));
+			if (quoteCache.peek(localeID, objectID, now) == null) {
+				Integer localeKey = new Integer(localeID);
+				List<Integer> objectIDs = missing.get(localeKey);
+				if (objectIDs == null) {
+					objectIDs = new ArrayList<Integer>();
+					missing.put(localeKey, objectIDs);
+				}
+				objectIDs.add(new Integer(objectID));
+			}
+		}
+
+		int count = 0;
+		for (Iterator<Map.Entry<Integer, List<Integer>>> iter = missing.entrySet().iterator(); iter.hasNext();) {
+			Map.Entry<Integer, List<Integer>> entry = iter.next();
+			int localeID = entry.getKey().intValue();
+			List<Integer> objectIDs = entry.getValue();
+			try {
+				if (getResidentQuotes(localeID) != null) {
+					for (Iterator<Integer> objects = objectIDs.iterator(); objects.hasNext();) {
+						int objectID = objects.next().intValue();
+						QuoteHolder holder = getNextQuoteHolder(localeID, objectID);
+						if (holder != null && quoteCache.peek(localeID, objectID, now) == null) {
+							QuoteRotation rotation = rotationsByObject.get(new Integer(objectID));
+							quoteCache.put(localeID, objectID, holder, getNextRotation(rotation, now), rotation);
+							count++;
+						}
+					}
+					continue;
+				}
+
+				int size = getNumberOfQuotes(localeID);
+				if (size <= 0) {
+					continue;
+				}
+				int[] ordinals = new int[objectIDs.size()];
+				for (int i = 0; i < ordinals.length; i++) {
+					ordinals[i] = nextBagIndex(localeID, objectIDs.get(i).intValue(), size);
+				}
+				final Map<Integer, QuoteHolder> quotesByOrdinal = new HashMap<Integer, QuoteHolder>();
+				getQuoteHome().scanQuotesByLocaleAndOrdinals(localeID, ordinals, new QuoteRowHandler() {
+
+					public void handleRow(int quoteID, int quoteLocaleID, int ordinal, String text, String author, String origin, String formattedText, int formatVersion, int weight) {
+						quotesByOrdinal.put(new Integer(ordinal), getQuoteHolder(quoteID, quoteLocaleID, text, author, origin, formattedText, formatVersion, weight));
+					}
+				});
+				for (int i = 0; i < ordinals.length; i++) {
+					// A missing ordinal is left to the block, which repairs the ordinals of the locale
+					QuoteHolder holder = quotesByOrdinal.get(new Integer(ordinals[i]));
+					int objectID = objectIDs.get(i).intValue();
+					if (holder != null && quoteCache.peek(localeID, objectID, now) == null) {
+						QuoteRotation rotation = rotationsByObject.get(new Integer(objectID));
+						quoteCache.put(localeID, objectID, holder, getNextRotation(rotation, now), rotation);
+						count++;
+					}
+				}
+			}
+			catch (Exception e) {
+				e.printStackTrace(System.err);
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * @return <code>true</code> if the object instance has a current quote in the cache.
+	 */
+	boolean isQuoteCached(int localeID, int objectID) {
+		return this.cache.peek(resolveLocale(localeID), objectID, System.currentTimeMillis()) != null;
+	}
+
+	private QuoteHolder getWeightedQuoteHolder(QuoteAliasSampler sampler, int localeID, int objectID) {
+		QuoteCache.Entry current = this.cache.getEntry(localeID, objectID);
+		int currentID = current != null ? current.getHolder().getQuoteID() : -1;
+		QuoteColumns quotes = sampler.getQuotes();
+		int index = sampler.next(this.random);
+		for (int i = 0; i < WEIGHTED_REDRAWS && quotes.getQuoteID(index) == currentID; i++) {
+			index = sampler.next(this.random);
+		}
+		QuoteMetrics.ROTATIONS.increment();
+		return quotes.get(index);
+	}
+
+	/**
+	 * Looks up a quote of a locale that is not resident with a single indexed lookup on the ordinal column.
+	 */
+	private QuoteHolder getQuoteHolderByOrdinal(int localeID, int ordinal) {
+		QuoteEntityHome qhome = getQuoteHome();
+		try {
+			QuoteHolder holder = readQuoteHolder(localeID, ordinal);
+			if (holder != null) {
+				return holder;
+			}
+
+			// Rows from before the ordinal column existed, or a gap left by a concurrent edit
+			QuoteMetrics.ORDINAL_REPAIRS.increment();
+			qhome.assignOrdinals(localeID);
+			int count = qhome.getNumberOfQuotes(localeID);
+			if (count <= 0) {
+				return null;
+			}
+			this.catalog.setNonResidentCount(localeID, count);
+			return readQuoteHolder(localeID, ordinal % count);
+		}
 		catch (Exception e) {
+			e.printStackTrace(System.err);
+			return null;
+		}
+	}
+
+	private QuoteHolder readQuoteHolder(int localeID, int ordinal) throws IDOException, IOException {
+		QuoteHolderList quotes = new QuoteHolderList();
+		getQuoteHome().scanQuotesByLocaleAndOrdinals(localeID, new int[] { ordinal }, quotes);
+		return quotes.getFirst();
+	}
+
+	/**
+	 * Stores a new quote with the ordinal after the highest one of its locale. The unique index on the ordinals makes
+	 * the insert fail if a quote saved meanwhile, on this node or another, took the same ordinal; the quote is then
+	 * stored again with the next one.
+	 */
+	private void storeNewQuote(QuoteEntityHome qhome, QuoteEntity quote, int localeID) throws IDOException {
+		for (int attempt = 1;; attempt++) {
+			quote.setOrdinal(qhome.getNextOrdinal(localeID));
+			try {
+				quote.store();
+				return;
+			}
+			catch (RuntimeException re) {
+				if (attempt >= MAX_ORDINAL_ATTEMPTS) {
+					throw re;
+				}
+				QuoteMetrics.ORDINAL_CONFLICTS.increment();
+			}
+		}
+	}
+
+	/**
+	 * Keeps the ordinals of a locale dense after a delete by moving the quote with the highest ordinal into the gap.
+	 */
+	private void fillOrdinalGap(int localeID, int ordinal) {
+		if (ordinal < 0) {
+			return;
+		}
+		try {
+			QuoteEntityHome qhome = getQuoteHome();
+			int last = qhome.getNextOrdinal(localeID) - 1;
+			if (ordinal < last) {
+				QuoteEntity lastQuote = qhome.findQuoteByLocaleAndOrdinal(localeID, last);
+				lastQuote.setOrdinal(ordinal);
+				lastQuote.store();
+			}
+		}
+		catch (FinderException fe) {
+			// The gap is repaired by assignOrdinals on the next random pick
+		}
+		catch (IDOException ie) {
+			ie.printStackTrace(System.err);
+		}
+	}
+
+	/**
+	 * Sets the locales to show quotes from when a locale has none, as a list of chains separated by semicolons. A
+	 * chain is a locale, an equals sign and the locales to try in order; <code>default</code> is the default locale
+	 * of the application and the chain of <code>*</code> applies to the locales without a chain of their own:
+	 * <pre>
+	 * is_IS=en,default; sv_SE=en; *=default
+	 * </pre>
+	 * Locales that do not exist are skipped. Without chains, every locale only shows its own quotes.
+	 */
+	public void setLocaleFallbacks(String chains) {
+		Map<Integer, int[]> newFallbacks = new HashMap<Integer, int[]>();
+		int[] newDefaultFallbacks = new int[0];
+		if (chains != null) {
+			String[] entries = chains.split(";");
+			for (int i = 0; i < entries.length; i++) {
+				int separator = entries[i].indexOf('=');
+				if (separator == -1) {
+					continue;
+				}
+				String locale = entries[i].substring(0, separator).trim();
+				int[] chain = getLocaleIDs(entries[i].substring(separator + 1).split(","));
+				if (locale.equals(FALLBACK_ALL)) {
+					newDefaultFallbacks = chain;
+				}
+				else {
+					int[] localeID = getLocaleIDs(new String[] { locale });
+					if (localeID.length > 0) {
+						newFallbacks.put(new Integer(localeID[0]), chain);
+					}
+				}
+			}
+		}
+		this.fallbacks = newFallbacks;
+		this.defaultFallbacks = newDefaultFallbacks;
+	}
+
+	/**
+	 * Returns the locale that quotes are shown from for the locale: the locale itself if it has quotes, otherwise the
+	 * first locale of its fallback chain that has. The chain is walked over the quote counts kept in memory, so no
+	 * query is made once the counts have been read.
+	 *
+	 * @return The locale to show quotes from, the locale itself if no locale of the chain has quotes.
+	 */
+	public int resolveLocale(int localeID) {
+		int[] chain = this.fallbacks.get(new Integer(localeID));
+		if (chain == null) {
+			chain = this.defaultFallbacks;
+		}
+		if (chain.length == 0 || getNumberOfQuotes(localeID) > 0) {
+			return localeID;
+		}
+		for (int i = 0; i < chain.length; i++) {
+			if (chain[i] != localeID && getNumberOfQuotes(chain[i]) > 0) {
+				return chain[i];
+			}
+		}
+		return localeID;
+	}
+
+	private int[] getLocaleIDs(String[] locales) {
+		int[] localeIDs = new int[locales.length];
+		int count = 0;
+		for (int i = 0; i < locales.length; i++) {
+			String localeString = locales[i].trim();
+			try {
+				Locale locale;
+				if (localeString.equals(FALLBACK_DEFAULT)) {
+					locale = IWMainApplication.getDefaultIWMainApplication().getSettings().getDefaultLocale();
+				}
+				else {
+					locale = ICLocaleBusiness.getLocaleFromLocaleString(localeString);
+				}
+				int localeID = locale != null ? ICLocaleBusiness.getLocaleId(locale) : -1;
+				if (localeID > 0) {
+					localeIDs[count++] = localeID;
+				}
+			}
+			catch (RuntimeException re) {
+				re.printStackTrace(System.err);
+			}
+		}
+		int[] result = new int[count];
+		System.arraycopy(localeIDs, 0, result, 0, count);
+		return result;
+	}
+
+	/**
+	 * Reads the number of quotes of every locale with one query.
+	 */
+	private void loadCounts() {
+		long stamp = this.counts.getModificationStamp();
+		try {
+			this.counts.load(getQuoteHome().getNumberOfQuotesByLocale(), stamp);
+		}
+		catch (IDOException ie) {
+			ie.printStackTrace(System.err);
+		}
+	}
+
+	public void setMaxResidentQuotes(int maxResidentQuotes) {
+		this.maxResidentQuotes = maxResidentQuotes;
+	}
+
+	/**
+	 * Keeps the texts of locales loaded from now on in direct memory, outside the Java heap. Off by default.
+	 */
+	public void setOffHeapCatalog(boolean offHeap) {
+		this.catalog.setOffHeap(offHeap);
+	}
+
+	/**
+	 * @deprecated Use {@link #getQuoteHolder(int)} or {@link #getRandomQuoteHolder(int)}, the resident quotes are kept
+	 *             in columns and this creates a record for every quote of the locale.
+	 */
+	@Deprecated
+	protected QuoteHolder[] getQuotes(int localeID) {
+		QuoteColumns quotes = getResidentQuotes(localeID);
+		if (quotes == null) {
 			return null;
 		}
+		QuoteHolder[] holders = new QuoteHolder[quotes.size()];
+		for (int i = 0; i < holders.length; i++) {
+			holders[i] = quotes.get(i);
+		}
+		return holders;
+	}
+
+	/**
+	 * Returns the resident quotes for the locale, loading them from the database the first time the locale is requested.
+	 *
+	 * @return The quotes, or <code>null</code> if the locale is too large to be kept in memory.
+	 */
+	QuoteColumns getResidentQuotes(final int localeID) {
+		QuoteColumns quotes = this.catalog.getQuotes(localeID);
+		if (quotes == null) {
+			if (this.catalog.getNonResidentCount(localeID) != -1) {
+				return null;
+			}
+			quotes = this.loads.execute(localeID, new Callable<QuoteColumns>() {
+
+				public QuoteColumns call() {
+					return loadQuotes(localeID);
+				}
+			});
+		}
+		return quotes;
+	}
+
+	private QuoteColumns loadQuotes(int localeID) {
+		QuoteColumns quotes = this.catalog.getQuotes(localeID);
+		if (quotes == null) {
+			if (this.catalog.getNonResidentCount(localeID) != -1) {
+				return null;
+			}
+			long stamp = this.catalog.getModificationStamp();
+			try {
+				int count = getNumberOfQuotes(localeID);
+				if (count > this.maxResidentQuotes) {
+					this.catalog.setNonResidentCount(localeID, count);
+					return null;
+				}
+				final QuoteColumns.Builder builder = new QuoteColumns.Builder(localeID, count, this.catalog.isOffHeap());
+				if (count > 0) {
+					getQuoteHome().scanQuotesByLocale(localeID, SCAN_FETCH_SIZE, new QuoteRowHandler() {
+
+						public void handleRow(int quoteID, int quoteLocaleID, int ordinal, String text, String author, String origin, String formattedText, int formatVersion, int weight) {
+							builder.add(getQuoteHolder(quoteID, quoteLocaleID, text, author, origin, formattedText, formatVersion, weight));
+						}
+					});
+				}
+				quotes = builder.build();
+			}
+			catch (Exception e) {
+				return null;
+			}
+			quotes = this.catalog.setQuotes(localeID, quotes, stamp);
+			QuoteSnapshot currentSnapshot = this.snapshot;
+			if (currentSnapshot != null) {
+				currentSnapshot.scheduleWrite();
+			}
+		}
+		return quotes;
+	}
+
+	/**
+	 * Publishes the locales read from a snapshot, see {@link QuoteSnapshot}. Locales that are already loaded are kept.
+	 *
+	 * @return The locales published.
+	 */
+	Map<Integer, QuoteColumns> publishSnapshot(Map<Integer, QuoteColumns> quotesByLocale) {
+		Map<Integer, QuoteColumns> published = new HashMap<Integer, QuoteColumns>();
+		for (Iterator<Map.Entry<Integer, QuoteColumns>> iter = quotesByLocale.entrySet().iterator(); iter.hasNext();) {
+			Map.Entry<Integer, QuoteColumns> entry = iter.next();
+			int localeID = entry.getKey().intValue();
+			if (this.catalog.setQuotes(localeID, entry.getValue(), this.catalog.getModificationStamp()) == entry.getValue()) {
+				published.put(entry.getKey(), entry.getValue());
+			}
+		}
+		return published;
+	}
+
+	/**
+	 * Checks the locales published from a snapshot against the database, by number of quotes and highest quote ID,
+	 * and reads the locales that differ again. Deleted quotes are also dropped from the quote cache. Reads the quote
+	 * counts of all locales on the way.
+	 *
+	 * @return The number of locales read again.
+	 */
+	int reconcile(Map<Integer, QuoteColumns> published) throws IDOException {
+		long stamp = this.counts.getModificationStamp();
+		Map numbers = getQuoteHome().getNumberOfQuotesByLocale();
+		Map maxIDs = getQuoteHome().getMaxQuoteIDsByLocale();
+		this.counts.load(numbers, stamp);
+
+		int count = 0;
+		for (Iterator<Map.Entry<Integer, QuoteColumns>> iter = published.entrySet().iterator(); iter.hasNext();) {
+			Map.Entry<Integer, QuoteColumns> entry = iter.next();
+			int localeID = entry.getKey().intValue();
+			QuoteColumns quotes = entry.getValue();
+			Integer number = (Integer) numbers.get(entry.getKey());
+			Integer maxID = (Integer) maxIDs.get(entry.getKey());
+			if (quotes.size() == (number != null ? number.intValue() : 0) && quotes.getMaxQuoteID() == (maxID != null ? maxID.intValue() : -1)) {
+				continue;
+			}
+			if (this.catalog.getQuotes(localeID) != quotes) {
+				// Changed since startup, so already current
+				continue;
+			}
+
+			this.catalog.invalidate(localeID);
+			this.searchIndex.invalidate(localeID);
+			QuoteColumns current = getResidentQuotes(localeID);
+			for (int i = 0; current != null && i < quotes.size(); i++) {
+				int quoteID = quotes.getQuoteID(i);
+				if (current.indexOf(quoteID) == -1) {
+					this.cache.replaceQuote(quoteID, null);
+				}
+			}
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * @return The quotes of all resident locales.
+	 */
+	Collection<QuoteColumns> getResidentQuotes() {
+		return this.catalog.getAllQuotes();
+	}
+
+	void setSnapshot(QuoteSnapshot snapshot) {
+		this.snapshot = snapshot;
 	}
 
 	protected QuoteEntityHome getQuoteHome() {
@@ -210,4 +1674,23 @@ public class QuoteBusiness {
 		return this.quoteHome;
 	}
 
+	/**
+	 * Collects the rows of a scan as quote records.
+	 */
+	private class QuoteHolderList implements QuoteRowHandler {
+
+		private final List<QuoteHolder> quotes = new ArrayList<QuoteHolder>();
+
+		public void handleRow(int quoteID, int localeID, int ordinal, String text, String author, String origin, String formattedText, int formatVersion, int weight) {
+			this.quotes.add(getQuoteHolder(quoteID, localeID, text, author, origin, formattedText, formatVersion, weight));
+		}
+
+		List<QuoteHolder> getQuotes() {
+			return this.quotes;
+		}
+
+		QuoteHolder getFirst() {
+			return this.quotes.isEmpty() ? null : this.quotes.get(0);
+		}
+	}
 }
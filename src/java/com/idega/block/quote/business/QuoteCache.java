@@ -0,0 +1,437 @@
+package com.idega.block.quote.business;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Bounded cache of the quote currently assigned to each (locale, object instance) pair. Entries are kept in
+ * open addressed tables keyed by a primitive long, split into segments with a lock each, and evicted with the
+ * CLOCK (second chance) policy when a segment is full. A lookup does not allocate: the key is packed into a long
+ * and freshness is a single comparison against the expiry instant stored in the entry.
+ */
+class QuoteCache {
+
+	public static final int DEFAULT_MAX_SIZE = 10000;
+
+	private static final int SEGMENTS = 16;
+
+	static final class Entry {
+
+		final long key;
+		final QuoteHolder holder;
+		final long expires;
+		final QuoteRotation rotation;
+		final String searchQuery;
+		final QuoteHolder next;
+		final long nextExpires;
+		boolean referenced;
+
+		Entry(long key, QuoteHolder holder, long expires, QuoteRotation rotation, String searchQuery) {
+			this(key, holder, expires, rotation, searchQuery, null, 0);
+		}
+
+		/**
+		 * @param rotation The rotation the expiry was computed with.
+		 * @param searchQuery The search query the quote was picked with, or <code>null</code>.
+		 * @param next The quote that takes over when this one expires, precomputed before the rollover.
+		 */
+		Entry(long key, QuoteHolder holder, long expires, QuoteRotation rotation, String searchQuery, QuoteHolder next, long nextExpires) {
+			this.key = key;
+			this.holder = holder;
+			this.expires = expires;
+			this.rotation = rotation;
+			this.searchQuery = searchQuery;
+			this.next = next;
+			this.nextExpires = nextExpires;
+		}
+
+		QuoteHolder getHolder() {
+			return this.holder;
+		}
+
+		long getExpires() {
+			return this.expires;
+		}
+
+		QuoteRotation getRotation() {
+			return this.rotation;
+		}
+
+		String getSearchQuery() {
+			return this.searchQuery;
+		}
+
+		int getLocaleID() {
+			return (int) (this.key >>> 32);
+		}
+
+		int getObjectID() {
+			return (int) this.key;
+		}
+	}
+
+	private final Segment[] segments;
+	private final int maxSize;
+
+	QuoteCache() {
+		this(DEFAULT_MAX_SIZE);
+	}
+
+	QuoteCache(int maxSize) {
+		int segmentSize = Math.max((maxSize + SEGMENTS - 1) / SEGMENTS, 1);
+		this.maxSize = segmentSize * SEGMENTS;
+		this.segments = new Segment[SEGMENTS];
+		for (int i = 0; i < SEGMENTS; i++) {
+			this.segments[i] = new Segment(segmentSize);
+		}
+	}
+
+	static long getKey(int localeID, int objectID) {
+		return ((long) localeID << 32) | (objectID & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * @return The holder if the pair has an entry that has not expired at <code>now</code>, otherwise <code>null</code>.
+	 */
+	QuoteHolder get(int localeID, int objectID, long now) {
+		long key = getKey(localeID, objectID);
+		return segmentFor(key).get(key, now, true, true);
+	}
+
+	/**
+	 * Same as {@link #get(int, int, long)} but without counting a hit or a miss.
+	 */
+	QuoteHolder peek(int localeID, int objectID, long now) {
+		long key = getKey(localeID, objectID);
+		return segmentFor(key).get(key, now, false, false);
+	}
+
+	/**
+	 * Same as {@link #get(int, int, long)} but without counting a miss, for a lookup that is repeated with another
+	 * locale on a miss.
+	 */
+	QuoteHolder probe(int localeID, int objectID, long now) {
+		long key = getKey(localeID, objectID);
+		return segmentFor(key).get(key, now, true, false);
+	}
+
+	/**
+	 * @return The entry for the pair, expired or not, without counting a hit or a miss.
+	 */
+	Entry getEntry(int localeID, int objectID) {
+		long key = getKey(localeID, objectID);
+		return segmentFor(key).getEntry(key);
+	}
+
+	void put(int localeID, int objectID, QuoteHolder holder, long expires, QuoteRotation rotation) {
+		put(localeID, objectID, holder, expires, rotation, null);
+	}
+
+	/**
+	 * @param searchQuery The search query the quote was picked with, so that the next quote is picked with it too.
+	 */
+	void put(int localeID, int objectID, QuoteHolder holder, long expires, QuoteRotation rotation, String searchQuery) {
+		long key = getKey(localeID, objectID);
+		segmentFor(key).put(new Entry(key, QuoteColumns.detach(holder), expires, rotation, searchQuery));
+	}
+
+	/**
+	 * Attaches the quote that takes over when the current entry expires, provided the entry still expires at
+	 * <code>expires</code>, or its attached quote does. The switch then happens atomically on the first lookup after
+	 * the rollover.
+	 *
+	 * @return <code>true</code> if the next quote was attached.
+	 */
+	boolean putNext(int localeID, int objectID, long expires, QuoteHolder next, long nextExpires) {
+		long key = getKey(localeID, objectID);
+		return segmentFor(key).putNext(key, expires, QuoteColumns.detach(next), nextExpires);
+	}
+
+	/**
+	 * @return A snapshot of all entries in the cache.
+	 */
+	List<Entry> getEntries() {
+		List<Entry> entries = new ArrayList<Entry>();
+		for (int i = 0; i < this.segments.length; i++) {
+			this.segments[i].addEntries(entries);
+		}
+		return entries;
+	}
+
+	void remove(int localeID, int objectID) {
+		long key = getKey(localeID, objectID);
+		segmentFor(key).remove(key);
+	}
+
+	/**
+	 * Puts the new version of a quote in place of the old one in every entry showing it, keeping the expiry of the
+	 * entries. With a <code>null</code> holder, entries showing the quote are removed, so the next lookup picks
+	 * another quote.
+	 *
+	 * @return The number of entries changed.
+	 */
+	int replaceQuote(int quoteID, QuoteHolder holder) {
+		int count = 0;
+		for (int i = 0; i < this.segments.length; i++) {
+			count += this.segments[i].replaceQuote(quoteID, holder);
+		}
+		return count;
+	}
+
+	void clear() {
+		for (int i = 0; i < this.segments.length; i++) {
+			this.segments[i].clear();
+		}
+	}
+
+	int size() {
+		int size = 0;
+		for (int i = 0; i < this.segments.length; i++) {
+			size += this.segments[i].getSize();
+		}
+		return size;
+	}
+
+	int getMaxSize() {
+		return this.maxSize;
+	}
+
+	long getHits() {
+		long hits = 0;
+		for (int i = 0; i < this.segments.length; i++) {
+			hits += this.segments[i].getHits();
+		}
+		return hits;
+	}
+
+	long getMisses() {
+		long misses = 0;
+		for (int i = 0; i < this.segments.length; i++) {
+			misses += this.segments[i].getMisses();
+		}
+		return misses;
+	}
+
+	long getEvictions() {
+		long evictions = 0;
+		for (int i = 0; i < this.segments.length; i++) {
+			evictions += this.segments[i].getEvictions();
+		}
+		return evictions;
+	}
+
+	private Segment segmentFor(long key) {
+		return this.segments[(int) (hash(key) >>> 60)];
+	}
+
+	static long hash(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return h ^ (h >>> 29);
+	}
+
+	private static final class Segment {
+
+		private final Entry[] table;
+		private final int mask;
+		private final int capacity;
+		private int size;
+		private int hand;
+		private long hits;
+		private long misses;
+		private long evictions;
+
+		Segment(int capacity) {
+			int length = Integer.highestOneBit(Math.max(capacity, 1) * 2 - 1) << 1;
+			this.table = new Entry[length];
+			this.mask = length - 1;
+			this.capacity = capacity;
+		}
+
+		synchronized QuoteHolder get(long key, long now, boolean recordHit, boolean recordMiss) {
+			int index = indexOf(key);
+			if (index != -1) {
+				Entry entry = this.table[index];
+				if (now >= entry.expires && entry.next != null && now < entry.nextExpires) {
+					entry = new Entry(key, entry.next, entry.nextExpires, entry.rotation, entry.searchQuery);
+					this.table[index] = entry;
+				}
+				if (now < entry.expires) {
+					if (recordHit) {
+						entry.referenced = true;
+						this.hits++;
+					}
+					return entry.holder;
+				}
+			}
+			if (recordMiss) {
+				this.misses++;
+			}
+			return null;
+		}
+
+		synchronized boolean putNext(long key, long expires, QuoteHolder next, long nextExpires) {
+			int index = indexOf(key);
+			if (index != -1) {
+				Entry entry = this.table[index];
+				Entry rotated = null;
+				if (entry.expires == expires) {
+					rotated = new Entry(key, entry.holder, entry.expires, entry.rotation, entry.searchQuery, next, nextExpires);
+				}
+				else if (entry.next != null && entry.nextExpires == expires) {
+					// The quote attached at the previous rollover has taken over
+					rotated = new Entry(key, entry.next, entry.nextExpires, entry.rotation, entry.searchQuery, next, nextExpires);
+				}
+				if (rotated != null) {
+					rotated.referenced = entry.referenced;
+					this.table[index] = rotated;
+					return true;
+				}
+			}
+			return false;
+		}
+
+		synchronized void addEntries(List<Entry> entries) {
+			for (int i = 0; i < this.table.length; i++) {
+				if (this.table[i] != null) {
+					entries.add(this.table[i]);
+				}
+			}
+		}
+
+		synchronized Entry getEntry(long key) {
+			int index = indexOf(key);
+			return index != -1 ? this.table[index] : null;
+		}
+
+		synchronized void put(Entry entry) {
+			int index = indexOf(entry.key);
+			if (index != -1) {
+				entry.referenced = this.table[index].referenced;
+				this.table[index] = entry;
+				return;
+			}
+			if (this.size >= this.capacity) {
+				evict();
+			}
+			index = slot(entry.key);
+			while (this.table[index] != null) {
+				index = (index + 1) & this.mask;
+			}
+			this.table[index] = entry;
+			this.size++;
+		}
+
+		synchronized void remove(long key) {
+			int index = indexOf(key);
+			if (index != -1) {
+				delete(index);
+			}
+		}
+
+		synchronized int replaceQuote(int quoteID, QuoteHolder holder) {
+			int count = 0;
+			for (int i = 0; i < this.table.length; i++) {
+				Entry entry = this.table[i];
+				if (entry == null) {
+					continue;
+				}
+				boolean current = entry.holder.getQuoteID() == quoteID;
+				boolean next = entry.next != null && entry.next.getQuoteID() == quoteID;
+				if (!current && !next) {
+					continue;
+				}
+				if (current && holder == null) {
+					// The delete shifts a later entry of the probe sequence into this slot, so look at it again
+					delete(i--);
+				}
+				else {
+					Entry patched = new Entry(entry.key, current ? holder : entry.holder, entry.expires, entry.rotation, entry.searchQuery, next ? holder : entry.next, entry.nextExpires);
+					patched.referenced = entry.referenced;
+					this.table[i] = patched;
+				}
+				count++;
+			}
+			return count;
+		}
+
+		synchronized void clear() {
+			for (int i = 0; i < this.table.length; i++) {
+				this.table[i] = null;
+			}
+			this.size = 0;
+		}
+
+		synchronized int getSize() {
+			return this.size;
+		}
+
+		synchronized long getHits() {
+			return this.hits;
+		}
+
+		synchronized long getMisses() {
+			return this.misses;
+		}
+
+		synchronized long getEvictions() {
+			return this.evictions;
+		}
+
+		private int slot(long key) {
+			return (int) hash(key) & this.mask;
+		}
+
+		private int indexOf(long key) {
+			int index = slot(key);
+			Entry entry;
+			while ((entry = this.table[index]) != null) {
+				if (entry.key == key) {
+					return index;
+				}
+				index = (index + 1) & this.mask;
+			}
+			return -1;
+		}
+
+		/**
+		 * Sweeps the clock hand over the table, giving referenced entries a second chance, and removes the first
+		 * entry that has not been referenced since the hand last passed it.
+		 */
+		private void evict() {
+			while (true) {
+				Entry entry = this.table[this.hand];
+				if (entry != null) {
+					if (entry.referenced) {
+						entry.referenced = false;
+					}
+					else {
+						delete(this.hand);
+						this.evictions++;
+						return;
+					}
+				}
+				this.hand = (this.hand + 1) & this.mask;
+			}
+		}
+
+		/**
+		 * Removes the entry at the index and shifts back the entries of the probe sequence that follows it, so that
+		 * lookups never need tombstones.
+		 */
+		private void delete(int index) {
+			int gap = index;
+			int next = (gap + 1) & this.mask;
+			Entry entry;
+			while ((entry = this.table[next]) != null) {
+				int home = slot(entry.key);
+				if (((next - home) & this.mask) >= ((next - gap) & this.mask)) {
+					this.table[gap] = entry;
+					gap = next;
+				}
+				next = (next + 1) & this.mask;
+			}
+			this.table[gap] = null;
+			this.size--;
+		}
+	}
+}
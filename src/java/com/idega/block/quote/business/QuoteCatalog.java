@@ -0,0 +1,282 @@
+package com.idega.block.quote.business;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resident catalog of quotes, holding the quotes of each locale in immutable
+ * {@link QuoteColumns}. A locale is loaded once and from then on picks are made
+ * from memory without touching the database. Edits replace the columns of the
+ * affected locale (copy on write) so readers never see a partially updated
+ * catalog. The weighted sampler of a locale is built on a background thread
+ * after its quotes are published; until it is ready the locale has no sampler
+ * and picks are uniform, so a quote that was just edited or deleted is never
+ * picked from the previous columns.
+ */
+class QuoteCatalog {
+
+	private final Map<Integer, QuoteColumns> quotesByLocale = new ConcurrentHashMap<Integer, QuoteColumns>();
+	private final Map<Integer, QuoteAliasSampler> samplers = new ConcurrentHashMap<Integer, QuoteAliasSampler>();
+	private final Map<Integer, Integer> nonResidentCounts = new ConcurrentHashMap<Integer, Integer>();
+	private final Random random = new Random();
+	private final ThreadPoolExecutor samplerBuilder;
+
+	private volatile long modificationCount = 0;
+	private volatile boolean offHeap = false;
+
+	QuoteCatalog() {
+		this.samplerBuilder = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "QuoteCatalog");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		this.samplerBuilder.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * @return The quotes for the locale, or <code>null</code> if the locale has not been loaded.
+	 */
+	QuoteColumns getQuotes(int localeID) {
+		return this.quotesByLocale.get(new Integer(localeID));
+	}
+
+	/**
+	 * @return The quotes of all loaded locales.
+	 */
+	Collection<QuoteColumns> getAllQuotes() {
+		return new ArrayList<QuoteColumns>(this.quotesByLocale.values());
+	}
+
+	/**
+	 * @return The sampler for the resident quotes of the locale, or <code>null</code> if the locale has not been
+	 *         loaded or the sampler for its current quotes is not ready yet.
+	 */
+	QuoteAliasSampler getSampler(int localeID) {
+		return this.samplers.get(new Integer(localeID));
+	}
+
+	boolean isLoaded(int localeID) {
+		return this.quotesByLocale.containsKey(new Integer(localeID));
+	}
+
+	/**
+	 * @return Whether the texts of locales loaded from now on are kept outside the Java heap.
+	 */
+	boolean isOffHeap() {
+		return this.offHeap;
+	}
+
+	void setOffHeap(boolean offHeap) {
+		this.offHeap = offHeap;
+	}
+
+	/**
+	 * @return The number of quotes in a locale that is too large to be kept resident, or -1 if unknown.
+	 */
+	int getNonResidentCount(int localeID) {
+		Integer count = this.nonResidentCounts.get(new Integer(localeID));
+		return count != null ? count.intValue() : -1;
+	}
+
+	void setNonResidentCount(int localeID, int count) {
+		this.nonResidentCounts.put(new Integer(localeID), new Integer(count));
+	}
+
+	/**
+	 * Returns a stamp to pass to {@link #setQuotes(int, QuoteColumns, long)}, taken before the locale is read from the database.
+	 */
+	long getModificationStamp() {
+		return this.modificationCount;
+	}
+
+	/**
+	 * Publishes the quotes loaded for a locale. The columns are rejected if the catalog was
+	 * modified after the stamp was taken, since the loaded data may then be out of date.
+	 *
+	 * @return The quotes now resident for the locale.
+	 */
+	synchronized QuoteColumns setQuotes(int localeID, QuoteColumns quotes, long stamp) {
+		Integer key = new Integer(localeID);
+		QuoteColumns current = this.quotesByLocale.get(key);
+		if (current != null) {
+			return current;
+		}
+		if (stamp != this.modificationCount) {
+			return quotes;
+		}
+
+		publish(key, quotes);
+		return quotes;
+	}
+
+	QuoteHolder getQuote(int quoteID) {
+		for (Iterator<QuoteColumns> iter = this.quotesByLocale.values().iterator(); iter.hasNext();) {
+			QuoteColumns quotes = iter.next();
+			int index = quotes.indexOf(quoteID);
+			if (index != -1) {
+				return quotes.get(index);
+			}
+		}
+		return null;
+	}
+
+	QuoteHolder getRandomQuote(QuoteColumns quotes) {
+		if (quotes == null || quotes.size() == 0) {
+			return null;
+		}
+		return quotes.get(this.random.nextInt(quotes.size()));
+	}
+
+	int nextRandom(int bound) {
+		return this.random.nextInt(bound);
+	}
+
+	/**
+	 * Adds the quote to its locale or replaces the existing record with the same ID.
+	 */
+	void put(QuoteHolder quote) {
+		update(Collections.singletonList(quote), null, null);
+	}
+
+	void remove(int quoteID, int localeID) {
+		update(Collections.<QuoteHolder>emptyList(), new int[] { quoteID }, new int[] { localeID });
+	}
+
+	/**
+	 * Applies a batch of changes, building the columns of each affected locale once however many of its quotes
+	 * changed, so that a burst of edits costs one copy of the locale instead of one per edit.
+	 *
+	 * @param quotes The quotes to add or replace, each in its own locale.
+	 * @param removedIDs The IDs of the quotes to remove, may be <code>null</code>.
+	 * @param removedLocaleIDs The locales of the removed quotes, may be <code>null</code>.
+	 */
+	synchronized void update(Collection<QuoteHolder> quotes, int[] removedIDs, int[] removedLocaleIDs) {
+		this.modificationCount++;
+		Map<Integer, QuoteHolder> changed = new HashMap<Integer, QuoteHolder>();
+		for (Iterator<QuoteHolder> iter = quotes.iterator(); iter.hasNext();) {
+			QuoteHolder quote = iter.next();
+			changed.put(new Integer(quote.getQuoteID()), quote);
+			this.nonResidentCounts.remove(new Integer(quote.getLocaleID()));
+		}
+		Set<Integer> removed = new HashSet<Integer>();
+		if (removedIDs != null) {
+			for (int i = 0; i < removedIDs.length; i++) {
+				removed.add(new Integer(removedIDs[i]));
+				this.nonResidentCounts.remove(new Integer(removedLocaleIDs[i]));
+			}
+		}
+
+		for (Iterator<Map.Entry<Integer, QuoteColumns>> iter = new ArrayList<Map.Entry<Integer, QuoteColumns>>(this.quotesByLocale.entrySet()).iterator(); iter.hasNext();) {
+			Map.Entry<Integer, QuoteColumns> entry = iter.next();
+			int localeID = entry.getKey().intValue();
+			QuoteColumns current = entry.getValue();
+
+			// The quotes new to the locale, and whether any of its own quotes change or leave it
+			List<QuoteHolder> added = new ArrayList<QuoteHolder>();
+			boolean touched = false;
+			for (Iterator<QuoteHolder> quoteIter = changed.values().iterator(); quoteIter.hasNext();) {
+				QuoteHolder quote = quoteIter.next();
+				boolean resident = current.indexOf(quote.getQuoteID()) != -1;
+				if (quote.getLocaleID() == localeID && !resident) {
+					added.add(quote);
+				}
+				touched |= resident;
+			}
+			for (Iterator<Integer> idIter = removed.iterator(); idIter.hasNext() && !touched;) {
+				touched = current.indexOf(idIter.next().intValue()) != -1;
+			}
+			if (!touched && added.isEmpty()) {
+				continue;
+			}
+
+			QuoteColumns.Builder builder = new QuoteColumns.Builder(localeID, current.size() + added.size(), this.offHeap);
+			for (int i = 0; i < current.size(); i++) {
+				Integer quoteID = new Integer(current.getQuoteID(i));
+				QuoteHolder quote = changed.get(quoteID);
+				if (quote != null) {
+					if (quote.getLocaleID() == localeID) {
+						builder.add(quote);
+					}
+				}
+				else if (!removed.contains(quoteID)) {
+					builder.add(current, i);
+				}
+			}
+			for (Iterator<QuoteHolder> quoteIter = added.iterator(); quoteIter.hasNext();) {
+				builder.add(quoteIter.next());
+			}
+			publish(entry.getKey(), builder.build());
+		}
+	}
+
+	/**
+	 * Drops the quotes of the locale, so that they are loaded again on the next request.
+	 */
+	synchronized void invalidate(int localeID) {
+		this.modificationCount++;
+		Integer localeKey = new Integer(localeID);
+		this.nonResidentCounts.remove(localeKey);
+		this.samplers.remove(localeKey);
+		this.quotesByLocale.remove(localeKey);
+	}
+
+	synchronized void clear() {
+		this.modificationCount++;
+		this.quotesByLocale.clear();
+		this.samplers.clear();
+		this.nonResidentCounts.clear();
+	}
+
+	/**
+	 * Publishes the quotes of a locale and has their sampler built in the background. Called with the catalog locked.
+	 * A build is skipped if the locale has changed again before it starts, and its result is dropped if the locale
+	 * changed while it ran, so a stale sampler never replaces a newer one.
+	 */
+	private void publish(final Integer localeKey, final QuoteColumns quotes) {
+		this.quotesByLocale.put(localeKey, quotes);
+		// The previous sampler picks from the previous columns
+		this.samplers.remove(localeKey);
+		this.samplerBuilder.execute(new Runnable() {
+
+			public void run() {
+				if (QuoteCatalog.this.quotesByLocale.get(localeKey) != quotes) {
+					return;
+				}
+				QuoteAliasSampler sampler = new QuoteAliasSampler(quotes);
+				synchronized (QuoteCatalog.this) {
+					if (QuoteCatalog.this.quotesByLocale.get(localeKey) == quotes) {
+						QuoteCatalog.this.samplers.put(localeKey, sampler);
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Waits until the sampler builds queued so far have run. For tests.
+	 */
+	void awaitSamplers() throws InterruptedException, ExecutionException {
+		this.samplerBuilder.submit(new Runnable() {
+
+			public void run() {
+			}
+		}).get();
+	}
+}
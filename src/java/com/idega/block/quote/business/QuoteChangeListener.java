@@ -0,0 +1,14 @@
+package com.idega.block.quote.business;
+
+/**
+ * Notified by {@link QuoteBusiness} when a quote is created, changed or deleted, so that data derived from quotes
+ * can be dropped or updated.
+ */
+public interface QuoteChangeListener {
+
+	/**
+	 * @param localeID The locale of the quote.
+	 * @param quoteID The quote that changed, or -1 if any number of quotes in the locale changed, as after an import.
+	 */
+	public void quoteChanged(int localeID, int quoteID);
+}
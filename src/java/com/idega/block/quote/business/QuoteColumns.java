@@ -0,0 +1,591 @@
+package com.idega.block.quote.business;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The resident quotes of one locale in columns instead of one {@link QuoteHolder} per quote. Texts are kept as UTF-8
+ * in one byte arena, on the heap or off it, with two offsets per quote: the text and the formatted text, which is
+ * only stored when it differs from the text. Authors and origins repeat a lot and are kept once in a dictionary
+ * that the quotes index into. IDs are an int column, searched by binary search as they are usually loaded in
+ * ascending order, or through an open addressing table if they are not. Weights only take a column when they differ.
+ * <p>
+ * A million quotes of 85 characters take about 90 MB this way against about 280 MB as holders on a JVM with compact
+ * strings, and more than that on older JVMs that keep strings in UTF-16, see <code>QuoteColumnsBenchmark</code>.
+ * {@link #get(int)} returns a view that decodes the fields when they are read.
+ * Immutable: edits build a new instance with {@link Builder}, copying the encoded quotes they keep as bytes. Columns
+ * can be written to a file and read back from it in place, see {@link QuoteSnapshot}.
+ */
+final class QuoteColumns {
+
+	private static final String ENCODING = "UTF-8";
+
+	private static final byte FLAG_TEXT_NULL = 1;
+	private static final byte FLAG_FORMATTED_NULL = 2;
+	private static final byte FLAG_FORMATTED_AS_TEXT = 4;
+
+	static final QuoteColumns EMPTY = new Builder(-1, 0, false).build();
+
+	private final int localeID;
+	private final int size;
+	private final int[] ids;
+	/**
+	 * <code>null</code> if all quotes have {@link #weight}.
+	 */
+	private final int[] weights;
+	private final int weight;
+	private final int[] authors;
+	private final int[] origins;
+	private final byte[] flags;
+	/**
+	 * The text of quote i runs from offsets[2i] to offsets[2i + 1], its formatted text from there to offsets[2i + 2].
+	 */
+	private final int[] offsets;
+	private final String[] dictionary;
+	private final byte[] heapArena;
+	private final ByteBuffer arena;
+	/**
+	 * <code>null</code> if the IDs are in ascending order.
+	 */
+	private final int[] table;
+	private final int mask;
+
+	private QuoteColumns(Builder builder) {
+		this.localeID = builder.localeID;
+		this.size = builder.size;
+		this.ids = trim(builder.ids, this.size);
+		boolean uniform = true;
+		for (int i = 1; i < this.size; i++) {
+			uniform = uniform && builder.weights[i] == builder.weights[0];
+		}
+		this.weights = uniform ? null : trim(builder.weights, this.size);
+		this.weight = this.size > 0 ? builder.weights[0] : QuoteBusiness.DEFAULT_WEIGHT;
+		this.authors = trim(builder.authors, this.size);
+		this.origins = trim(builder.origins, this.size);
+		this.offsets = trim(builder.offsets, 2 * this.size + 1);
+		this.flags = new byte[this.size];
+		System.arraycopy(builder.flags, 0, this.flags, 0, this.size);
+		this.dictionary = builder.dictionary.toArray(new String[builder.dictionary.size()]);
+
+		int length = this.offsets[2 * this.size];
+		if (builder.offHeap) {
+			this.heapArena = null;
+			this.arena = ByteBuffer.allocateDirect(length);
+			this.arena.put(builder.arena, 0, length);
+			this.arena.clear();
+		}
+		else {
+			this.heapArena = new byte[length];
+			System.arraycopy(builder.arena, 0, this.heapArena, 0, length);
+			this.arena = ByteBuffer.wrap(this.heapArena);
+		}
+		this.table = createTable(this.ids);
+		this.mask = this.table != null ? this.table.length - 1 : 0;
+	}
+
+	/**
+	 * Reads columns written by {@link #write(FileChannel)}, positioned after them. The texts are not copied: the
+	 * columns keep reading them from the buffer, which may be a file mapped into memory.
+	 */
+	QuoteColumns(ByteBuffer buffer) throws IOException {
+		try {
+			this.localeID = buffer.getInt();
+			this.size = buffer.getInt();
+			this.weight = buffer.getInt();
+			boolean hasWeights = buffer.get() != 0;
+			String[] entries = new String[buffer.getInt()];
+			for (int i = 0; i < entries.length; i++) {
+				byte[] bytes = new byte[buffer.getInt()];
+				buffer.get(bytes);
+				entries[i] = new String(bytes, ENCODING);
+			}
+			this.dictionary = entries;
+			this.ids = readInts(buffer, this.size);
+			this.weights = hasWeights ? readInts(buffer, this.size) : null;
+			this.authors = readInts(buffer, this.size);
+			this.origins = readInts(buffer, this.size);
+			this.offsets = readInts(buffer, 2 * this.size + 1);
+			this.flags = new byte[this.size];
+			buffer.get(this.flags);
+
+			int length = this.offsets[2 * this.size];
+			ByteBuffer texts = buffer.slice();
+			texts.limit(length);
+			texts = texts.slice();
+			buffer.position(buffer.position() + length);
+			if (texts.hasArray()) {
+				this.heapArena = new byte[length];
+				texts.get(this.heapArena);
+				this.arena = ByteBuffer.wrap(this.heapArena);
+			}
+			else {
+				this.heapArena = null;
+				this.arena = texts;
+			}
+		}
+		catch (RuntimeException re) {
+			// BufferUnderflowException, IllegalArgumentException or NegativeArraySizeException from a damaged file
+			throw new IOException("Damaged quote columns: " + re);
+		}
+		this.table = createTable(this.ids);
+		this.mask = this.table != null ? this.table.length - 1 : 0;
+	}
+
+	/**
+	 * Writes the columns in the form read by {@link #QuoteColumns(ByteBuffer)}.
+	 */
+	void write(FileChannel channel) throws IOException {
+		byte[][] entries = new byte[this.dictionary.length][];
+		int length = 4 * 4 + 1;
+		for (int i = 0; i < entries.length; i++) {
+			entries[i] = this.dictionary[i].getBytes(ENCODING);
+			length += 4 + entries[i].length;
+		}
+		ByteBuffer header = ByteBuffer.allocate(length);
+		header.putInt(this.localeID);
+		header.putInt(this.size);
+		header.putInt(this.weight);
+		header.put((byte) (this.weights != null ? 1 : 0));
+		header.putInt(entries.length);
+		for (int i = 0; i < entries.length; i++) {
+			header.putInt(entries[i].length);
+			header.put(entries[i]);
+		}
+		header.flip();
+		writeFully(channel, header);
+
+		writeInts(channel, this.ids);
+		if (this.weights != null) {
+			writeInts(channel, this.weights);
+		}
+		writeInts(channel, this.authors);
+		writeInts(channel, this.origins);
+		writeInts(channel, this.offsets);
+		writeFully(channel, ByteBuffer.wrap(this.flags));
+		// The whole arena, whatever the position of the buffer it was created from
+		ByteBuffer texts = this.arena.duplicate();
+		texts.clear();
+		writeFully(channel, texts);
+	}
+
+	int getLocaleID() {
+		return this.localeID;
+	}
+
+	int size() {
+		return this.size;
+	}
+
+	boolean isOffHeap() {
+		return this.heapArena == null;
+	}
+
+	/**
+	 * @return <code>true</code> if all quotes have the same weight.
+	 */
+	boolean isUniform() {
+		return this.weights == null;
+	}
+
+	/**
+	 * @return The highest quote ID, or -1 if there are no quotes.
+	 */
+	int getMaxQuoteID() {
+		if (this.table == null) {
+			return this.size > 0 ? this.ids[this.size - 1] : -1;
+		}
+		int max = -1;
+		for (int i = 0; i < this.size; i++) {
+			max = Math.max(max, this.ids[i]);
+		}
+		return max;
+	}
+
+	int getQuoteID(int index) {
+		return this.ids[index];
+	}
+
+	int getWeight(int index) {
+		return this.weights != null ? this.weights[index] : this.weight;
+	}
+
+	/**
+	 * @return The index of the quote, or -1 if it is not in these columns.
+	 */
+	int indexOf(int quoteID) {
+		if (this.table == null) {
+			int index = Arrays.binarySearch(this.ids, quoteID);
+			return index >= 0 ? index : -1;
+		}
+		int slot = hash(quoteID) & this.mask;
+		int entry;
+		while ((entry = this.table[slot]) != 0) {
+			if (this.ids[entry - 1] == quoteID) {
+				return entry - 1;
+			}
+			slot = (slot + 1) & this.mask;
+		}
+		return -1;
+	}
+
+	/**
+	 * @return A view of the quote at the index, its text fields are decoded when read.
+	 */
+	QuoteHolder get(int index) {
+		return new View(this, index);
+	}
+
+	/**
+	 * @return The number of bytes held by the columns, without the object headers.
+	 */
+	long getFootprint() {
+		long bytes = 4L * (this.ids.length + this.authors.length + this.origins.length + this.offsets.length);
+		bytes += 4L * ((this.weights != null ? this.weights.length : 0) + (this.table != null ? this.table.length : 0));
+		bytes += this.flags.length + this.arena.capacity();
+		for (int i = 0; i < this.dictionary.length; i++) {
+			bytes += 2L * this.dictionary[i].length();
+		}
+		return bytes;
+	}
+
+	/**
+	 * @return The number of bytes of text, held outside the heap if the columns are off heap.
+	 */
+	int getArenaSize() {
+		return this.arena.capacity();
+	}
+
+	String getText(int index) {
+		if ((this.flags[index] & FLAG_TEXT_NULL) != 0) {
+			return null;
+		}
+		return decode(this.offsets[2 * index], this.offsets[2 * index + 1]);
+	}
+
+	String getFormattedText(int index) {
+		byte flag = this.flags[index];
+		if ((flag & FLAG_FORMATTED_NULL) != 0) {
+			return null;
+		}
+		if ((flag & FLAG_FORMATTED_AS_TEXT) != 0) {
+			return getText(index);
+		}
+		return decode(this.offsets[2 * index + 1], this.offsets[2 * index + 2]);
+	}
+
+	String getAuthor(int index) {
+		int entry = this.authors[index];
+		return entry != -1 ? this.dictionary[entry] : null;
+	}
+
+	String getOrigin(int index) {
+		int entry = this.origins[index];
+		return entry != -1 ? this.dictionary[entry] : null;
+	}
+
+	/**
+	 * @return The quote as a plain record if it is a view, so that keeping it does not keep the columns reachable.
+	 */
+	static QuoteHolder detach(QuoteHolder quote) {
+		if (!(quote instanceof View)) {
+			return quote;
+		}
+		QuoteHolder copy = new QuoteHolder();
+		copy.setQuoteID(quote.getQuoteID());
+		copy.setLocaleID(quote.getLocaleID());
+		copy.setText(quote.getText());
+		copy.setFormattedText(quote.getFormattedText());
+		copy.setAuthor(quote.getAuthor());
+		copy.setOrigin(quote.getOrigin());
+		copy.setWeight(quote.getWeight());
+		return copy;
+	}
+
+	private String decode(int from, int to) {
+		try {
+			if (this.heapArena != null) {
+				return new String(this.heapArena, from, to - from, ENCODING);
+			}
+			byte[] bytes = new byte[to - from];
+			ByteBuffer buffer = this.arena.duplicate();
+			buffer.position(from);
+			buffer.get(bytes);
+			return new String(bytes, ENCODING);
+		}
+		catch (UnsupportedEncodingException uee) {
+			throw new IllegalStateException(uee.getMessage());
+		}
+	}
+
+	/**
+	 * @return The table mapping the IDs to their indexes, or <code>null</code> if the IDs are in ascending order.
+	 */
+	private static int[] createTable(int[] ids) {
+		boolean sorted = true;
+		for (int i = 1; i < ids.length && sorted; i++) {
+			sorted = ids[i] > ids[i - 1];
+		}
+		if (sorted) {
+			return null;
+		}
+
+		int capacity = 2;
+		while (capacity < ids.length * 2) {
+			capacity <<= 1;
+		}
+		int[] table = new int[capacity];
+		int mask = capacity - 1;
+		for (int i = 0; i < ids.length; i++) {
+			int slot = hash(ids[i]) & mask;
+			while (table[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+			table[slot] = i + 1;
+		}
+		return table;
+	}
+
+	private static int[] readInts(ByteBuffer buffer, int length) {
+		int[] values = new int[length];
+		buffer.asIntBuffer().get(values);
+		buffer.position(buffer.position() + 4 * length);
+		return values;
+	}
+
+	private static void writeInts(FileChannel channel, int[] values) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(4 * values.length);
+		buffer.asIntBuffer().put(values);
+		writeFully(channel, buffer);
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+
+	private static int hash(int quoteID) {
+		int h = quoteID * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	private static int[] trim(int[] array, int length) {
+		int[] trimmed = new int[length];
+		System.arraycopy(array, 0, trimmed, 0, length);
+		return trimmed;
+	}
+
+	/**
+	 * A quote read from the columns. Keeps the columns it was read from reachable for as long as it is referenced.
+	 */
+	private static final class View extends QuoteHolder {
+
+		private final QuoteColumns columns;
+		private final int index;
+
+		View(QuoteColumns columns, int index) {
+			this.columns = columns;
+			this.index = index;
+		}
+
+		public int getQuoteID() {
+			return this.columns.ids[this.index];
+		}
+
+		public String getOrigin() {
+			return this.columns.getOrigin(this.index);
+		}
+
+		public String getText() {
+			return this.columns.getText(this.index);
+		}
+
+		public String getFormattedText() {
+			return this.columns.getFormattedText(this.index);
+		}
+
+		public String getAuthor() {
+			return this.columns.getAuthor(this.index);
+		}
+
+		public int getLocaleID() {
+			return this.columns.localeID;
+		}
+
+		public int getWeight() {
+			return this.columns.getWeight(this.index);
+		}
+	}
+
+	/**
+	 * Collects the quotes of a locale and builds the columns. Not thread safe.
+	 */
+	static final class Builder {
+
+		private final int localeID;
+		private final boolean offHeap;
+		private int size = 0;
+		private int[] ids;
+		private int[] weights;
+		private int[] authors;
+		private int[] origins;
+		private byte[] flags;
+		private int[] offsets;
+		private byte[] arena;
+		private final Map<String, Integer> entries = new HashMap<String, Integer>();
+		private final List<String> dictionary = new ArrayList<String>();
+
+		/**
+		 * @param capacity The expected number of quotes.
+		 * @param offHeap Whether the texts are kept in direct memory, outside the Java heap.
+		 */
+		Builder(int localeID, int capacity, boolean offHeap) {
+			this.localeID = localeID;
+			this.offHeap = offHeap;
+			capacity = Math.max(capacity, 16);
+			this.ids = new int[capacity];
+			this.weights = new int[capacity];
+			this.authors = new int[capacity];
+			this.origins = new int[capacity];
+			this.flags = new byte[capacity];
+			this.offsets = new int[2 * capacity + 1];
+			this.arena = new byte[capacity * 64];
+		}
+
+		int size() {
+			return this.size;
+		}
+
+		/**
+		 * Adds a quote. The record must belong to the locale of the builder.
+		 */
+		void add(QuoteHolder quote) {
+			int index = next(quote.getQuoteID(), quote.getWeight());
+			this.authors[index] = getEntry(quote.getAuthor());
+			this.origins[index] = getEntry(quote.getOrigin());
+
+			String text = quote.getText();
+			String formattedText = quote.getFormattedText();
+			byte flag = 0;
+			int offset = this.offsets[2 * index];
+			if (text != null) {
+				offset = append(offset, encode(text));
+			}
+			else {
+				flag |= FLAG_TEXT_NULL;
+			}
+			this.offsets[2 * index + 1] = offset;
+			if (formattedText == null) {
+				flag |= FLAG_FORMATTED_NULL;
+			}
+			else if (formattedText.equals(text)) {
+				flag |= FLAG_FORMATTED_AS_TEXT;
+			}
+			else {
+				offset = append(offset, encode(formattedText));
+			}
+			this.offsets[2 * index + 2] = offset;
+			this.flags[index] = flag;
+		}
+
+		/**
+		 * Adds a quote of other columns, copying its encoded texts without decoding them.
+		 */
+		void add(QuoteColumns columns, int from) {
+			int index = next(columns.ids[from], columns.getWeight(from));
+			this.authors[index] = getEntry(columns.getAuthor(from));
+			this.origins[index] = getEntry(columns.getOrigin(from));
+			this.flags[index] = columns.flags[from];
+
+			int start = columns.offsets[2 * from];
+			int length = columns.offsets[2 * from + 2] - start;
+			int offset = this.offsets[2 * index];
+			ensureArena(offset + length);
+			if (columns.heapArena != null) {
+				System.arraycopy(columns.heapArena, start, this.arena, offset, length);
+			}
+			else {
+				ByteBuffer buffer = columns.arena.duplicate();
+				buffer.position(start);
+				buffer.get(this.arena, offset, length);
+			}
+			this.offsets[2 * index + 1] = offset + columns.offsets[2 * from + 1] - start;
+			this.offsets[2 * index + 2] = offset + length;
+		}
+
+		QuoteColumns build() {
+			return new QuoteColumns(this);
+		}
+
+		private int next(int quoteID, int weight) {
+			if (this.size == this.ids.length) {
+				int capacity = this.size * 2;
+				this.ids = grow(this.ids, capacity);
+				this.weights = grow(this.weights, capacity);
+				this.authors = grow(this.authors, capacity);
+				this.origins = grow(this.origins, capacity);
+				this.offsets = grow(this.offsets, 2 * capacity + 1);
+				byte[] newFlags = new byte[capacity];
+				System.arraycopy(this.flags, 0, newFlags, 0, this.size);
+				this.flags = newFlags;
+			}
+			int index = this.size++;
+			this.ids[index] = quoteID;
+			this.weights[index] = weight;
+			return index;
+		}
+
+		private int getEntry(String value) {
+			if (value == null) {
+				return -1;
+			}
+			Integer entry = this.entries.get(value);
+			if (entry == null) {
+				entry = new Integer(this.dictionary.size());
+				this.entries.put(value, entry);
+				this.dictionary.add(value);
+			}
+			return entry.intValue();
+		}
+
+		private int append(int offset, byte[] bytes) {
+			ensureArena(offset + bytes.length);
+			System.arraycopy(bytes, 0, this.arena, offset, bytes.length);
+			return offset + bytes.length;
+		}
+
+		private void ensureArena(int length) {
+			if (length < 0) {
+				throw new IllegalStateException("Quote texts of locale " + this.localeID + " exceed 2 GB");
+			}
+			if (length > this.arena.length) {
+				int capacity = (int) Math.min(Math.max((long) this.arena.length * 2, length), Integer.MAX_VALUE);
+				byte[] newArena = new byte[capacity];
+				System.arraycopy(this.arena, 0, newArena, 0, this.arena.length);
+				this.arena = newArena;
+			}
+		}
+
+		private static byte[] encode(String value) {
+			try {
+				return value.getBytes(ENCODING);
+			}
+			catch (UnsupportedEncodingException uee) {
+				throw new IllegalStateException(uee.getMessage());
+			}
+		}
+
+		private static int[] grow(int[] array, int capacity) {
+			int[] grown = new int[capacity];
+			System.arraycopy(array, 0, grown, 0, array.length);
+			return grown;
+		}
+	}
+}
@@ -0,0 +1,169 @@
+package com.idega.block.quote.business;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads quotes from CSV (RFC 4180: comma separated, fields optionally enclosed in double quotes, quotes doubled
+ * within quoted fields, line breaks allowed in quoted fields). The first row names the fields, see
+ * {@link QuoteTransfer}; unknown columns are ignored.
+ */
+class QuoteCsvReader implements QuoteRecordReader {
+
+	private final Reader reader;
+	private int[] columns;
+	private int next = -2;
+	private long line = 1;
+
+	QuoteCsvReader(Reader reader) {
+		this.reader = reader;
+	}
+
+	public QuoteHolder read() throws IOException {
+		if (this.columns == null) {
+			List<String> header = readRow();
+			if (header == null) {
+				return null;
+			}
+			this.columns = new int[header.size()];
+			for (int i = 0; i < header.size(); i++) {
+				this.columns[i] = indexOfField(header.get(i).trim());
+			}
+		}
+
+		List<String> row;
+		do {
+			row = readRow();
+			if (row == null) {
+				return null;
+			}
+		}
+		while (row.size() == 1 && row.get(0).length() == 0);
+
+		QuoteHolder quote = new QuoteHolder();
+		quote.setWeight(-1);
+		for (int i = 0; i < row.size() && i < this.columns.length; i++) {
+			String value = row.get(i);
+			switch (this.columns[i]) {
+				case 0:
+					quote.setQuoteID(parseInt(value));
+					break;
+				case 1:
+					quote.setLocaleID(parseInt(value));
+					break;
+				case 2:
+					quote.setText(value);
+					break;
+				case 3:
+					quote.setAuthor(emptyToNull(value));
+					break;
+				case 4:
+					quote.setOrigin(emptyToNull(value));
+					break;
+				case 5:
+					quote.setWeight(parseInt(value));
+					break;
+				default:
+					break;
+			}
+		}
+		return quote;
+	}
+
+	private int indexOfField(String name) {
+		for (int i = 0; i < QuoteTransfer.FIELDS.length; i++) {
+			if (QuoteTransfer.FIELDS[i].equalsIgnoreCase(name)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private int parseInt(String value) throws IOException {
+		if (value.trim().length() == 0) {
+			return -1;
+		}
+		try {
+			return Integer.parseInt(value.trim());
+		}
+		catch (NumberFormatException nfe) {
+			throw new IOException("Invalid number '" + value + "' on line " + this.line);
+		}
+	}
+
+	private String emptyToNull(String value) {
+		return value.length() > 0 ? value : null;
+	}
+
+	private int nextChar() throws IOException {
+		if (this.next != -2) {
+			int c = this.next;
+			this.next = -2;
+			return c;
+		}
+		return this.reader.read();
+	}
+
+	/**
+	 * @return The fields of the next row, or <code>null</code> at the end of the stream.
+	 */
+	private List<String> readRow() throws IOException {
+		int c = nextChar();
+		if (c == -1) {
+			return null;
+		}
+
+		List<String> row = new ArrayList<String>();
+		StringBuffer field = new StringBuffer();
+		boolean quoted = false;
+		while (true) {
+			if (quoted) {
+				if (c == -1) {
+					throw new IOException("Unterminated quoted field on line " + this.line);
+				}
+				if (c == '"') {
+					c = nextChar();
+					if (c == '"') {
+						field.append('"');
+					}
+					else {
+						quoted = false;
+						continue;
+					}
+				}
+				else {
+					if (c == '\n') {
+						this.line++;
+					}
+					field.append((char) c);
+				}
+			}
+			else if (c == '"' && field.length() == 0) {
+				quoted = true;
+			}
+			else if (c == ',') {
+				row.add(field.toString());
+				field.setLength(0);
+			}
+			else if (c == '\r' || c == '\n' || c == -1) {
+				if (c == '\r') {
+					int following = nextChar();
+					if (following != '\n') {
+						this.next = following;
+					}
+				}
+				if (c != -1) {
+					this.line++;
+				}
+				row.add(field.toString());
+				return row;
+			}
+			else {
+				field.append((char) c);
+			}
+			c = nextChar();
+		}
+	}
+}
@@ -0,0 +1,80 @@
+package com.idega.block.quote.business;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes quotes as CSV (RFC 4180) with a header row, readable by {@link QuoteCsvReader}.
+ */
+class QuoteCsvWriter implements QuoteRecordWriter {
+
+	private final Writer writer;
+	private boolean started = false;
+
+	QuoteCsvWriter(Writer writer) {
+		this.writer = writer;
+	}
+
+	public void write(int quoteID, int localeID, String text, String author, String origin, int weight) throws IOException {
+		if (!this.started) {
+			writeHeader();
+		}
+		this.writer.write(Integer.toString(quoteID));
+		this.writer.write(',');
+		this.writer.write(Integer.toString(localeID));
+		this.writer.write(',');
+		writeField(text);
+		this.writer.write(',');
+		writeField(author);
+		this.writer.write(',');
+		writeField(origin);
+		this.writer.write(',');
+		if (weight >= 0) {
+			this.writer.write(Integer.toString(weight));
+		}
+		this.writer.write("\r\n");
+	}
+
+	public void finish() throws IOException {
+		if (!this.started) {
+			writeHeader();
+		}
+		this.writer.flush();
+	}
+
+	private void writeHeader() throws IOException {
+		for (int i = 0; i < QuoteTransfer.FIELDS.length; i++) {
+			if (i > 0) {
+				this.writer.write(',');
+			}
+			this.writer.write(QuoteTransfer.FIELDS[i]);
+		}
+		this.writer.write("\r\n");
+		this.started = true;
+	}
+
+	private void writeField(String value) throws IOException {
+		if (value == null) {
+			return;
+		}
+		boolean quoted = false;
+		for (int i = 0; i < value.length() && !quoted; i++) {
+			char c = value.charAt(i);
+			quoted = c == ',' || c == '"' || c == '\r' || c == '\n';
+		}
+		if (!quoted) {
+			this.writer.write(value);
+			return;
+		}
+
+		this.writer.write('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '"') {
+				this.writer.write('"');
+			}
+			this.writer.write(c);
+		}
+		this.writer.write('"');
+	}
+}
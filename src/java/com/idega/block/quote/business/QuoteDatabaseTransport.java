@@ -0,0 +1,321 @@
+package com.idega.block.quote.business;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.idega.util.database.ConnectionBroker;
+
+/**
+ * Carries quote change events between nodes through a table in the database the nodes share, so that a cluster
+ * needs nothing besides the database. Each event is inserted into QU_QUOTE_EVENT, on the connection of the thread
+ * that saved the quote, and every node polls the table on a background thread, handing the events of the other nodes
+ * that arrived since the last poll to the channel as one batch. The table is created on start if it does not exist:
+ *
+ * <pre>
+ * create table QU_QUOTE_EVENT (
+ *   QU_EVENT_NODE varchar(36) not null,
+ *   QU_EVENT_SEQ integer not null,
+ *   IC_LOCALE_ID integer not null,
+ *   QU_QUOTE_ID integer not null,
+ *   QU_EVENT_CREATED timestamp not null,
+ *   primary key (QU_EVENT_NODE, QU_EVENT_SEQ))
+ * </pre>
+ *
+ * The creation time is taken from the database clock, so the nodes' clocks need not agree. Each poll reads back
+ * {@link #POLL_OVERLAP} before the newest event seen, so that an event committed after a later one was read is not
+ * missed, and skips the events already delivered. Events older than {@link #RETENTION} are deleted.
+ * <p>
+ * Configured with the bundle properties {@link #PROPERTY_DATASOURCE} and {@link #PROPERTY_POLL_MILLIS}.
+ */
+public class QuoteDatabaseTransport implements QuoteInvalidationTransport {
+
+	/**
+	 * The bundle property naming the datasource of the event table, the default datasource if not set.
+	 */
+	public static final String PROPERTY_DATASOURCE = "invalidation_datasource";
+
+	/**
+	 * The bundle property setting how often, in milliseconds, the event table is polled.
+	 */
+	public static final String PROPERTY_POLL_MILLIS = "invalidation_poll_millis";
+
+	public static final long DEFAULT_POLL_MILLIS = 2000;
+
+	static final long POLL_OVERLAP = 60 * 1000;
+	static final long RETENTION = 60 * 60 * 1000;
+
+	private static final String TABLE = "QU_QUOTE_EVENT";
+	private static final String COLUMN_NODE = "QU_EVENT_NODE";
+	private static final String COLUMN_SEQ = "QU_EVENT_SEQ";
+	private static final String COLUMN_LOCALE_ID = "IC_LOCALE_ID";
+	private static final String COLUMN_QUOTE_ID = "QU_QUOTE_ID";
+	private static final String COLUMN_CREATED = "QU_EVENT_CREATED";
+
+	private static final Logger LOGGER = Logger.getLogger(QuoteDatabaseTransport.class.getName());
+
+	private String datasource;
+	private long pollMillis = DEFAULT_POLL_MILLIS;
+
+	private final AtomicInteger sequence = new AtomicInteger();
+	private volatile QuoteInvalidationChannel receiver;
+	private ScheduledExecutorService executor;
+
+	// Only used by the poller thread
+	private long newest;
+	private long lastPurge;
+	private final Map<String, Long> delivered = new HashMap<String, Long>();
+
+	public void setDatasource(String datasource) {
+		this.datasource = datasource != null && datasource.length() > 0 ? datasource : null;
+	}
+
+	public void setPollMillis(long pollMillis) {
+		this.pollMillis = Math.max(pollMillis, 100);
+	}
+
+	public synchronized void start(QuoteInvalidationChannel receiver) throws SQLException {
+		if (this.executor != null) {
+			return;
+		}
+		Connection conn = getConnection();
+		try {
+			createTable(conn);
+			// Only events published from now on are of interest, the quotes are read from the database on start
+			this.newest = getNewest(conn);
+			this.lastPurge = this.newest;
+		}
+		finally {
+			freeConnection(conn);
+		}
+
+		this.receiver = receiver;
+		this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "QuoteDatabaseTransport");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		this.executor.scheduleWithFixedDelay(new Runnable() {
+
+			public void run() {
+				try {
+					poll();
+				}
+				catch (Throwable t) {
+					LOGGER.log(Level.WARNING, "Could not poll the quote events", t);
+				}
+			}
+		}, this.pollMillis, this.pollMillis, TimeUnit.MILLISECONDS);
+	}
+
+	public void publish(String nodeID, int localeID, int quoteID) throws SQLException {
+		Connection conn = getConnection();
+		PreparedStatement insert = null;
+		try {
+			insert = conn.prepareStatement("insert into " + TABLE + " (" + COLUMN_NODE + ", " + COLUMN_SEQ + ", " + COLUMN_LOCALE_ID + ", " + COLUMN_QUOTE_ID + ", " + COLUMN_CREATED + ") values (?, ?, ?, ?, CURRENT_TIMESTAMP)");
+			insert.setString(1, nodeID);
+			insert.setInt(2, this.sequence.incrementAndGet());
+			insert.setInt(3, localeID);
+			insert.setInt(4, quoteID);
+			insert.executeUpdate();
+		}
+		finally {
+			close(insert);
+			freeConnection(conn);
+		}
+	}
+
+	public synchronized void stop() {
+		if (this.executor != null) {
+			this.executor.shutdownNow();
+			this.executor = null;
+		}
+		this.receiver = null;
+	}
+
+	/**
+	 * Delivers the events of the other nodes not delivered yet, as one batch.
+	 */
+	void poll() throws SQLException {
+		QuoteInvalidationChannel receiver = this.receiver;
+		if (receiver == null) {
+			return;
+		}
+		int[] localeIDs = new int[16];
+		int[] quoteIDs = new int[16];
+		int count = 0;
+		Connection conn = getConnection();
+		PreparedStatement select = null;
+		ResultSet rs = null;
+		try {
+			select = conn.prepareStatement("select " + COLUMN_NODE + ", " + COLUMN_SEQ + ", " + COLUMN_LOCALE_ID + ", " + COLUMN_QUOTE_ID + ", " + COLUMN_CREATED + " from " + TABLE + " where " + COLUMN_CREATED + " >= ? and " + COLUMN_NODE + " <> ?");
+			select.setTimestamp(1, new Timestamp(this.newest - POLL_OVERLAP));
+			select.setString(2, receiver.getNodeID());
+			rs = select.executeQuery();
+			while (rs.next()) {
+				String key = rs.getString(1) + ":" + rs.getInt(2);
+				long created = rs.getTimestamp(5).getTime();
+				if (this.delivered.put(key, new Long(created)) != null) {
+					continue;
+				}
+				if (count == localeIDs.length) {
+					localeIDs = grow(localeIDs);
+					quoteIDs = grow(quoteIDs);
+				}
+				localeIDs[count] = rs.getInt(3);
+				quoteIDs[count] = rs.getInt(4);
+				count++;
+				this.newest = Math.max(this.newest, created);
+			}
+		}
+		finally {
+			if (rs != null) {
+				try {
+					rs.close();
+				}
+				catch (SQLException e) {
+				}
+			}
+			close(select);
+			freeConnection(conn);
+		}
+
+		// The events older than the overlap are not read again
+		long oldest = this.newest - POLL_OVERLAP;
+		for (Iterator<Long> iter = this.delivered.values().iterator(); iter.hasNext();) {
+			if (iter.next().longValue() < oldest) {
+				iter.remove();
+			}
+		}
+
+		if (count > 0) {
+			int[] locales = new int[count];
+			int[] quotes = new int[count];
+			System.arraycopy(localeIDs, 0, locales, 0, count);
+			System.arraycopy(quoteIDs, 0, quotes, 0, count);
+			receiver.receive(locales, quotes);
+		}
+
+		if (this.newest - this.lastPurge > POLL_OVERLAP) {
+			purge(this.newest - RETENTION);
+			this.lastPurge = this.newest;
+		}
+	}
+
+	private void purge(long before) throws SQLException {
+		Connection conn = getConnection();
+		PreparedStatement delete = null;
+		try {
+			delete = conn.prepareStatement("delete from " + TABLE + " where " + COLUMN_CREATED + " < ?");
+			delete.setTimestamp(1, new Timestamp(before));
+			delete.executeUpdate();
+		}
+		finally {
+			close(delete);
+			freeConnection(conn);
+		}
+	}
+
+	private static void createTable(Connection conn) throws SQLException {
+		DatabaseMetaData metaData = conn.getMetaData();
+		if (hasTable(metaData, TABLE) || hasTable(metaData, TABLE.toLowerCase())) {
+			return;
+		}
+		String product = metaData.getDatabaseProductName();
+		// timestamp is a row version on SQL Server
+		String timestamp = product != null && product.toLowerCase().indexOf("microsoft") != -1 ? "datetime" : "timestamp";
+		Statement statement = conn.createStatement();
+		try {
+			statement.executeUpdate("create table " + TABLE + " (" + COLUMN_NODE + " varchar(36) not null, " + COLUMN_SEQ + " integer not null, " + COLUMN_LOCALE_ID + " integer not null, " + COLUMN_QUOTE_ID + " integer not null, " + COLUMN_CREATED + " " + timestamp + " not null, primary key (" + COLUMN_NODE + ", " + COLUMN_SEQ + "))");
+			statement.executeUpdate("create index IDX_QU_QUOTE_EVENT_CREATED on " + TABLE + " (" + COLUMN_CREATED + ")");
+		}
+		catch (SQLException e) {
+			// Another node may have created the table meanwhile
+			if (!hasTable(metaData, TABLE) && !hasTable(metaData, TABLE.toLowerCase())) {
+				throw e;
+			}
+		}
+		finally {
+			statement.close();
+		}
+	}
+
+	private static boolean hasTable(DatabaseMetaData metaData, String table) throws SQLException {
+		ResultSet rs = metaData.getTables(null, null, table, null);
+		try {
+			return rs.next();
+		}
+		finally {
+			rs.close();
+		}
+	}
+
+	private static long getNewest(Connection conn) throws SQLException {
+		Statement statement = conn.createStatement();
+		try {
+			ResultSet rs = statement.executeQuery("select max(" + COLUMN_CREATED + ") from " + TABLE);
+			try {
+				Timestamp newest = rs.next() ? rs.getTimestamp(1) : null;
+				return newest != null ? newest.getTime() : 0;
+			}
+			finally {
+				rs.close();
+			}
+		}
+		finally {
+			statement.close();
+		}
+	}
+
+	private static int[] grow(int[] array) {
+		int[] grown = new int[array.length * 2];
+		System.arraycopy(array, 0, grown, 0, array.length);
+		return grown;
+	}
+
+	/**
+	 * @return A connection of the datasource holding the event table, released with {@link #freeConnection(Connection)}.
+	 */
+	protected Connection getConnection() throws SQLException {
+		return this.datasource != null ? ConnectionBroker.getConnection(this.datasource) : ConnectionBroker.getConnection();
+	}
+
+	protected void freeConnection(Connection conn) {
+		if (conn == null) {
+			return;
+		}
+		if (this.datasource != null) {
+			ConnectionBroker.freeConnection(this.datasource, conn);
+		}
+		else {
+			ConnectionBroker.freeConnection(conn);
+		}
+	}
+
+	private static void close(Statement statement) {
+		if (statement != null) {
+			try {
+				statement.close();
+			}
+			catch (SQLException e) {
+			}
+		}
+	}
+}
@@ -8,7 +8,10 @@ public class QuoteHolder {
 private int quoteID_ = -1;
 private String origin_ = null;
 private String text_ = null;
+private String formattedText_ = null;
 private String author_ = null;
+private int localeID_ = -1;
+private int weight_ = QuoteBusiness.DEFAULT_WEIGHT;
 public QuoteHolder() {
   }
 
@@ -26,11 +29,20 @@ public QuoteHolder() {
     this.text_ = text;
   }
 
+  protected void setFormattedText(String formattedText) {
+    this.formattedText_ = formattedText;
+  }
+
   protected void setAuthor(String author) {
     this.author_ = author;
   }
 
   protected void setLocaleID(int localeID) {
+    this.localeID_ = localeID;
+  }
+
+  protected void setWeight(int weight) {
+    this.weight_ = weight;
   }
 
   /* Getters */
@@ -46,8 +58,26 @@ public QuoteHolder() {
     return this.text_;
   }
 
+  /**
+   * @return The text formatted for display, as produced when the quote was saved.
+   */
+  public String getFormattedText() {
+    return this.formattedText_;
+  }
+
   public String getAuthor() {
     return this.author_;
   }
 
+  public int getLocaleID() {
+    return this.localeID_;
+  }
+
+  /**
+   * @return How often the quote is picked relative to the other quotes of its locale.
+   */
+  public int getWeight() {
+    return this.weight_;
+  }
+
 }
\ No newline at end of file
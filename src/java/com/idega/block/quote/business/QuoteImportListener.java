@@ -0,0 +1,14 @@
+package com.idega.block.quote.business;
+
+/**
+ * Notified while quotes are imported with {@link QuoteBusiness#importQuotes(java.io.InputStream, String, int, QuoteImportListener)}.
+ */
+public interface QuoteImportListener {
+
+	/**
+	 * Called each time a chunk of quotes has been committed.
+	 *
+	 * @param imported The number of quotes committed so far.
+	 */
+	public void quotesImported(long imported);
+}
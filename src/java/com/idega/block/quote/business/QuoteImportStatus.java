@@ -0,0 +1,48 @@
+package com.idega.block.quote.business;
+
+/**
+ * The progress of an import started in the background with {@link QuoteBusiness#startImport(java.io.File, String, int)},
+ * updated each time a chunk of quotes is committed.
+ */
+public class QuoteImportStatus implements QuoteImportListener {
+
+	private final String name;
+	private volatile long imported = 0;
+	private volatile boolean finished = false;
+	private volatile boolean failed = false;
+
+	QuoteImportStatus(String name) {
+		this.name = name;
+	}
+
+	public void quotesImported(long imported) {
+		this.imported = imported;
+	}
+
+	void finish(boolean failed) {
+		this.failed = failed;
+		this.finished = true;
+	}
+
+	/**
+	 * @return The name of the imported file.
+	 */
+	public String getName() {
+		return this.name;
+	}
+
+	/**
+	 * @return The number of quotes committed so far. The chunks committed before a failure are kept.
+	 */
+	public long getImported() {
+		return this.imported;
+	}
+
+	public boolean isFinished() {
+		return this.finished;
+	}
+
+	public boolean isFailed() {
+		return this.failed;
+	}
+}
@@ -0,0 +1,80 @@
+package com.idega.block.quote.business;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+
+import com.idega.block.quote.data.QuoteBatchInserter;
+import com.idega.block.quote.data.QuoteEntityHome;
+import com.idega.data.IDOException;
+
+/**
+ * Writes the quotes of an import stream to the database in JDBC batches, one quote in memory at a time. Quotes are
+ * always added as new rows: IDs in the stream are ignored and the rows are inserted without an ordinal, the caller
+ * numbers the affected locales when the import is done.
+ */
+class QuoteImporter {
+
+	static final int BATCH_SIZE = 500;
+	static final int COMMIT_SIZE = 5000;
+
+	private final QuoteBusiness business;
+	private final QuoteEntityHome quoteHome;
+	private final Set<Integer> localeIDs = new HashSet<Integer>();
+
+	QuoteImporter(QuoteBusiness business, QuoteEntityHome quoteHome) {
+		this.business = business;
+		this.quoteHome = quoteHome;
+	}
+
+	/**
+	 * @param defaultLocaleID The locale of quotes that do not specify one.
+	 * @return The number of quotes imported.
+	 */
+	long importQuotes(QuoteRecordReader reader, int defaultLocaleID, QuoteImportListener listener) throws IOException, IDOException {
+		QuoteBatchInserter inserter = this.quoteHome.createBatchInserter(BATCH_SIZE, COMMIT_SIZE);
+		boolean done = false;
+		try {
+			QuoteHolder quote;
+			while ((quote = reader.read()) != null) {
+				String text = quote.getText();
+				if (text == null || text.length() == 0) {
+					continue;
+				}
+				int localeID = quote.getLocaleID() != -1 ? quote.getLocaleID() : defaultLocaleID;
+				this.localeIDs.add(new Integer(localeID));
+				if (inserter.insert(localeID, -1, text, quote.getAuthor(), quote.getOrigin(), this.business.formatText(text), QuoteBusiness.FORMAT_VERSION, quote.getWeight()) && listener != null) {
+					listener.quotesImported(inserter.getCommitted());
+				}
+			}
+			inserter.close();
+			done = true;
+			if (listener != null) {
+				listener.quotesImported(inserter.getCommitted());
+			}
+			return inserter.getCommitted();
+		}
+		catch (SQLException e) {
+			throw new IDOException(e, this, "Could not import quotes");
+		}
+		finally {
+			if (!done) {
+				inserter.abort();
+			}
+		}
+	}
+
+	/**
+	 * @return The locales that quotes were added to.
+	 */
+	int[] getLocaleIDs() {
+		int[] localeIDs = new int[this.localeIDs.size()];
+		int index = 0;
+		for (Iterator<Integer> iter = this.localeIDs.iterator(); iter.hasNext();) {
+			localeIDs[index++] = iter.next().intValue();
+		}
+		return localeIDs;
+	}
+}
@@ -0,0 +1,84 @@
+package com.idega.block.quote.business;
+
+import java.util.UUID;
+
+/**
+ * Broadcasts the quote changes of this node to the other nodes of a cluster and applies the changes of the other
+ * nodes here, see {@link QuoteBusiness#applyQuoteChange(int, int)}. Only the (locale, quote) pair is sent, each
+ * node reads the current state of the quote from the shared database.
+ */
+public class QuoteInvalidationChannel implements QuoteChangeListener {
+
+	/**
+	 * The bundle property naming the {@link QuoteInvalidationTransport} class, e.g.
+	 * <code>com.idega.block.quote.business.QuoteDatabaseTransport</code> on a cluster. No channel is started if it is
+	 * not set.
+	 */
+	public static final String PROPERTY_TRANSPORT = "invalidation_transport";
+
+	private final QuoteBusiness business;
+	private final QuoteInvalidationTransport transport;
+	private final String nodeID = UUID.randomUUID().toString();
+	private final ThreadLocal<Boolean> receiving = new ThreadLocal<Boolean>();
+
+	public QuoteInvalidationChannel(QuoteBusiness business, QuoteInvalidationTransport transport) {
+		this.business = business;
+		this.transport = transport;
+	}
+
+	public void start() throws Exception {
+		this.transport.start(this);
+		this.business.addQuoteChangeListener(this);
+	}
+
+	public void stop() {
+		this.business.removeQuoteChangeListener(this);
+		this.transport.stop();
+	}
+
+	public String getNodeID() {
+		return this.nodeID;
+	}
+
+	/**
+	 * Publishes a change made on this node. Changes applied on behalf of another node are not published again.
+	 */
+	public void quoteChanged(int localeID, int quoteID) {
+		if (this.receiving.get() != null) {
+			return;
+		}
+		try {
+			this.transport.publish(this.nodeID, localeID, quoteID);
+		}
+		catch (Exception e) {
+			e.printStackTrace(System.err);
+		}
+	}
+
+	/**
+	 * Called by the transport with a change published by a node.
+	 */
+	public void receive(String senderID, int localeID, int quoteID) {
+		if (this.nodeID.equals(senderID)) {
+			return;
+		}
+		receive(new int[] { localeID }, new int[] { quoteID });
+	}
+
+	/**
+	 * Called by the transport with the changes published by other nodes that arrived together, e.g. in one poll.
+	 * They are applied as one batch, see {@link QuoteBusiness#applyQuoteChanges(int[], int[])}.
+	 */
+	public void receive(int[] localeIDs, int[] quoteIDs) {
+		this.receiving.set(Boolean.TRUE);
+		try {
+			this.business.applyQuoteChanges(localeIDs, quoteIDs);
+		}
+		catch (RuntimeException re) {
+			re.printStackTrace(System.err);
+		}
+		finally {
+			this.receiving.remove();
+		}
+	}
+}
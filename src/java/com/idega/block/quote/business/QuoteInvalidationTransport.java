@@ -0,0 +1,24 @@
+package com.idega.block.quote.business;
+
+/**
+ * Carries quote change events between the nodes of a cluster for {@link QuoteInvalidationChannel}. An event published
+ * on one node is delivered to the receivers of the transports on all other nodes; whether it is also delivered back
+ * to the publishing node does not matter, since the channel ignores its own events.
+ * <p>
+ * Two transports ship with the bundle: {@link QuoteDatabaseTransport}, which polls a table in the shared database
+ * and is the one to use for a cluster, and {@link QuoteLoopbackTransport}, which only reaches the same JVM. Others,
+ * e.g. on a group messaging library, are plugged in by implementing this interface. Implementations need a public
+ * no-argument constructor to be configured through the bundle property
+ * {@link QuoteInvalidationChannel#PROPERTY_TRANSPORT}.
+ */
+public interface QuoteInvalidationTransport {
+
+	/**
+	 * Starts delivering events from other nodes to the receiver.
+	 */
+	public void start(QuoteInvalidationChannel receiver) throws Exception;
+
+	public void publish(String nodeID, int localeID, int quoteID) throws Exception;
+
+	public void stop();
+}
@@ -0,0 +1,208 @@
+package com.idega.block.quote.business;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Reads quotes from a JSON array of flat objects, one object per quote, keyed by the field names of
+ * {@link QuoteTransfer}. The array is parsed incrementally, one object per {@link #read()}; unknown keys are ignored.
+ */
+class QuoteJsonReader implements QuoteRecordReader {
+
+	private final Reader reader;
+	private int next = -2;
+	private boolean started = false;
+	private boolean finished = false;
+
+	QuoteJsonReader(Reader reader) {
+		this.reader = reader;
+	}
+
+	public QuoteHolder read() throws IOException {
+		if (this.finished) {
+			return null;
+		}
+
+		int c = nextToken();
+		if (!this.started) {
+			if (c == -1) {
+				this.finished = true;
+				return null;
+			}
+			expect(c, '[');
+			this.started = true;
+			c = nextToken();
+			if (c == ']') {
+				this.finished = true;
+				return null;
+			}
+		}
+		else if (c == ']') {
+			this.finished = true;
+			return null;
+		}
+		else {
+			expect(c, ',');
+			c = nextToken();
+		}
+		expect(c, '{');
+
+		QuoteHolder quote = new QuoteHolder();
+		quote.setWeight(-1);
+		c = nextToken();
+		if (c == '}') {
+			return quote;
+		}
+		while (true) {
+			expect(c, '"');
+			String key = readString();
+			expect(nextToken(), ':');
+			String value = readValue();
+
+			if (key.equals(QuoteTransfer.FIELD_ID)) {
+				quote.setQuoteID(parseInt(value));
+			}
+			else if (key.equals(QuoteTransfer.FIELD_LOCALE_ID)) {
+				quote.setLocaleID(parseInt(value));
+			}
+			else if (key.equals(QuoteTransfer.FIELD_TEXT)) {
+				quote.setText(value);
+			}
+			else if (key.equals(QuoteTransfer.FIELD_AUTHOR)) {
+				quote.setAuthor(value);
+			}
+			else if (key.equals(QuoteTransfer.FIELD_ORIGIN)) {
+				quote.setOrigin(value);
+			}
+			else if (key.equals(QuoteTransfer.FIELD_WEIGHT)) {
+				quote.setWeight(parseInt(value));
+			}
+
+			c = nextToken();
+			if (c == '}') {
+				return quote;
+			}
+			expect(c, ',');
+			c = nextToken();
+		}
+	}
+
+	private int parseInt(String value) throws IOException {
+		if (value == null) {
+			return -1;
+		}
+		try {
+			return Integer.parseInt(value);
+		}
+		catch (NumberFormatException nfe) {
+			throw new IOException("Invalid number: " + value);
+		}
+	}
+
+	/**
+	 * Reads a string, number, boolean or null value. Strings are unescaped, other values are returned as written,
+	 * null as <code>null</code>.
+	 */
+	private String readValue() throws IOException {
+		int c = nextToken();
+		if (c == '"') {
+			return readString();
+		}
+		if (c == '{' || c == '[') {
+			throw new IOException("Nested values are not supported");
+		}
+
+		StringBuffer buffer = new StringBuffer();
+		while (c != -1 && c != ',' && c != '}' && c != ']' && !Character.isWhitespace((char) c)) {
+			buffer.append((char) c);
+			c = nextChar();
+		}
+		this.next = c;
+		String value = buffer.toString();
+		if (value.length() == 0) {
+			throw new IOException("Missing value");
+		}
+		return value.equals("null") ? null : value;
+	}
+
+	private String readString() throws IOException {
+		StringBuffer buffer = new StringBuffer();
+		while (true) {
+			int c = nextChar();
+			if (c == -1) {
+				throw new IOException("Unterminated string");
+			}
+			if (c == '"') {
+				return buffer.toString();
+			}
+			if (c == '\\') {
+				c = nextChar();
+				switch (c) {
+					case 'b':
+						buffer.append('\b');
+						break;
+					case 'f':
+						buffer.append('\f');
+						break;
+					case 'n':
+						buffer.append('\n');
+						break;
+					case 'r':
+						buffer.append('\r');
+						break;
+					case 't':
+						buffer.append('\t');
+						break;
+					case 'u':
+						char[] hex = new char[4];
+						for (int i = 0; i < 4; i++) {
+							int h = nextChar();
+							if (h == -1) {
+								throw new IOException("Unterminated escape");
+							}
+							hex[i] = (char) h;
+						}
+						try {
+							buffer.append((char) Integer.parseInt(new String(hex), 16));
+						}
+						catch (NumberFormatException nfe) {
+							throw new IOException("Invalid escape: \\u" + new String(hex));
+						}
+						break;
+					case -1:
+						throw new IOException("Unterminated escape");
+					default:
+						buffer.append((char) c);
+						break;
+				}
+			}
+			else {
+				buffer.append((char) c);
+			}
+		}
+	}
+
+	private void expect(int c, char expected) throws IOException {
+		if (c != expected) {
+			throw new IOException("Expected '" + expected + "' but found " + (c == -1 ? "end of stream" : "'" + (char) c + "'"));
+		}
+	}
+
+	private int nextToken() throws IOException {
+		int c;
+		do {
+			c = nextChar();
+		}
+		while (c != -1 && Character.isWhitespace((char) c));
+		return c;
+	}
+
+	private int nextChar() throws IOException {
+		if (this.next != -2) {
+			int c = this.next;
+			this.next = -2;
+			return c;
+		}
+		return this.reader.read();
+	}
+}
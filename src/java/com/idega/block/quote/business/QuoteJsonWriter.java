@@ -0,0 +1,87 @@
+package com.idega.block.quote.business;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes quotes as a JSON array with one object per quote, readable by {@link QuoteJsonReader}.
+ */
+class QuoteJsonWriter implements QuoteRecordWriter {
+
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private final Writer writer;
+	private int count = 0;
+
+	QuoteJsonWriter(Writer writer) {
+		this.writer = writer;
+	}
+
+	public void write(int quoteID, int localeID, String text, String author, String origin, int weight) throws IOException {
+		this.writer.write(this.count++ == 0 ? "[\n" : ",\n");
+		this.writer.write("{\"");
+		this.writer.write(QuoteTransfer.FIELD_ID);
+		this.writer.write("\":");
+		this.writer.write(Integer.toString(quoteID));
+		this.writer.write(",\"");
+		this.writer.write(QuoteTransfer.FIELD_LOCALE_ID);
+		this.writer.write("\":");
+		this.writer.write(Integer.toString(localeID));
+		writeField(QuoteTransfer.FIELD_TEXT, text);
+		writeField(QuoteTransfer.FIELD_AUTHOR, author);
+		writeField(QuoteTransfer.FIELD_ORIGIN, origin);
+		this.writer.write(",\"");
+		this.writer.write(QuoteTransfer.FIELD_WEIGHT);
+		this.writer.write("\":");
+		this.writer.write(weight >= 0 ? Integer.toString(weight) : "null");
+		this.writer.write('}');
+	}
+
+	public void finish() throws IOException {
+		this.writer.write(this.count == 0 ? "[]\n" : "\n]\n");
+		this.writer.flush();
+	}
+
+	private void writeField(String name, String value) throws IOException {
+		this.writer.write(",\"");
+		this.writer.write(name);
+		this.writer.write("\":");
+		if (value == null) {
+			this.writer.write("null");
+			return;
+		}
+
+		this.writer.write('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+				case '"':
+					this.writer.write("\\\"");
+					break;
+				case '\\':
+					this.writer.write("\\\\");
+					break;
+				case '\n':
+					this.writer.write("\\n");
+					break;
+				case '\r':
+					this.writer.write("\\r");
+					break;
+				case '\t':
+					this.writer.write("\\t");
+					break;
+				default:
+					if (c < 0x20) {
+						this.writer.write("\\u00");
+						this.writer.write(HEX[c >> 4]);
+						this.writer.write(HEX[c & 0xF]);
+					}
+					else {
+						this.writer.write(c);
+					}
+					break;
+			}
+		}
+		this.writer.write('"');
+	}
+}
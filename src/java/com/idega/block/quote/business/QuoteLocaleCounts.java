@@ -0,0 +1,69 @@
+package com.idega.block.quote.business;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The number of quotes of every locale, read with one grouped query and then kept current as quotes are saved and
+ * deleted, so that counting the quotes of a locale, empty or not, does not touch the database.
+ */
+class QuoteLocaleCounts {
+
+	private final Map<Integer, Integer> counts = new ConcurrentHashMap<Integer, Integer>();
+	private volatile boolean loaded = false;
+	private long modificationCount = 0;
+
+	/**
+	 * @return The number of quotes of the locale, or -1 if the counts have not been loaded.
+	 */
+	int get(int localeID) {
+		if (!this.loaded) {
+			return -1;
+		}
+		Integer count = this.counts.get(new Integer(localeID));
+		return count != null ? count.intValue() : 0;
+	}
+
+	/**
+	 * Returns a stamp to pass to {@link #load(Map, long)}, taken before the counts are read from the database.
+	 */
+	synchronized long getModificationStamp() {
+		return this.modificationCount;
+	}
+
+	/**
+	 * Sets the counts read from the database, unless they were changed after the stamp was taken.
+	 *
+	 * @return <code>true</code> if the counts were set.
+	 */
+	synchronized boolean load(Map<Integer, Integer> newCounts, long stamp) {
+		if (stamp != this.modificationCount) {
+			return false;
+		}
+		this.counts.clear();
+		for (Iterator<Map.Entry<Integer, Integer>> iter = newCounts.entrySet().iterator(); iter.hasNext();) {
+			Map.Entry<Integer, Integer> entry = iter.next();
+			this.counts.put(entry.getKey(), entry.getValue());
+		}
+		this.loaded = true;
+		return true;
+	}
+
+	synchronized void add(int localeID, int delta) {
+		this.modificationCount++;
+		if (this.loaded) {
+			this.counts.put(new Integer(localeID), new Integer(Math.max(0, get(localeID) + delta)));
+		}
+	}
+
+	/**
+	 * Drops the counts, so that they are read again when next needed. Used when quotes were changed in a way that is
+	 * not known here, by an import or on another node.
+	 */
+	synchronized void invalidate() {
+		this.modificationCount++;
+		this.loaded = false;
+		this.counts.clear();
+	}
+}
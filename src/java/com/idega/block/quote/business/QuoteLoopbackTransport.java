@@ -0,0 +1,35 @@
+package com.idega.block.quote.business;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Delivers events to every started loopback transport in the same JVM, synchronously on the publishing thread. Used
+ * on single node installations and to run several {@link QuoteBusiness} instances against each other in tests.
+ */
+public class QuoteLoopbackTransport implements QuoteInvalidationTransport {
+
+	private static final List<QuoteLoopbackTransport> transports = new CopyOnWriteArrayList<QuoteLoopbackTransport>();
+
+	private volatile QuoteInvalidationChannel receiver;
+
+	public void start(QuoteInvalidationChannel receiver) {
+		this.receiver = receiver;
+		transports.add(this);
+	}
+
+	public void publish(String nodeID, int localeID, int quoteID) {
+		for (Iterator<QuoteLoopbackTransport> iter = transports.iterator(); iter.hasNext();) {
+			QuoteInvalidationChannel channel = iter.next().receiver;
+			if (channel != null) {
+				channel.receive(nodeID, localeID, quoteID);
+			}
+		}
+	}
+
+	public void stop() {
+		transports.remove(this);
+		this.receiver = null;
+	}
+}
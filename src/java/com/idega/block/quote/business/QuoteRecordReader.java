@@ -0,0 +1,15 @@
+package com.idega.block.quote.business;
+
+import java.io.IOException;
+
+/**
+ * Reads quotes one at a time from an import stream, so that memory use does not depend on the size of the stream.
+ */
+interface QuoteRecordReader {
+
+	/**
+	 * @return The next quote, or <code>null</code> at the end of the stream. The quote ID is -1 and the locale ID is
+	 *         -1 if the stream does not specify them.
+	 */
+	public QuoteHolder read() throws IOException;
+}
@@ -0,0 +1,19 @@
+package com.idega.block.quote.business;
+
+import java.io.IOException;
+
+/**
+ * Writes quotes one at a time to an export stream in one of the formats of {@link QuoteTransfer}.
+ */
+interface QuoteRecordWriter {
+
+	/**
+	 * @param weight The weight of the quote, or -1 if not set.
+	 */
+	public void write(int quoteID, int localeID, String text, String author, String origin, int weight) throws IOException;
+
+	/**
+	 * Completes the document and flushes it, without closing the underlying stream.
+	 */
+	public void finish() throws IOException;
+}
@@ -0,0 +1,144 @@
+package com.idega.block.quote.business;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.idega.idegaweb.IWApplicationContext;
+import com.idega.presentation.IWContext;
+
+/**
+ * Resolves the quotes of all Quote blocks on a page together. The loader remembers which (locale, object instance)
+ * pairs each page has shown; the first block of a request that misses the cache has the quotes of all blocks known
+ * for the page assigned at once, with one query per locale (see {@link QuoteBusiness#prefetchQuotes(long[], QuoteRotation[])}), and
+ * the other blocks then find theirs in the cache. The pairs are remembered across requests because blocks do not
+ * run in a predictable order, so no block can tell that it is the last one of its page.
+ * <p>
+ * Pages are told apart by their Builder page ID, since all Builder pages share one URI and differ only by the
+ * <code>ib_page</code> parameter; pages outside the Builder are told apart by URI.
+ * <p>
+ * Blocks that fetch a new quote on every reload or filter by a search query are resolved on their own.
+ */
+public class QuoteRequestLoader {
+
+	private static final String REQUEST_ATTRIBUTE = QuoteRequestLoader.class.getName();
+
+	private static final int MAX_PAGES = 1000;
+	private static final int MAX_KEYS_PER_PAGE = 64;
+
+	/**
+	 * The keys of each page, with the rotation of the block. Beyond the limits, an arbitrary other page or key is
+	 * dropped; a dropped page is learned again from its next requests.
+	 */
+	private static final ConcurrentMap<String, ConcurrentMap<Long, Block>> pageKeys = new ConcurrentHashMap<String, ConcurrentMap<Long, Block>>();
+
+	/**
+	 * The rotation of a block, <code>null</code> for the default rotation.
+	 */
+	private static final class Block {
+
+		final QuoteRotation rotation;
+
+		Block(QuoteRotation rotation) {
+			this.rotation = rotation;
+		}
+
+		boolean hasRotation(QuoteRotation other) {
+			return this.rotation == null ? other == null : this.rotation.equals(other);
+		}
+	}
+
+	private final QuoteBusiness business;
+	private final String page;
+	private boolean prefetched = false;
+
+	QuoteRequestLoader(QuoteBusiness business, String page) {
+		this.business = business;
+		this.page = page;
+	}
+
+	/**
+	 * @return The loader of the current request.
+	 */
+	public static QuoteRequestLoader getInstance(IWContext iwc) {
+		QuoteRequestLoader loader = (QuoteRequestLoader) iwc.getRequest().getAttribute(REQUEST_ATTRIBUTE);
+		if (loader == null) {
+			int pageID = iwc.getCurrentIBPageID();
+			loader = new QuoteRequestLoader(QuoteBusiness.getQuoteBusinessInstace(), pageID > 0 ? "ib_page=" + pageID : iwc.getRequestURI());
+			iwc.getRequest().setAttribute(REQUEST_ATTRIBUTE, loader);
+		}
+		return loader;
+	}
+
+	/**
+	 * Same as {@link QuoteBusiness#getRandomQuote(IWApplicationContext, int, int, boolean, String)}, resolving the
+	 * quotes of the other blocks of the page on the first miss.
+	 */
+	public QuoteHolder getRandomQuote(IWApplicationContext iwc, int localeID, int objectID, boolean fetchFromDatabase, String searchQuery) {
+		return getRandomQuote(iwc, localeID, objectID, fetchFromDatabase, searchQuery, null);
+	}
+
+	/**
+	 * Same as {@link QuoteBusiness#getRandomQuote(IWApplicationContext, int, int, boolean, String, QuoteRotation)},
+	 * resolving the quotes of the other blocks of the page, each with its own rotation, on the first miss.
+	 */
+	public QuoteHolder getRandomQuote(IWApplicationContext iwc, int localeID, int objectID, boolean fetchFromDatabase, String searchQuery, QuoteRotation rotation) {
+		if (!fetchFromDatabase && (searchQuery == null || searchQuery.trim().length() == 0)) {
+			Map<Long, Block> keys = register(QuoteCache.getKey(localeID, objectID), rotation);
+			if (!this.prefetched && keys.size() > 1 && !this.business.isQuoteCached(localeID, objectID)) {
+				this.prefetched = true;
+				// Other requests may change the keys meanwhile, the iteration sees each key at most once
+				List<Map.Entry<Long, Block>> entries = new ArrayList<Map.Entry<Long, Block>>(keys.entrySet());
+				long[] keyArray = new long[entries.size()];
+				QuoteRotation[] rotations = new QuoteRotation[entries.size()];
+				for (int i = 0; i < keyArray.length; i++) {
+					Map.Entry<Long, Block> entry = entries.get(i);
+					keyArray[i] = entry.getKey().longValue();
+					rotations[i] = entry.getValue().rotation;
+				}
+				this.business.prefetchQuotes(keyArray, rotations);
+			}
+		}
+		return this.business.getRandomQuote(iwc, localeID, objectID, fetchFromDatabase, searchQuery, rotation);
+	}
+
+	/**
+	 * Adds the key to the keys of the page, or updates its rotation.
+	 *
+	 * @return All keys known for the page, with their rotations. The map is shared and may change while it is read.
+	 */
+	private Map<Long, Block> register(long key, QuoteRotation rotation) {
+		ConcurrentMap<Long, Block> keys = pageKeys.get(this.page);
+		if (keys == null) {
+			ConcurrentMap<Long, Block> newKeys = new ConcurrentHashMap<Long, Block>();
+			keys = pageKeys.putIfAbsent(this.page, newKeys);
+			if (keys == null) {
+				keys = newKeys;
+				if (pageKeys.size() > MAX_PAGES) {
+					dropOther(pageKeys, this.page);
+				}
+			}
+		}
+
+		// Blocks are written only when added or changed, so that the blocks of a busy page are read without contention
+		Long newKey = new Long(key);
+		Block block = keys.get(newKey);
+		if ((block == null || !block.hasRotation(rotation)) && keys.put(newKey, new Block(rotation)) == null && keys.size() > MAX_KEYS_PER_PAGE) {
+			// Probably a block that has been removed from the page
+			dropOther(keys, newKey);
+		}
+		return keys;
+	}
+
+	private static <K> void dropOther(Map<K, ?> map, K key) {
+		for (Iterator<K> iter = map.keySet().iterator(); iter.hasNext();) {
+			if (!iter.next().equals(key)) {
+				iter.remove();
+				return;
+			}
+		}
+	}
+}
@@ -0,0 +1,230 @@
+package com.idega.block.quote.business;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+
+/**
+ * When the quote of a block is replaced by the next one: every hour, every day at midnight, every week at midnight
+ * between Sunday and Monday, or at the times of a cron expression with the five fields
+ * <code>minute hour day-of-month month day-of-week</code>, e.g. <code>0 6,18 * * 1-5</code>. A field is
+ * <code>*</code>, a number, a range <code>a-b</code>, any of these followed by a step <code>/n</code>, or a comma
+ * separated list of them. Day of week 0 and 7 are Sunday; when both day fields are restricted a day matching either
+ * one matches, as in cron. Times skipped by a daylight saving change do not match.
+ * <p>
+ * Rotations are immutable and compare equal by expression. The last computed rotation time is remembered, so asking
+ * again during the same period does not walk the calendar.
+ */
+public final class QuoteRotation {
+
+	public static final String HOURLY = "hourly";
+	public static final String DAILY = "daily";
+	public static final String WEEKLY = "weekly";
+
+	public static final QuoteRotation EVERY_HOUR = new QuoteRotation(HOURLY, "0 * * * *");
+	public static final QuoteRotation EVERY_DAY = new QuoteRotation(DAILY, "0 0 * * *");
+	public static final QuoteRotation EVERY_WEEK = new QuoteRotation(WEEKLY, "0 0 * * 1");
+
+	/**
+	 * The most calendar steps taken looking for the next rotation, enough for any expression that matches at least
+	 * once in five years.
+	 */
+	private static final int MAX_STEPS = 100000;
+
+	private final String expression;
+	private final long minutes;
+	private final int hours;
+	private final int daysOfMonth;
+	private final int months;
+	private final int daysOfWeek;
+	private final boolean anyDayOfMonth;
+	private final boolean anyDayOfWeek;
+	private volatile Period last;
+
+	/**
+	 * A rotation time and the time it was computed from: it is the next rotation for every time in between.
+	 */
+	private static final class Period {
+
+		final TimeZone zone;
+		final long start;
+		final long end;
+
+		Period(TimeZone zone, long start, long end) {
+			this.zone = zone;
+			this.start = start;
+			this.end = end;
+		}
+	}
+
+	private QuoteRotation(String expression, String cron) {
+		this.expression = expression;
+		String[] fields = cron.trim().split("\\s+");
+		if (fields.length != 5) {
+			throw new IllegalArgumentException("A cron expression has five fields: " + cron);
+		}
+		this.minutes = parseField(fields[0], 0, 59);
+		this.hours = (int) parseField(fields[1], 0, 23);
+		this.daysOfMonth = (int) parseField(fields[2], 1, 31);
+		this.months = (int) parseField(fields[3], 1, 12);
+		long days = parseField(fields[4], 0, 7);
+		// Sunday is both 0 and 7
+		if ((days & (1L << 7)) != 0) {
+			days |= 1;
+		}
+		this.daysOfWeek = (int) (days & 0x7F);
+		this.anyDayOfMonth = fields[2].equals("*");
+		this.anyDayOfWeek = fields[4].equals("*");
+	}
+
+	/**
+	 * @param expression <code>hourly</code>, <code>daily</code>, <code>weekly</code> or a cron expression.
+	 * @throws IllegalArgumentException If the expression cannot be parsed or never matches.
+	 */
+	public static QuoteRotation valueOf(String expression) {
+		String trimmed = expression.trim();
+		if (trimmed.equalsIgnoreCase(HOURLY)) {
+			return EVERY_HOUR;
+		}
+		if (trimmed.equalsIgnoreCase(DAILY)) {
+			return EVERY_DAY;
+		}
+		if (trimmed.equalsIgnoreCase(WEEKLY)) {
+			return EVERY_WEEK;
+		}
+		QuoteRotation rotation = new QuoteRotation(trimmed, trimmed);
+		if (rotation.getNextRotation(System.currentTimeMillis(), TimeZone.getTimeZone("GMT")) == Long.MAX_VALUE) {
+			throw new IllegalArgumentException("The cron expression never matches: " + trimmed);
+		}
+		return rotation;
+	}
+
+	/**
+	 * @return The first rotation after <code>now</code>, in milliseconds, or <code>Long.MAX_VALUE</code> if there is
+	 *         none.
+	 */
+	public long getNextRotation(long now, TimeZone zone) {
+		Period period = this.last;
+		if (period != null && period.zone == zone && period.start <= now && now < period.end) {
+			return period.end;
+		}
+
+		long next = findNextRotation(now, zone);
+		this.last = new Period(zone, now, next);
+		return next;
+	}
+
+	private long findNextRotation(long now, TimeZone zone) {
+		Calendar calendar = Calendar.getInstance(zone);
+		calendar.setTimeInMillis(now);
+		calendar.set(Calendar.SECOND, 0);
+		calendar.set(Calendar.MILLISECOND, 0);
+		calendar.add(Calendar.MINUTE, 1);
+
+		for (int i = 0; i < MAX_STEPS; i++) {
+			if ((this.months & (1 << (calendar.get(Calendar.MONTH) + 1))) == 0) {
+				calendar.add(Calendar.MONTH, 1);
+				calendar.set(Calendar.DAY_OF_MONTH, 1);
+				calendar.set(Calendar.HOUR_OF_DAY, 0);
+				calendar.set(Calendar.MINUTE, 0);
+			}
+			else if (!matchesDay(calendar)) {
+				calendar.add(Calendar.DAY_OF_MONTH, 1);
+				calendar.set(Calendar.HOUR_OF_DAY, 0);
+				calendar.set(Calendar.MINUTE, 0);
+			}
+			else if ((this.hours & (1 << calendar.get(Calendar.HOUR_OF_DAY))) == 0) {
+				calendar.add(Calendar.HOUR_OF_DAY, 1);
+				calendar.set(Calendar.MINUTE, 0);
+			}
+			else if ((this.minutes & (1L << calendar.get(Calendar.MINUTE))) == 0) {
+				calendar.add(Calendar.MINUTE, 1);
+			}
+			else {
+				return calendar.getTimeInMillis();
+			}
+		}
+		return Long.MAX_VALUE;
+	}
+
+	private boolean matchesDay(Calendar calendar) {
+		boolean dayOfMonth = (this.daysOfMonth & (1 << calendar.get(Calendar.DAY_OF_MONTH))) != 0;
+		boolean dayOfWeek = (this.daysOfWeek & (1 << (calendar.get(Calendar.DAY_OF_WEEK) - Calendar.SUNDAY))) != 0;
+		if (this.anyDayOfMonth || this.anyDayOfWeek) {
+			return dayOfMonth && dayOfWeek;
+		}
+		return dayOfMonth || dayOfWeek;
+	}
+
+	/**
+	 * @return The values of the field as a bit set.
+	 */
+	private static long parseField(String field, int min, int max) {
+		long bits = 0;
+		String[] parts = field.split(",");
+		for (int i = 0; i < parts.length; i++) {
+			String part = parts[i];
+			int step = 1;
+			int slash = part.indexOf('/');
+			if (slash != -1) {
+				step = parseValue(part.substring(slash + 1), 1, max);
+				part = part.substring(0, slash);
+			}
+
+			int from;
+			int to;
+			if (part.equals("*")) {
+				from = min;
+				to = max;
+			}
+			else {
+				int dash = part.indexOf('-');
+				if (dash != -1) {
+					from = parseValue(part.substring(0, dash), min, max);
+					to = parseValue(part.substring(dash + 1), min, max);
+				}
+				else {
+					from = parseValue(part, min, max);
+					to = slash != -1 ? max : from;
+				}
+			}
+			if (from > to) {
+				throw new IllegalArgumentException("Empty range in cron field: " + field);
+			}
+			for (int value = from; value <= to; value += step) {
+				bits |= 1L << value;
+			}
+		}
+		return bits;
+	}
+
+	private static int parseValue(String value, int min, int max) {
+		try {
+			int number = Integer.parseInt(value);
+			if (number < min || number > max) {
+				throw new IllegalArgumentException("Cron value " + number + " is not between " + min + " and " + max);
+			}
+			return number;
+		}
+		catch (NumberFormatException nfe) {
+			throw new IllegalArgumentException("Not a number in cron expression: " + value);
+		}
+	}
+
+	@Override
+	public boolean equals(Object object) {
+		return object instanceof QuoteRotation && ((QuoteRotation) object).expression.equals(this.expression);
+	}
+
+	@Override
+	public int hashCode() {
+		return this.expression.hashCode();
+	}
+
+	/**
+	 * @return The expression the rotation was created from.
+	 */
+	@Override
+	public String toString() {
+		return this.expression;
+	}
+}
@@ -0,0 +1,99 @@
+package com.idega.block.quote.business;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rotates the cached quotes shortly before each rollover on a background thread, see
+ * {@link QuoteBusiness#preRotate(long)}. The rollover is the next one of any rotation quotes are cached with. Started
+ * and stopped by the bundle starter.
+ */
+public class QuoteRotationScheduler {
+
+	public static final long DEFAULT_LEAD_TIME = 5 * 60 * 1000;
+
+	/**
+	 * How long the scheduler sleeps at most before looking for the next rollover again, so that a rollover of a
+	 * rotation first used meanwhile is not missed.
+	 */
+	private static final long RECHECK_INTERVAL = 10 * 60 * 1000;
+
+	private final QuoteBusiness business;
+	private final long leadTime;
+	private ScheduledExecutorService executor;
+
+	public QuoteRotationScheduler(QuoteBusiness business) {
+		this(business, DEFAULT_LEAD_TIME);
+	}
+
+	/**
+	 * @param leadTime How long, in milliseconds, before the rollover the next quotes are computed, at most half the
+	 *        time between two rollovers.
+	 */
+	public QuoteRotationScheduler(QuoteBusiness business, long leadTime) {
+		this.business = business;
+		this.leadTime = leadTime;
+	}
+
+	public synchronized void start() {
+		if (this.executor != null) {
+			return;
+		}
+		this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "QuoteRotationScheduler");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		schedule(System.currentTimeMillis());
+	}
+
+	public synchronized void stop() {
+		if (this.executor != null) {
+			this.executor.shutdownNow();
+			this.executor = null;
+		}
+	}
+
+	/**
+	 * Schedules the rotation of the first rollover after <code>after</code>.
+	 */
+	private synchronized void schedule(final long after) {
+		if (this.executor == null) {
+			return;
+		}
+		final long boundary = this.business.getNextBoundary(after);
+		// Within a short rotation the lead time would reach back before the previous rollover, where the entries do
+		// not expire at this one yet, so at most half the time since the previous rollover is taken
+		long leadTime = Math.min(this.leadTime, (boundary - after) / 2);
+		long delay = Math.max(boundary - leadTime - System.currentTimeMillis(), 0);
+		if (delay > RECHECK_INTERVAL) {
+			this.executor.schedule(new Runnable() {
+
+				public void run() {
+					schedule(after);
+				}
+			}, RECHECK_INTERVAL, TimeUnit.MILLISECONDS);
+			return;
+		}
+
+		this.executor.schedule(new Runnable() {
+
+			public void run() {
+				try {
+					QuoteRotationScheduler.this.business.preRotate(boundary);
+				}
+				catch (Throwable t) {
+					t.printStackTrace(System.err);
+				}
+				finally {
+					schedule(boundary);
+				}
+			}
+		}, delay, TimeUnit.MILLISECONDS);
+	}
+}
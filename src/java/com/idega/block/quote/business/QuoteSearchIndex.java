@@ -0,0 +1,435 @@
+package com.idega.block.quote.business;
+
+import java.text.BreakIterator;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory inverted index over the text, author and origin of quotes, with one partition per locale. Words are
+ * found with the word boundaries of the locale, lower cased with its rules and stripped of accents, so that a search
+ * for "jokull" finds "J&ouml;kull". Each word maps to the sorted IDs of the quotes containing it, a query intersects the
+ * lists of its words starting with the shortest.
+ * <p>
+ * Only IDs are kept, so a locale can be indexed whether or not its quotes are resident.
+ */
+class QuoteSearchIndex {
+
+	public static final String FIELD_TEXT = "text";
+	public static final String FIELD_AUTHOR = "author";
+	public static final String FIELD_ORIGIN = "origin";
+
+	private static final char[] FIELD_KEYS = { 't', 'a', 'o' };
+	private static final int[] EMPTY = new int[0];
+	/**
+	 * Lists are intersected by galloping through the longer one when it is this many times longer than the shorter,
+	 * otherwise by merging.
+	 */
+	private static final int GALLOP_RATIO = 16;
+
+	private final Map<Integer, LocaleIndex> indexes = new ConcurrentHashMap<Integer, LocaleIndex>();
+
+	/**
+	 * @return The index of the locale, or <code>null</code> if the locale has not been indexed.
+	 */
+	LocaleIndex getIndex(int localeID) {
+		return this.indexes.get(new Integer(localeID));
+	}
+
+	/**
+	 * Registers an empty index for the locale, locked for writing so that queries and changes wait until it is filled.
+	 * The caller must call {@link LocaleIndex#unlock()} when done.
+	 *
+	 * @return The new index, or <code>null</code> if the locale is indexed already.
+	 */
+	synchronized LocaleIndex createIndex(int localeID, Locale locale) {
+		Integer key = new Integer(localeID);
+		if (this.indexes.containsKey(key)) {
+			return null;
+		}
+		LocaleIndex index = new LocaleIndex(locale);
+		index.lock.writeLock().lock();
+		this.indexes.put(key, index);
+		return index;
+	}
+
+	/**
+	 * Adds or replaces the quote in the index of its locale, if the locale is indexed. A quote moved from another
+	 * locale is removed from the index of that locale.
+	 *
+	 * @param old The version of the quote being replaced, whose words are removed, or <code>null</code> for a new quote.
+	 */
+	void put(QuoteHolder old, QuoteHolder quote) {
+		if (old != null && old.getLocaleID() != quote.getLocaleID()) {
+			remove(old);
+		}
+		LocaleIndex index = getIndex(quote.getLocaleID());
+		if (index != null) {
+			index.lock.writeLock().lock();
+			try {
+				if (old != null && old.getLocaleID() == quote.getLocaleID()) {
+					index.remove(old.getQuoteID(), old.getText(), old.getAuthor(), old.getOrigin());
+				}
+				index.add(quote.getQuoteID(), quote.getText(), quote.getAuthor(), quote.getOrigin());
+			}
+			finally {
+				index.lock.writeLock().unlock();
+			}
+		}
+	}
+
+	/**
+	 * Removes the quote from the index of its locale, if the locale is indexed.
+	 */
+	void remove(QuoteHolder quote) {
+		LocaleIndex index = getIndex(quote.getLocaleID());
+		if (index != null) {
+			index.lock.writeLock().lock();
+			try {
+				index.remove(quote.getQuoteID(), quote.getText(), quote.getAuthor(), quote.getOrigin());
+			}
+			finally {
+				index.lock.writeLock().unlock();
+			}
+		}
+	}
+
+	/**
+	 * Drops the index of the locale, it is built again on the next query.
+	 */
+	void invalidate(int localeID) {
+		this.indexes.remove(new Integer(localeID));
+	}
+
+	void clear() {
+		this.indexes.clear();
+	}
+
+	static final class LocaleIndex {
+
+		private final Locale locale;
+		private final Map<String, Postings> postings = new HashMap<String, Postings>();
+		private final ReadWriteLock lock = new ReentrantReadWriteLock();
+		private volatile boolean failed = false;
+
+		LocaleIndex(Locale locale) {
+			this.locale = locale != null ? locale : Locale.getDefault();
+		}
+
+		/**
+		 * Adds a quote while the index is being filled. Quotes added in ascending ID order are appended.
+		 */
+		void add(int quoteID, String text, String author, String origin) {
+			String[] values = { text, author, origin };
+			for (int field = 0; field < values.length; field++) {
+				if (values[field] == null) {
+					continue;
+				}
+				for (Iterator<String> iter = tokenize(values[field]).iterator(); iter.hasNext();) {
+					String term = FIELD_KEYS[field] + iter.next();
+					Postings list = this.postings.get(term);
+					if (list == null) {
+						list = new Postings();
+						this.postings.put(term, list);
+					}
+					list.add(quoteID);
+				}
+			}
+		}
+
+		/**
+		 * Removes the quote from the lists of the words of its text, author and origin as they were indexed.
+		 */
+		void remove(int quoteID, String text, String author, String origin) {
+			String[] values = { text, author, origin };
+			for (int field = 0; field < values.length; field++) {
+				if (values[field] == null) {
+					continue;
+				}
+				for (Iterator<String> iter = tokenize(values[field]).iterator(); iter.hasNext();) {
+					String term = FIELD_KEYS[field] + iter.next();
+					Postings list = this.postings.get(term);
+					if (list != null && list.remove(quoteID) && list.size == 0) {
+						this.postings.remove(term);
+					}
+				}
+			}
+		}
+
+		void unlock() {
+			this.lock.writeLock().unlock();
+		}
+
+		/**
+		 * Marks the index as incomplete because filling it failed, so that queries waiting for it find nothing
+		 * instead of searching part of the locale. Called while the index is locked for writing.
+		 */
+		void fail() {
+			this.failed = true;
+		}
+
+		/**
+		 * Finds the quotes matching all words of the query. A word may be limited to one field with a prefix, as in
+		 * <code>author:twain</code>; other words match any of the fields.
+		 *
+		 * @return The IDs of the matching quotes in ascending order.
+		 */
+		int[] search(String query) {
+			List<String> fields = new ArrayList<String>();
+			List<String> words = new ArrayList<String>();
+			parse(query, fields, words);
+			if (words.isEmpty()) {
+				return EMPTY;
+			}
+
+			this.lock.readLock().lock();
+			try {
+				if (this.failed) {
+					return EMPTY;
+				}
+				int[][] lists = new int[words.size()][];
+				int[] sizes = new int[words.size()];
+				for (int i = 0; i < lists.length; i++) {
+					lookup(fields.get(i), words.get(i), lists, sizes, i);
+					if (sizes[i] == 0) {
+						return EMPTY;
+					}
+				}
+
+				// Intersect starting with the shortest list, the result never grows
+				int shortest = 0;
+				for (int i = 1; i < sizes.length; i++) {
+					if (sizes[i] < sizes[shortest]) {
+						shortest = i;
+					}
+				}
+				int[] result = Arrays.copyOf(lists[shortest], sizes[shortest]);
+				int size = result.length;
+				for (int i = 0; i < lists.length && size > 0; i++) {
+					if (i != shortest) {
+						size = intersect(result, size, lists[i], sizes[i]);
+					}
+				}
+				return size == result.length ? result : Arrays.copyOf(result, size);
+			}
+			finally {
+				this.lock.readLock().unlock();
+			}
+		}
+
+		/**
+		 * Puts the IDs of the quotes with the word in the field, or in any field if the field is <code>null</code>, at
+		 * <code>index</code> of the arrays. The list of the index itself is used where possible, so the caller must
+		 * hold the read lock and not modify it.
+		 */
+		private void lookup(String field, String word, int[][] lists, int[] sizes, int index) {
+			lists[index] = EMPTY;
+			sizes[index] = 0;
+			for (int i = 0; i < FIELD_KEYS.length; i++) {
+				if (field != null && i != fieldIndex(field)) {
+					continue;
+				}
+				Postings list = this.postings.get(FIELD_KEYS[i] + word);
+				if (list == null) {
+					continue;
+				}
+				if (sizes[index] == 0) {
+					lists[index] = list.ids;
+					sizes[index] = list.size;
+				}
+				else {
+					lists[index] = union(lists[index], sizes[index], list.ids, list.size);
+					sizes[index] = lists[index].length;
+				}
+			}
+		}
+
+		private void parse(String query, List<String> fields, List<String> words) {
+			if (query == null) {
+				return;
+			}
+			String[] parts = query.trim().split("\\s+");
+			for (int i = 0; i < parts.length; i++) {
+				String part = parts[i];
+				String field = null;
+				int colon = part.indexOf(':');
+				if (colon > 0 && fieldIndex(part.substring(0, colon).toLowerCase(Locale.ENGLISH)) != -1) {
+					field = part.substring(0, colon).toLowerCase(Locale.ENGLISH);
+					part = part.substring(colon + 1);
+				}
+				for (Iterator<String> iter = tokenize(part).iterator(); iter.hasNext();) {
+					fields.add(field);
+					words.add(iter.next());
+				}
+			}
+		}
+
+		/**
+		 * Splits the value into distinct normalized words using the word boundaries of the locale.
+		 */
+		Set<String> tokenize(String value) {
+			Set<String> tokens = new LinkedHashSet<String>();
+			BreakIterator words = BreakIterator.getWordInstance(this.locale);
+			words.setText(value);
+			int start = words.first();
+			for (int end = words.next(); end != BreakIterator.DONE; start = end, end = words.next()) {
+				if (Character.isLetterOrDigit(value.codePointAt(start))) {
+					tokens.add(normalize(value.substring(start, end)));
+				}
+			}
+			return tokens;
+		}
+
+		private String normalize(String word) {
+			String lower = word.toLowerCase(this.locale);
+			String decomposed = Normalizer.normalize(lower, Normalizer.Form.NFD);
+			if (decomposed.length() == lower.length()) {
+				return lower;
+			}
+			StringBuffer buffer = new StringBuffer(decomposed.length());
+			for (int i = 0; i < decomposed.length(); i++) {
+				char c = decomposed.charAt(i);
+				if (Character.getType(c) != Character.NON_SPACING_MARK) {
+					buffer.append(c);
+				}
+			}
+			return buffer.toString();
+		}
+	}
+
+	private static int fieldIndex(String field) {
+		if (FIELD_TEXT.equals(field)) {
+			return 0;
+		}
+		if (FIELD_AUTHOR.equals(field)) {
+			return 1;
+		}
+		if (FIELD_ORIGIN.equals(field)) {
+			return 2;
+		}
+		return -1;
+	}
+
+	/**
+	 * @return The index of the first element at or after <code>from</code> that is not smaller than the value,
+	 *         found by doubling the step and then bisecting.
+	 */
+	static int gallop(int[] ids, int from, int size, int value) {
+		int step = 1;
+		int low = from;
+		int high = from;
+		while (high < size && ids[high] < value) {
+			low = high + 1;
+			high = from + step;
+			step <<= 1;
+		}
+		int index = Arrays.binarySearch(ids, low, Math.min(high + 1, size), value);
+		return index >= 0 ? index : -index - 1;
+	}
+
+	/**
+	 * Keeps the IDs of <code>result</code> that are also in <code>other</code>, in place.
+	 *
+	 * @return The new size of the result.
+	 */
+	static int intersect(int[] result, int size, int[] other, int otherSize) {
+		int count = 0;
+		if (otherSize / GALLOP_RATIO > size) {
+			int from = 0;
+			for (int j = 0; j < size && from < otherSize; j++) {
+				from = gallop(other, from, otherSize, result[j]);
+				if (from < otherSize && other[from] == result[j]) {
+					result[count++] = result[j];
+				}
+			}
+			return count;
+		}
+
+		int i = 0;
+		int j = 0;
+		while (i < size && j < otherSize) {
+			if (result[i] < other[j]) {
+				i++;
+			}
+			else if (result[i] > other[j]) {
+				j++;
+			}
+			else {
+				result[count++] = result[i++];
+				j++;
+			}
+		}
+		return count;
+	}
+
+	private static int[] union(int[] a, int aSize, int[] b, int bSize) {
+		int[] result = new int[aSize + bSize];
+		int i = 0;
+		int j = 0;
+		int count = 0;
+		while (i < aSize && j < bSize) {
+			if (a[i] < b[j]) {
+				result[count++] = a[i++];
+			}
+			else if (a[i] > b[j]) {
+				result[count++] = b[j++];
+			}
+			else {
+				result[count++] = a[i++];
+				j++;
+			}
+		}
+		while (i < aSize) {
+			result[count++] = a[i++];
+		}
+		while (j < bSize) {
+			result[count++] = b[j++];
+		}
+		return count == result.length ? result : Arrays.copyOf(result, count);
+	}
+
+	/**
+	 * Sorted list of quote IDs in a growable array.
+	 */
+	private static final class Postings {
+
+		int[] ids = new int[2];
+		int size = 0;
+
+		void add(int quoteID) {
+			int index = this.size > 0 && this.ids[this.size - 1] < quoteID ? this.size : Arrays.binarySearch(this.ids, 0, this.size, quoteID);
+			if (index < 0) {
+				index = -index - 1;
+			}
+			else if (index < this.size) {
+				return;
+			}
+			if (this.size == this.ids.length) {
+				this.ids = Arrays.copyOf(this.ids, this.size + (this.size >> 1) + 1);
+			}
+			System.arraycopy(this.ids, index, this.ids, index + 1, this.size - index);
+			this.ids[index] = quoteID;
+			this.size++;
+		}
+
+		boolean remove(int quoteID) {
+			int index = Arrays.binarySearch(this.ids, 0, this.size, quoteID);
+			if (index < 0) {
+				return false;
+			}
+			System.arraycopy(this.ids, index + 1, this.ids, index, this.size - index - 1);
+			this.size--;
+			return true;
+		}
+	}
+}
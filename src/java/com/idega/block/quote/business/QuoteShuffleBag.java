@@ -0,0 +1,93 @@
+package com.idega.block.quote.business;
+
+/**
+ * An immutable position in a random permutation of <code>0..size-1</code>, used to show every quote of a locale once
+ * before any quote is repeated. The permutation is not stored, it is computed from the seed with a small Feistel
+ * network over the next power of four (cycle walking back into range), so a bag is only a few words and
+ * {@link #next(long)} runs in constant expected time.
+ */
+final class QuoteShuffleBag {
+
+	private static final int ROUNDS = 4;
+
+	private final long seed;
+	private final int size;
+	private final int cursor;
+	private final int start;
+	private final int halfBits;
+
+	/**
+	 * Starts a new round over <code>size</code> quotes.
+	 */
+	QuoteShuffleBag(int size, long seed) {
+		this(size, seed, 0, 0);
+	}
+
+	private QuoteShuffleBag(int size, long seed, int cursor, int start) {
+		if (size <= 0) {
+			throw new IllegalArgumentException("Size must be positive: " + size);
+		}
+		this.size = size;
+		this.seed = seed;
+		this.cursor = cursor;
+		this.start = start;
+
+		int bits = 32 - Integer.numberOfLeadingZeros(Math.max(size - 1, 1));
+		this.halfBits = (bits + 1) / 2;
+	}
+
+	int getSize() {
+		return this.size;
+	}
+
+	/**
+	 * @return The index, in <code>0..size-1</code>, at the current position of the bag.
+	 */
+	int getIndex() {
+		return permute((this.cursor + this.start) % this.size);
+	}
+
+	/**
+	 * Advances the bag. When the round is exhausted a new round is started with the given seed, arranged so that its
+	 * first index differs from the last index of the finished round.
+	 */
+	QuoteShuffleBag next(long nextSeed) {
+		if (this.cursor + 1 < this.size) {
+			return new QuoteShuffleBag(this.size, this.seed, this.cursor + 1, this.start);
+		}
+
+		QuoteShuffleBag bag = new QuoteShuffleBag(this.size, nextSeed);
+		if (this.size > 1 && bag.getIndex() == getIndex()) {
+			return new QuoteShuffleBag(this.size, nextSeed, 0, 1);
+		}
+		return bag;
+	}
+
+	private int permute(int position) {
+		int value = position;
+		do {
+			value = encrypt(value);
+		}
+		while (value >= this.size);
+		return value;
+	}
+
+	private int encrypt(int value) {
+		int mask = (1 << this.halfBits) - 1;
+		int left = value >>> this.halfBits;
+		int right = value & mask;
+		for (int round = 0; round < ROUNDS; round++) {
+			int next = left ^ (mix(right, round) & mask);
+			left = right;
+			right = next;
+		}
+		return (left << this.halfBits) | right;
+	}
+
+	private int mix(int value, int round) {
+		long h = this.seed + round * 0x9E3779B97F4A7C15L + value;
+		h = (h ^ (h >>> 33)) * 0xFF51AFD7ED558CCDL;
+		h = (h ^ (h >>> 33)) * 0xC4CEB9FE1A85EC53L;
+		return (int) (h ^ (h >>> 33));
+	}
+}
@@ -0,0 +1,55 @@
+package com.idega.block.quote.business;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Collapses concurrent computations for the same key into one. The first caller runs the task, callers that arrive
+ * while it is running wait for the same result instead of repeating the work.
+ */
+class QuoteSingleFlight<V> {
+
+	private final ConcurrentMap<Long, FutureTask<V>> flights = new ConcurrentHashMap<Long, FutureTask<V>>();
+
+	boolean isInFlight(long key) {
+		return this.flights.containsKey(new Long(key));
+	}
+
+	/**
+	 * Runs the task, or waits for the task already running for the key.
+	 *
+	 * @return The result of the task, or <code>null</code> if it failed or the wait was interrupted.
+	 */
+	V execute(long key, Callable<V> callable) {
+		Long flightKey = new Long(key);
+		FutureTask<V> flight = this.flights.get(flightKey);
+		if (flight == null) {
+			FutureTask<V> task = new FutureTask<V>(callable);
+			flight = this.flights.putIfAbsent(flightKey, task);
+			if (flight == null) {
+				flight = task;
+				try {
+					task.run();
+				}
+				finally {
+					this.flights.remove(flightKey, task);
+				}
+			}
+		}
+
+		try {
+			return flight.get();
+		}
+		catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			return null;
+		}
+		catch (ExecutionException ee) {
+			ee.getCause().printStackTrace(System.err);
+			return null;
+		}
+	}
+}
@@ -0,0 +1,256 @@
+package com.idega.block.quote.business;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps a copy of the resident catalog on local disk, so that a node serves quotes right after startup instead of
+ * reading every locale from the database. The file starts with a header holding a magic number, the version of the
+ * file format and the {@link QuoteBusiness#FORMAT_VERSION} of the formatted texts, followed by the
+ * {@link QuoteColumns} of each resident locale. It is mapped into memory when read, so the texts are paged in as
+ * quotes are shown.
+ * <p>
+ * After the snapshot is loaded the locales are checked against the database in the background, by number of quotes
+ * and highest quote ID, and locales that differ are read again, see {@link QuoteBusiness#reconcile(Map)}. This finds
+ * quotes added and deleted while the node was down, not edits of existing quotes; those reach running nodes through
+ * the invalidation channel. The file is rewritten a while after the catalog changes, into a new file that is then
+ * renamed over the old one. Started and stopped by the bundle starter.
+ * <p>
+ * The formatted texts of the snapshot are served as they are, so the file must be kept where only the application
+ * can write, by default in its <code>WEB-INF</code> directory.
+ */
+public class QuoteSnapshot implements QuoteChangeListener {
+
+	private static final Logger LOGGER = Logger.getLogger(QuoteSnapshot.class.getName());
+
+	/**
+	 * "QUOT"
+	 */
+	private static final int MAGIC = 0x51554F54;
+	private static final int VERSION = 1;
+
+	/**
+	 * The bundle property holding the path of the snapshot file. By default the file is kept in
+	 * <code>WEB-INF/quote</code> of the application.
+	 */
+	public static final String PROPERTY_FILE = "snapshot_file";
+
+	public static final long DEFAULT_WRITE_DELAY = 30 * 1000;
+
+	private final QuoteBusiness business;
+	private final File file;
+	private final long writeDelay;
+	private final AtomicBoolean writeScheduled = new AtomicBoolean(false);
+	private ScheduledExecutorService executor;
+
+	public QuoteSnapshot(QuoteBusiness business, File file) {
+		this(business, file, DEFAULT_WRITE_DELAY);
+	}
+
+	/**
+	 * @param writeDelay How long, in milliseconds, after a change the snapshot is rewritten. Changes made meanwhile
+	 *          are written together.
+	 */
+	public QuoteSnapshot(QuoteBusiness business, File file, long writeDelay) {
+		this.business = business;
+		this.file = file;
+		this.writeDelay = writeDelay;
+	}
+
+	/**
+	 * Loads the snapshot into the catalog, if there is one, and starts checking it against the database in the
+	 * background.
+	 *
+	 * @return The number of locales loaded from the snapshot.
+	 */
+	public synchronized int start() {
+		if (this.executor != null) {
+			return 0;
+		}
+		this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "QuoteSnapshot");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+
+		Map<Integer, QuoteColumns> snapshot = new LinkedHashMap<Integer, QuoteColumns>();
+		if (this.file.exists()) {
+			try {
+				snapshot = read(this.file);
+			}
+			catch (IOException ioe) {
+				LOGGER.log(Level.WARNING, "Ignoring quote snapshot " + this.file, ioe);
+			}
+		}
+		final Map<Integer, QuoteColumns> loaded = this.business.publishSnapshot(snapshot);
+		this.business.addQuoteChangeListener(this);
+		this.business.setSnapshot(this);
+
+		this.executor.execute(new Runnable() {
+
+			public void run() {
+				try {
+					if (QuoteSnapshot.this.business.reconcile(loaded) > 0) {
+						scheduleWrite();
+					}
+				}
+				catch (Throwable t) {
+					LOGGER.log(Level.WARNING, "Could not check the quote snapshot against the database", t);
+				}
+			}
+		});
+		return loaded.size();
+	}
+
+	/**
+	 * Stops the background thread, writing the snapshot first if a write is pending.
+	 */
+	public synchronized void stop() {
+		if (this.executor == null) {
+			return;
+		}
+		this.business.removeQuoteChangeListener(this);
+		this.business.setSnapshot(null);
+		this.executor.shutdownNow();
+		this.executor = null;
+		if (this.writeScheduled.getAndSet(false)) {
+			write();
+		}
+	}
+
+	public void quoteChanged(int localeID, int quoteID) {
+		scheduleWrite();
+	}
+
+	/**
+	 * Writes the snapshot after the write delay, unless a write is already pending.
+	 */
+	synchronized void scheduleWrite() {
+		if (this.executor == null || !this.writeScheduled.compareAndSet(false, true)) {
+			return;
+		}
+		this.executor.schedule(new Runnable() {
+
+			public void run() {
+				if (QuoteSnapshot.this.writeScheduled.getAndSet(false)) {
+					write();
+				}
+			}
+		}, this.writeDelay, TimeUnit.MILLISECONDS);
+	}
+
+	private synchronized void write() {
+		try {
+			write(this.file, this.business.getResidentQuotes());
+		}
+		catch (IOException ioe) {
+			LOGGER.log(Level.WARNING, "Could not write the quote snapshot " + this.file, ioe);
+		}
+	}
+
+	/**
+	 * Reads the columns of a snapshot file, mapping the file into memory.
+	 *
+	 * @return The columns by locale ID.
+	 * @throws IOException If the file cannot be read, is damaged or was written by another version.
+	 */
+	static Map<Integer, QuoteColumns> read(File file) throws IOException {
+		FileInputStream stream = new FileInputStream(file);
+		try {
+			FileChannel channel = stream.getChannel();
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (buffer.remaining() < 16 || buffer.getInt() != MAGIC) {
+				throw new IOException("Not a quote snapshot");
+			}
+			int version = buffer.getInt();
+			int formatVersion = buffer.getInt();
+			if (version != VERSION || formatVersion != QuoteBusiness.FORMAT_VERSION) {
+				throw new IOException("Snapshot version " + version + "/" + formatVersion + ", expected " + VERSION + "/" + QuoteBusiness.FORMAT_VERSION);
+			}
+
+			int locales = buffer.getInt();
+			Map<Integer, QuoteColumns> snapshot = new LinkedHashMap<Integer, QuoteColumns>();
+			for (int i = 0; i < locales; i++) {
+				QuoteColumns quotes = new QuoteColumns(buffer);
+				snapshot.put(new Integer(quotes.getLocaleID()), quotes);
+			}
+			return snapshot;
+		}
+		catch (RuntimeException re) {
+			throw new IOException("Damaged quote snapshot: " + re);
+		}
+		finally {
+			// The mapping stays valid after the channel is closed
+			stream.close();
+		}
+	}
+
+	/**
+	 * Writes the columns to a new file next to the snapshot and moves it over the snapshot, so that a snapshot is
+	 * never read half written. The new file gets a fresh name only the application can write, and the move replaces
+	 * the snapshot itself, never a file it links to.
+	 */
+	static void write(File file, Collection<QuoteColumns> locales) throws IOException {
+		File directory = file.getAbsoluteFile().getParentFile();
+		if (!directory.exists()) {
+			directory.mkdirs();
+		}
+		Path newFile = Files.createTempFile(directory.toPath(), file.getName(), ".new");
+		try {
+			FileOutputStream stream = new FileOutputStream(newFile.toFile());
+			try {
+				FileChannel channel = stream.getChannel();
+				ByteBuffer header = ByteBuffer.allocate(16);
+				header.putInt(MAGIC);
+				header.putInt(VERSION);
+				header.putInt(QuoteBusiness.FORMAT_VERSION);
+				header.putInt(locales.size());
+				header.flip();
+				while (header.hasRemaining()) {
+					channel.write(header);
+				}
+				for (Iterator<QuoteColumns> iter = locales.iterator(); iter.hasNext();) {
+					iter.next().write(channel);
+				}
+				channel.force(true);
+			}
+			finally {
+				stream.close();
+			}
+
+			try {
+				Files.move(newFile, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			}
+			catch (AtomicMoveNotSupportedException amnse) {
+				Files.move(newFile, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		}
+		finally {
+			// Left behind only if writing or moving failed
+			Files.deleteIfExists(newFile);
+		}
+	}
+}
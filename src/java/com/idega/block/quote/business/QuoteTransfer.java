@@ -0,0 +1,28 @@
+package com.idega.block.quote.business;
+
+/**
+ * The formats and field names shared by the quote import and export, so that an exported file can be imported again.
+ * CSV files start with a header row naming the fields, JSON files hold an array with one object per quote.
+ */
+public final class QuoteTransfer {
+
+	public static final String FORMAT_CSV = "csv";
+	public static final String FORMAT_JSON = "json";
+
+	public static final String FIELD_ID = "id";
+	public static final String FIELD_LOCALE_ID = "locale_id";
+	public static final String FIELD_TEXT = "text";
+	public static final String FIELD_AUTHOR = "author";
+	public static final String FIELD_ORIGIN = "origin";
+	/**
+	 * The weight of the quote in random selection, empty or <code>null</code> if not set.
+	 */
+	public static final String FIELD_WEIGHT = "weight";
+
+	static final String[] FIELDS = { FIELD_ID, FIELD_LOCALE_ID, FIELD_TEXT, FIELD_AUTHOR, FIELD_ORIGIN, FIELD_WEIGHT };
+
+	public static final String ENCODING = "UTF-8";
+
+	private QuoteTransfer() {
+	}
+}
@@ -0,0 +1,226 @@
+package com.idega.block.quote.data;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+
+import com.idega.util.database.ConnectionBroker;
+
+/**
+ * Inserts quotes into QU_QUOTE with JDBC batches, committing every <code>commitSize</code> rows, for imports that
+ * are too large to go through one entity bean per quote. Primary keys are generated as IDO generates them for the
+ * beans: on datastores where IDO uses a sequence (Oracle, PostgreSQL) they are taken from the sequence of the table,
+ * one batch of keys per query, elsewhere they are left to the identity column. Obtained from
+ * {@link QuoteEntityHome#createBatchInserter(int, int)} and must be closed, or aborted on failure.
+ */
+public class QuoteBatchInserter {
+
+	private final String datasource;
+	private final Connection connection;
+	private final PreparedStatement statement;
+	private final PreparedStatement keyStatement;
+	private final int[] keys;
+	private int nextKey;
+	private final boolean autoCommit;
+	private final int batchSize;
+	private final int commitSize;
+
+	private int batched = 0;
+	private long inserted = 0;
+	private long committed = 0;
+
+	/**
+	 * @param columns The columns set by {@link #insert(int, int, String, String, String, String, int, int)}, in the
+	 *        order of its parameters.
+	 * @param sequence The sequence IDO takes the keys of the table from on datastores that use sequences.
+	 */
+	QuoteBatchInserter(String datasource, String table, String idColumn, String[] columns, String sequence, int batchSize, int commitSize) throws SQLException {
+		this.datasource = datasource;
+		this.batchSize = Math.max(batchSize, 1);
+		this.commitSize = Math.max(commitSize, this.batchSize);
+		this.connection = ConnectionBroker.getConnection(datasource);
+		PreparedStatement keyStatement = null;
+		try {
+			this.autoCommit = this.connection.getAutoCommit();
+			this.connection.setAutoCommit(false);
+			String keyQuery = getKeyQuery(this.connection.getMetaData().getDatabaseProductName(), sequence, this.batchSize);
+			StringBuffer sql = new StringBuffer("insert into ").append(table).append(" (");
+			StringBuffer values = new StringBuffer();
+			for (int i = 0; i < columns.length; i++) {
+				sql.append(i > 0 ? ", " : "").append(columns[i]);
+				values.append(i > 0 ? ", ?" : "?");
+			}
+			if (keyQuery != null) {
+				sql.append(", ").append(idColumn);
+				values.append(", ?");
+				keyStatement = this.connection.prepareStatement(keyQuery);
+			}
+			sql.append(") values (").append(values).append(")");
+			this.statement = this.connection.prepareStatement(sql.toString());
+			this.keyStatement = keyStatement;
+			this.keys = keyQuery != null ? new int[this.batchSize] : null;
+			this.nextKey = this.batchSize;
+		}
+		catch (SQLException e) {
+			if (keyStatement != null) {
+				keyStatement.close();
+			}
+			ConnectionBroker.freeConnection(datasource, this.connection);
+			throw e;
+		}
+	}
+
+	/**
+	 * @return The query returning <code>count</code> new values of the sequence, as the datastore interface of IDO
+	 *         reads one, or <code>null</code> if IDO leaves the key to an identity column on the datastore.
+	 */
+	static String getKeyQuery(String product, String sequence, int count) {
+		String name = product != null ? product.toLowerCase() : "";
+		if (name.indexOf("oracle") != -1) {
+			return "select " + sequence + ".nextval from dual connect by level <= " + count;
+		}
+		if (name.indexOf("postgres") != -1) {
+			return "select nextval('" + sequence + "') from generate_series(1, " + count + ")";
+		}
+		return null;
+	}
+
+	/**
+	 * Adds a quote to the current batch, executing the batch when it is full and committing when a chunk is complete.
+	 *
+	 * @param ordinal The ordinal of the quote, or -1 to leave it unnumbered.
+	 * @param weight The weight of the quote, or -1 to leave it unset.
+	 * @return <code>true</code> if a chunk was committed by this call.
+	 */
+	public boolean insert(int localeID, int ordinal, String text, String author, String origin, String formattedText, int formatVersion, int weight) throws SQLException {
+		this.statement.setInt(1, localeID);
+		if (ordinal >= 0) {
+			this.statement.setInt(2, ordinal);
+		}
+		else {
+			this.statement.setNull(2, Types.INTEGER);
+		}
+		setString(3, text);
+		setString(4, author);
+		setString(5, origin);
+		setString(6, formattedText);
+		this.statement.setInt(7, formatVersion);
+		if (weight >= 0) {
+			this.statement.setInt(8, weight);
+		}
+		else {
+			this.statement.setNull(8, Types.INTEGER);
+		}
+		if (this.keys != null) {
+			this.statement.setInt(9, nextKey());
+		}
+		this.statement.addBatch();
+		this.batched++;
+		this.inserted++;
+
+		if (this.batched >= this.batchSize) {
+			executeBatch();
+		}
+		if (this.inserted - this.committed >= this.commitSize) {
+			commit();
+			return true;
+		}
+		return false;
+	}
+
+	public long getInserted() {
+		return this.inserted;
+	}
+
+	public long getCommitted() {
+		return this.committed;
+	}
+
+	/**
+	 * Executes and commits the remaining rows and releases the connection.
+	 */
+	public void close() throws SQLException {
+		try {
+			commit();
+		}
+		finally {
+			release();
+		}
+	}
+
+	/**
+	 * Rolls back the rows inserted since the last commit and releases the connection.
+	 */
+	public void abort() {
+		try {
+			this.connection.rollback();
+		}
+		catch (SQLException e) {
+			e.printStackTrace(System.err);
+		}
+		finally {
+			release();
+		}
+	}
+
+	private int nextKey() throws SQLException {
+		if (this.nextKey == this.keys.length) {
+			ResultSet rs = this.keyStatement.executeQuery();
+			try {
+				int count = 0;
+				while (count < this.keys.length && rs.next()) {
+					this.keys[count++] = rs.getInt(1);
+				}
+				if (count < this.keys.length) {
+					throw new SQLException("The sequence returned " + count + " of " + this.keys.length + " keys");
+				}
+			}
+			finally {
+				rs.close();
+			}
+			this.nextKey = 0;
+		}
+		return this.keys[this.nextKey++];
+	}
+
+	private void setString(int index, String value) throws SQLException {
+		if (value != null) {
+			this.statement.setString(index, value);
+		}
+		else {
+			this.statement.setNull(index, Types.VARCHAR);
+		}
+	}
+
+	private void executeBatch() throws SQLException {
+		if (this.batched > 0) {
+			this.statement.executeBatch();
+			this.batched = 0;
+		}
+	}
+
+	private void commit() throws SQLException {
+		executeBatch();
+		this.connection.commit();
+		this.committed = this.inserted;
+	}
+
+	private void release() {
+		try {
+			this.statement.close();
+			if (this.keyStatement != null) {
+				this.keyStatement.close();
+			}
+		}
+		catch (SQLException e) {
+		}
+		try {
+			this.connection.setAutoCommit(this.autoCommit);
+		}
+		catch (SQLException e) {
+		}
+		ConnectionBroker.freeConnection(this.datasource, this.connection);
+	}
+}
@@ -4,10 +4,22 @@ package com.idega.block.quote.data;
 
 
 
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import javax.ejb.FinderException;
 
+import com.idega.block.quote.stats.QuoteQueryTrace;
 import com.idega.core.localisation.data.ICLocale;
 import com.idega.data.GenericEntity;
 import com.idega.data.IDOException;
@@ -16,6 +28,10 @@ import com.idega.data.IDOQuery;
 
 public class QuoteEntityBMPBean extends GenericEntity implements QuoteEntity {
 
+  /**
+   * The unique index on (locale, ordinal), see {@link #ejbHomeAddOrdinalConstraint()}.
+   */
+  private static final String ORDINAL_CONSTRAINT = "IDX_QU_QUOTE_LOCALE_ORD_UQ";
 
   public void initializeAttributes(){
     addAttribute(getIDColumnName());
@@ -23,16 +39,29 @@ public class QuoteEntityBMPBean extends GenericEntity implements QuoteEntity {
     addAttribute(getColumnNameQuoteText(), "Text", true, true, String.class);
     addAttribute(getColumnNameQuoteAuthor(), "Author", true, true, String.class);
     addAttribute(getColumnNameICLocaleID(),"Locale",true,true,Integer.class,"many-to-one",ICLocale.class);
+    addAttribute(getColumnNameOrdinal(), "Ordinal", true, true, Integer.class);
+    addAttribute(getColumnNameFormattedText(), "Formatted text", true, true, String.class, 4000);
+    addAttribute(getColumnNameFormatVersion(), "Format version", true, true, Integer.class);
+    addAttribute(getColumnNameWeight(), "Weight", true, true, Integer.class);
+    addIndex("IDX_QU_QUOTE_LOCALE_ORDINAL", new String[] { getColumnNameICLocaleID(), getColumnNameOrdinal() });
+    addIndex("IDX_QU_QUOTE_LOCALE_ID", new String[] { getColumnNameICLocaleID(), getIDColumnName() });
+    addIndex("IDX_QU_QUOTE_LOCALE_AUTHOR", new String[] { getColumnNameICLocaleID(), getColumnNameQuoteAuthor(), getIDColumnName() });
   }
 
 
-  public String getIDColumnName(){ return "QU_QUOTE_ID";}
+  public String getIDColumnName(){ return getColumnNameQuoteID();}
+
+  protected static String getColumnNameQuoteID(){ return "QU_QUOTE_ID";}
 
   protected static String getEntityTableName(){ return "QU_QUOTE";}
   protected static String getColumnNameQuoteOrigin(){ return "QU_QUOTE_ORIGIN";}
   protected static String getColumnNameQuoteText(){ return "QU_QUOTE_TEXT";}
   protected static String getColumnNameQuoteAuthor(){ return "QU_QUOTE_AUTHOR";}
   protected static String getColumnNameICLocaleID(){ return "IC_LOCALE_ID";}
+  protected static String getColumnNameOrdinal(){ return "QU_QUOTE_ORDINAL";}
+  protected static String getColumnNameFormattedText(){ return "QU_QUOTE_TEXT_FORMATTED";}
+  protected static String getColumnNameFormatVersion(){ return "QU_QUOTE_FORMAT_VERSION";}
+  protected static String getColumnNameWeight(){ return "QU_QUOTE_WEIGHT";}
 
 
 
@@ -40,6 +69,16 @@ public class QuoteEntityBMPBean extends GenericEntity implements QuoteEntity {
     return getEntityTableName();
   }
 
+  /**
+   * Reads the row of the bean. The read is counted for {@link QuoteQueryTrace} here rather than in findByPrimaryKey,
+   * which IDO answers from its bean cache without any SQL when it can.
+   */
+  public void ejbLoad(){
+    QuoteQueryTrace.statement();
+    super.ejbLoad();
+    QuoteQueryTrace.rows(1);
+  }
+
   public String getQuoteOrigin(){
     return getStringColumnValue(getColumnNameQuoteOrigin());
   }
@@ -56,6 +95,28 @@ public class QuoteEntityBMPBean extends GenericEntity implements QuoteEntity {
     setColumn(getColumnNameQuoteText(), quote_text);
   }
 
+  /**
+   * The quote text as it is displayed, formatted when the quote was saved.
+   */
+  public String getFormattedText(){
+    return getStringColumnValue(getColumnNameFormattedText());
+  }
+
+  public void setFormattedText(String formatted_text){
+    setColumn(getColumnNameFormattedText(), formatted_text);
+  }
+
+  /**
+   * The version of the formatting the formatted text was produced with, see QuoteBusiness.FORMAT_VERSION.
+   */
+  public int getFormatVersion(){
+    return getIntColumnValue(getColumnNameFormatVersion());
+  }
+
+  public void setFormatVersion(int version){
+    setColumn(getColumnNameFormatVersion(), version);
+  }
+
   public String getQuoteAuthor(){
     return getStringColumnValue(getColumnNameQuoteAuthor());
   }
@@ -72,15 +133,351 @@ public class QuoteEntityBMPBean extends GenericEntity implements QuoteEntity {
     setColumn(getColumnNameICLocaleID(),localeID);
   }
 
+  /**
+   * The ordinal is dense within a locale, i.e. the quotes of a locale are numbered from 0 to count - 1.
+   */
+  public int getOrdinal(){
+    return getIntColumnValue(getColumnNameOrdinal());
+  }
+
+  public void setOrdinal(int ordinal){
+    setColumn(getColumnNameOrdinal(),ordinal);
+  }
+
+  /**
+   * The relative weight of the quote in random selection, -1 if not set.
+   */
+  public int getWeight(){
+    return getIntColumnValue(getColumnNameWeight());
+  }
+
+  public void setWeight(int weight){
+    setColumn(getColumnNameWeight(),weight);
+  }
+
   public Collection ejbFindAllQuotesByLocale(int localeID)throws FinderException{
     //return super.idoFindAllIDsByColumnBySQL(this.getColumnNameICLocaleID(),Integer.toString(localeID));
-    return super.idoFindIDsBySQL("select * from "+QuoteEntityBMPBean.getEntityTableName()+" where "+getColumnNameICLocaleID()+" = "+String.valueOf(localeID));
+    QuoteQueryTrace.statement();
+    Collection ids = super.idoFindIDsBySQL("select * from "+QuoteEntityBMPBean.getEntityTableName()+" where "+getColumnNameICLocaleID()+" = "+String.valueOf(localeID));
+    QuoteQueryTrace.rows(ids.size());
+    return ids;
   }
 
   public int ejbHomeGetNumberOfQuotes(int localeID) throws FinderException, IDOException {
     IDOQuery ido = idoQuery();
     ido.appendSelectCountFrom(getEntityName()).appendWhereEquals(getColumnNameICLocaleID(), localeID);
     
-    return super.idoGetNumberOfRecords(ido.toString());
+    QuoteQueryTrace.statement();
+    int count = super.idoGetNumberOfRecords(ido.toString());
+    QuoteQueryTrace.rows(1);
+    return count;
+  }
+
+  /**
+   * Counts the quotes of every locale with one grouped query. Locales without quotes are not in the map.
+   */
+  public Map ejbHomeGetNumberOfQuotesByLocale() throws IDOException {
+    return getValuesByLocale("count(*)");
+  }
+
+  /**
+   * Finds the highest quote ID of every locale with one grouped query. Locales without quotes are not in the map.
+   */
+  public Map ejbHomeGetMaxQuoteIDsByLocale() throws IDOException {
+    return getValuesByLocale("max(" + getIDColumnName() + ")");
+  }
+
+  private Map getValuesByLocale(String aggregate) throws IDOException {
+    Connection conn = null;
+    PreparedStatement select = null;
+    ResultSet rs = null;
+    try {
+      conn = getConnection();
+      select = conn.prepareStatement("select " + getColumnNameICLocaleID() + ", " + aggregate + " from " + getEntityTableName() + " group by " + getColumnNameICLocaleID());
+      rs = select.executeQuery();
+      QuoteQueryTrace.statement();
+      Map values = new HashMap();
+      while (rs.next()) {
+        values.put(new Integer(rs.getInt(1)), new Integer(rs.getInt(2)));
+      }
+      QuoteQueryTrace.rows(values.size());
+      return values;
+    }
+    catch (SQLException e) {
+      throw new IDOException(e, this, "Could not read " + aggregate + " by locale");
+    }
+    finally {
+      close(rs);
+      close(select);
+      if (conn != null) {
+        freeConnection(conn);
+      }
+    }
+  }
+
+  public Object ejbFindQuoteByLocaleAndOrdinal(int localeID, int ordinal) throws FinderException {
+    IDOQuery query = idoQueryGetSelect();
+    query.appendWhereEquals(getColumnNameICLocaleID(), localeID).appendAndEquals(getColumnNameOrdinal(), ordinal);
+
+    QuoteQueryTrace.statement();
+    Object pk = idoFindOnePKByQuery(query);
+    QuoteQueryTrace.rows(1);
+    return pk;
+  }
+
+  /**
+   * Finds one page of the quotes of the locale, starting after the quote <code>afterID</code> (-1 for the first page),
+   * in primary key order or by author. Pages are found by key instead of by offset, so every page is an index range
+   * scan of <code>maxNumberOfQuotes</code> rows, whatever its position in the listing. Sorted by author, quotes
+   * without an author come last, in primary key order.
+   * <p>
+   * Sorted by author, the cursor is the author and ID of the last quote of the previous page, as shown, so that the
+   * next page starts in the right place even if that quote has since been changed or deleted.
+   *
+   * @param afterAuthor The author of the quote <code>afterID</code>, <code>null</code> if it has none. Only used
+   *        when sorting by author.
+   */
+  public Collection ejbFindQuotesByLocale(int localeID, String afterAuthor, int afterID, int maxNumberOfQuotes, boolean sortByAuthor) throws FinderException {
+    try {
+      return new QuoteRowScanner(getDatasource()).scanPageByLocale(localeID, afterAuthor, afterID, maxNumberOfQuotes, sortByAuthor, null);
+    }
+    catch (IDOException e) {
+      throw new FinderException(e.getMessage());
+    }
+    catch (IOException e) {
+      throw new FinderException(e.getMessage());
+    }
+  }
+
+  public Collection ejbFindQuotesWithOutdatedFormat(int formatVersion, int maxNumberOfQuotes) throws FinderException {
+    IDOQuery query = idoQueryGetSelect();
+    query.appendWhere().append(getColumnNameFormatVersion()).append(" is null or ").append(getColumnNameFormatVersion()).append(" <> ").append(formatVersion);
+
+    QuoteQueryTrace.statement();
+    Collection ids = idoFindPKsByQuery(query, maxNumberOfQuotes);
+    QuoteQueryTrace.rows(ids.size());
+    return ids;
+  }
+
+  public QuoteBatchInserter ejbHomeCreateBatchInserter(int batchSize, int commitSize) throws IDOException {
+    String[] columns = { getColumnNameICLocaleID(), getColumnNameOrdinal(), getColumnNameQuoteText(), getColumnNameQuoteAuthor(), getColumnNameQuoteOrigin(), getColumnNameFormattedText(), getColumnNameFormatVersion(), getColumnNameWeight() };
+    try {
+      // The sequence IDO creates for the table and reads new keys from
+      return new QuoteBatchInserter(getDatasource(), getEntityTableName(), getIDColumnName(), columns, getEntityTableName() + "_seq", batchSize, commitSize);
+    }
+    catch (SQLException e) {
+      throw new IDOException(e, this, "Could not start a batch insert");
+    }
+  }
+
+  /**
+   * @return The ordinal after the highest one of the locale, 0 if the locale has no numbered quotes. Unlike the
+   *         number of quotes, this is never the ordinal of a stored quote, even if a concurrent delete left a gap.
+   */
+  public int ejbHomeGetNextOrdinal(int localeID) throws IDOException {
+    Connection conn = null;
+    PreparedStatement select = null;
+    ResultSet rs = null;
+    try {
+      conn = getConnection();
+      select = conn.prepareStatement("select max(" + getColumnNameOrdinal() + ") from " + getEntityTableName() + " where " + getColumnNameICLocaleID() + " = ?");
+      select.setInt(1, localeID);
+      rs = select.executeQuery();
+      QuoteQueryTrace.statement();
+      int max = -1;
+      if (rs.next()) {
+        max = rs.getInt(1);
+        if (rs.wasNull()) {
+          max = -1;
+        }
+      }
+      QuoteQueryTrace.rows(1);
+      return max + 1;
+    }
+    catch (SQLException e) {
+      throw new IDOException(e, this, "Could not read the next ordinal of locale " + localeID);
+    }
+    finally {
+      close(rs);
+      close(select);
+      if (conn != null) {
+        freeConnection(conn);
+      }
+    }
+  }
+
+  /**
+   * Renumbers the ordinals of the locale densely in primary key order. Used to number rows created before the
+   * ordinal column existed or by an import, and to repair gaps left by concurrent edits. The ordinals are cleared
+   * before they are set again, so that the unique index on the ordinals is not violated half way, and both are done
+   * in one transaction. A connection that is already in a transaction of the caller is used as it is.
+   */
+  public void ejbHomeAssignOrdinals(int localeID) throws IDOException {
+    Connection conn = null;
+    PreparedStatement clear = null;
+    PreparedStatement select = null;
+    PreparedStatement update = null;
+    ResultSet rs = null;
+    boolean ownTransaction = false;
+    boolean done = false;
+    try {
+      conn = getConnection();
+      if (conn.getAutoCommit()) {
+        conn.setAutoCommit(false);
+        ownTransaction = true;
+      }
+      clear = conn.prepareStatement("update " + getEntityTableName() + " set " + getColumnNameOrdinal() + " = null where " + getColumnNameICLocaleID() + " = ?");
+      clear.setInt(1, localeID);
+      clear.executeUpdate();
+      QuoteQueryTrace.statement();
+
+      select = conn.prepareStatement("select " + getIDColumnName() + " from " + getEntityTableName() + " where " + getColumnNameICLocaleID() + " = ? order by " + getIDColumnName());
+      select.setInt(1, localeID);
+      rs = select.executeQuery();
+      QuoteQueryTrace.statement();
+      List ids = new ArrayList();
+      while (rs.next()) {
+        ids.add(new Integer(rs.getInt(1)));
+      }
+      QuoteQueryTrace.rows(ids.size());
+
+      update = conn.prepareStatement("update " + getEntityTableName() + " set " + getColumnNameOrdinal() + " = ? where " + getIDColumnName() + " = ?");
+      for (int i = 0; i < ids.size(); i++) {
+        update.setInt(1, i);
+        update.setInt(2, ((Integer) ids.get(i)).intValue());
+        update.addBatch();
+      }
+      update.executeBatch();
+      QuoteQueryTrace.statement();
+      if (ownTransaction) {
+        conn.commit();
+      }
+      done = true;
+    }
+    catch (SQLException e) {
+      throw new IDOException(e, this, "Could not assign ordinals for locale " + localeID);
+    }
+    finally {
+      close(rs);
+      close(clear);
+      close(select);
+      close(update);
+      if (conn != null) {
+        if (ownTransaction) {
+          if (!done) {
+            try {
+              conn.rollback();
+            }
+            catch (SQLException e) {
+            }
+          }
+          try {
+            conn.setAutoCommit(true);
+          }
+          catch (SQLException e) {
+          }
+        }
+        freeConnection(conn);
+      }
+    }
+  }
+
+  /**
+   * Adds the unique index on (locale, ordinal) that makes an insert fail rather than number two quotes of a locale
+   * alike, whichever node they are saved on. IDO only creates plain indexes, so it is created here if it does not
+   * exist yet, after the locales with duplicate ordinals have been numbered again.
+   */
+  public void ejbHomeAddOrdinalConstraint() throws IDOException {
+    List duplicates = new ArrayList();
+    Connection conn = null;
+    PreparedStatement select = null;
+    ResultSet rs = null;
+    try {
+      conn = getConnection();
+      DatabaseMetaData metaData = conn.getMetaData();
+      if (hasIndex(metaData, getEntityTableName(), ORDINAL_CONSTRAINT) || hasIndex(metaData, getEntityTableName().toLowerCase(), ORDINAL_CONSTRAINT)) {
+        return;
+      }
+      select = conn.prepareStatement("select distinct " + getColumnNameICLocaleID() + " from " + getEntityTableName() + " where " + getColumnNameOrdinal() + " is not null group by " + getColumnNameICLocaleID() + ", " + getColumnNameOrdinal() + " having count(*) > 1");
+      rs = select.executeQuery();
+      QuoteQueryTrace.statement();
+      while (rs.next()) {
+        duplicates.add(new Integer(rs.getInt(1)));
+      }
+      QuoteQueryTrace.rows(duplicates.size());
+    }
+    catch (SQLException e) {
+      throw new IDOException(e, this, "Could not look for duplicate ordinals");
+    }
+    finally {
+      close(rs);
+      close(select);
+      if (conn != null) {
+        freeConnection(conn);
+      }
+    }
+
+    for (int i = 0; i < duplicates.size(); i++) {
+      ejbHomeAssignOrdinals(((Integer) duplicates.get(i)).intValue());
+    }
+
+    Statement create = null;
+    conn = null;
+    try {
+      conn = getConnection();
+      create = conn.createStatement();
+      create.executeUpdate("create unique index " + ORDINAL_CONSTRAINT + " on " + getEntityTableName() + " (" + getColumnNameICLocaleID() + ", " + getColumnNameOrdinal() + ")");
+      QuoteQueryTrace.statement();
+    }
+    catch (SQLException e) {
+      throw new IDOException(e, this, "Could not create the unique index on the ordinals");
+    }
+    finally {
+      if (create != null) {
+        try {
+          create.close();
+        }
+        catch (SQLException e) {
+        }
+      }
+      if (conn != null) {
+        freeConnection(conn);
+      }
+    }
+  }
+
+  private static boolean hasIndex(DatabaseMetaData metaData, String table, String index) throws SQLException {
+    ResultSet rs = metaData.getIndexInfo(null, null, table, true, false);
+    try {
+      while (rs.next()) {
+        if (index.equalsIgnoreCase(rs.getString("INDEX_NAME"))) {
+          return true;
+        }
+      }
+      return false;
+    }
+    finally {
+      rs.close();
+    }
+  }
+
+  private void close(ResultSet rs) {
+    if (rs != null) {
+      try {
+        rs.close();
+      }
+      catch (SQLException e) {
+      }
+    }
+  }
+
+  private void close(PreparedStatement statement) {
+    if (statement != null) {
+      try {
+        statement.close();
+      }
+      catch (SQLException e) {
+      }
+    }
   }
 }
\ No newline at end of file
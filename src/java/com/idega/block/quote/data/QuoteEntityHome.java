@@ -7,5 +7,18 @@ public interface QuoteEntityHome extends com.idega.data.IDOHome
  public QuoteEntity findByPrimaryKey(Object pk) throws javax.ejb.FinderException;
  public java.util.Collection findAllQuotesByLocale(int p0)throws javax.ejb.FinderException;
  public int getNumberOfQuotes(int p0)throws javax.ejb.FinderException,com.idega.data.IDOException;
+ public java.util.Map getNumberOfQuotesByLocale()throws com.idega.data.IDOException;
+ public java.util.Map getMaxQuoteIDsByLocale()throws com.idega.data.IDOException;
+ public int getNextOrdinal(int p0)throws com.idega.data.IDOException;
+ public java.util.Collection findQuotesByLocale(int p0,java.lang.String p1,int p2,int p3,boolean p4)throws javax.ejb.FinderException;
+ public QuoteEntity findQuoteByLocaleAndOrdinal(int p0,int p1)throws javax.ejb.FinderException;
+ public java.util.Collection findQuotesWithOutdatedFormat(int p0,int p1)throws javax.ejb.FinderException;
+ public QuoteBatchInserter createBatchInserter(int p0,int p1)throws com.idega.data.IDOException;
+ public void scanQuotesByLocale(int p0,int p1,QuoteRowHandler p2)throws com.idega.data.IDOException,java.io.IOException;
+ public void scanQuotesByLocaleAndOrdinals(int p0,int[] p1,QuoteRowHandler p2)throws com.idega.data.IDOException,java.io.IOException;
+ public void scanQuotesByIDs(int[] p0,QuoteRowHandler p1)throws com.idega.data.IDOException,java.io.IOException;
+ public void scanQuotePageByLocale(int p0,java.lang.String p1,int p2,int p3,boolean p4,QuoteRowHandler p5)throws com.idega.data.IDOException,java.io.IOException;
+ public void assignOrdinals(int p0)throws com.idega.data.IDOException;
+ public void addOrdinalConstraint()throws com.idega.data.IDOException;
 
 }
\ No newline at end of file
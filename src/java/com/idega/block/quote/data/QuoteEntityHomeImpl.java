@@ -1,12 +1,34 @@
 package com.idega.block.quote.data;
 
+import com.idega.block.quote.stats.QuoteMetrics;
+import com.idega.block.quote.stats.QuoteQueryTrace;
+
 
 public class QuoteEntityHomeImpl extends com.idega.data.IDOFactory implements QuoteEntityHome
 {
+ private volatile QuoteRowScanner rowScanner;
+
  protected Class getEntityInterfaceClass(){
   return QuoteEntity.class;
  }
 
+ /**
+  * The scanner for the row reads, on the datasource of the entity. A pooled entity is checked out only once, to
+  * find the datasource.
+  */
+ private QuoteRowScanner getRowScanner(){
+  if (this.rowScanner == null) {
+   com.idega.data.IDOEntity entity = this.idoCheckOutPooledEntity();
+   try {
+    this.rowScanner = new QuoteRowScanner(((QuoteEntityBMPBean)entity).getDatasource());
+   }
+   finally {
+    this.idoCheckInPooledEntity(entity);
+   }
+  }
+  return this.rowScanner;
+ }
+
 
  public QuoteEntity create() throws javax.ejb.CreateException{
   return (QuoteEntity) super.createIDO();
@@ -14,23 +36,219 @@ public class QuoteEntityHomeImpl extends com.idega.data.IDOFactory implements Qu
 
 
 public java.util.Collection findAllQuotesByLocale(int p0)throws javax.ejb.FinderException{
-	com.idega.data.IDOEntity entity = this.idoCheckOutPooledEntity();
-	java.util.Collection ids = ((QuoteEntityBMPBean)entity).ejbFindAllQuotesByLocale(p0);
-	this.idoCheckInPooledEntity(entity);
-	return this.getEntityCollectionForPrimaryKeys(ids);
+	long start = QuoteMetrics.FIND_ALL_QUOTES_BY_LOCALE.start();
+	try {
+		com.idega.data.IDOEntity entity = this.idoCheckOutPooledEntity();
+		java.util.Collection ids = ((QuoteEntityBMPBean)entity).ejbFindAllQuotesByLocale(p0);
+		this.idoCheckInPooledEntity(entity);
+		return this.getEntityCollectionForPrimaryKeys(ids);
+	}
+	finally {
+		QuoteMetrics.FIND_ALL_QUOTES_BY_LOCALE.stop(start);
+		QuoteQueryTrace.query(QuoteMetrics.FIND_ALL_QUOTES_BY_LOCALE, start);
+	}
 }
 
  public QuoteEntity findByPrimaryKey(Object pk) throws javax.ejb.FinderException{
-  return (QuoteEntity) super.findByPrimaryKeyIDO(pk);
+  long start = QuoteMetrics.FIND_BY_PRIMARY_KEY.start();
+  try {
+   return (QuoteEntity) super.findByPrimaryKeyIDO(pk);
+  }
+  finally {
+   QuoteMetrics.FIND_BY_PRIMARY_KEY.stop(start);
+   QuoteQueryTrace.query(QuoteMetrics.FIND_BY_PRIMARY_KEY, start);
+  }
  }
 
 
 public int getNumberOfQuotes(int p0)throws javax.ejb.FinderException,com.idega.data.IDOException{
+	long start = QuoteMetrics.GET_NUMBER_OF_QUOTES.start();
+	try {
+		com.idega.data.IDOEntity entity = this.idoCheckOutPooledEntity();
+		int theReturn = ((QuoteEntityBMPBean)entity).ejbHomeGetNumberOfQuotes(p0);
+		this.idoCheckInPooledEntity(entity);
+		return theReturn;
+	}
+	finally {
+		QuoteMetrics.GET_NUMBER_OF_QUOTES.stop(start);
+		QuoteQueryTrace.query(QuoteMetrics.GET_NUMBER_OF_QUOTES, start);
+	}
+}
+
+
+public java.util.Map getNumberOfQuotesByLocale()throws com.idega.data.IDOException{
+	long start = QuoteMetrics.GET_NUMBER_OF_QUOTES_BY_LOCALE.start();
+	try {
+		com.idega.data.IDOEntity entity = this.idoCheckOutPooledEntity();
+		java.util.Map theReturn = ((QuoteEntityBMPBean)entity).ejbHomeGetNumberOfQuotesByLocale();
+		this.idoCheckInPooledEntity(entity);
+		return theReturn;
+	}
+	finally {
+		QuoteMetrics.GET_NUMBER_OF_QUOTES_BY_LOCALE.stop(start);
+		QuoteQueryTrace.query(QuoteMetrics.GET_NUMBER_OF_QUOTES_BY_LOCALE, start);
+	}
+}
+
+
+public java.util.Map getMaxQuoteIDsByLocale()throws com.idega.data.IDOException{
+	long start = QuoteMetrics.GET_MAX_QUOTE_IDS_BY_LOCALE.start();
+	try {
+		com.idega.data.IDOEntity entity = this.idoCheckOutPooledEntity();
+		java.util.Map theReturn = ((QuoteEntityBMPBean)entity).ejbHomeGetMaxQuoteIDsByLocale();
+		this.idoCheckInPooledEntity(entity);
+		return theReturn;
+	}
+	finally {
+		QuoteMetrics.GET_MAX_QUOTE_IDS_BY_LOCALE.stop(start);
+		QuoteQueryTrace.query(QuoteMetrics.GET_MAX_QUOTE_IDS_BY_LOCALE, start);
+	}
+}
+
+
+public int getNextOrdinal(int p0)throws com.idega.data.IDOException{
+	long start = QuoteMetrics.GET_NEXT_ORDINAL.start();
+	try {
+		com.idega.data.IDOEntity entity = this.idoCheckOutPooledEntity();
+		int theReturn = ((QuoteEntityBMPBean)entity).ejbHomeGetNextOrdinal(p0);
+		this.idoCheckInPooledEntity(entity);
+		return theReturn;
+	}
+	finally {
+		QuoteMetrics.GET_NEXT_ORDINAL.stop(start);
+		QuoteQueryTrace.query(QuoteMetrics.GET_NEXT_ORDINAL, start);
+	}
+}
+
+
+public QuoteEntity findQuoteByLocaleAndOrdinal(int p0,int p1)throws javax.ejb.FinderException{
+	long start = QuoteMetrics.FIND_QUOTE_BY_LOCALE_AND_ORDINAL.start();
+	try {
+		com.idega.data.IDOEntity entity = this.idoCheckOutPooledEntity();
+		Object pk = ((QuoteEntityBMPBean)entity).ejbFindQuoteByLocaleAndOrdinal(p0,p1);
+		this.idoCheckInPooledEntity(entity);
+		QuoteEntity theReturn = (QuoteEntity) super.findByPrimaryKeyIDO(pk);
+		return theReturn;
+	}
+	finally {
+		QuoteMetrics.FIND_QUOTE_BY_LOCALE_AND_ORDINAL.stop(start);
+		QuoteQueryTrace.query(QuoteMetrics.FIND_QUOTE_BY_LOCALE_AND_ORDINAL, start);
+	}
+}
+
+
+public java.util.Collection findQuotesByLocale(int p0,java.lang.String p1,int p2,int p3,boolean p4)throws javax.ejb.FinderException{
+	long start = QuoteMetrics.FIND_QUOTES_BY_LOCALE.start();
+	try {
+		com.idega.data.IDOEntity entity = this.idoCheckOutPooledEntity();
+		java.util.Collection ids = ((QuoteEntityBMPBean)entity).ejbFindQuotesByLocale(p0,p1,p2,p3,p4);
+		this.idoCheckInPooledEntity(entity);
+		return this.getEntityCollectionForPrimaryKeys(ids);
+	}
+	finally {
+		QuoteMetrics.FIND_QUOTES_BY_LOCALE.stop(start);
+		QuoteQueryTrace.query(QuoteMetrics.FIND_QUOTES_BY_LOCALE, start);
+	}
+}
+
+
+public java.util.Collection findQuotesWithOutdatedFormat(int p0,int p1)throws javax.ejb.FinderException{
+	long start = QuoteMetrics.FIND_QUOTES_WITH_OUTDATED_FORMAT.start();
+	try {
+		com.idega.data.IDOEntity entity = this.idoCheckOutPooledEntity();
+		java.util.Collection ids = ((QuoteEntityBMPBean)entity).ejbFindQuotesWithOutdatedFormat(p0,p1);
+		this.idoCheckInPooledEntity(entity);
+		return this.getEntityCollectionForPrimaryKeys(ids);
+	}
+	finally {
+		QuoteMetrics.FIND_QUOTES_WITH_OUTDATED_FORMAT.stop(start);
+		QuoteQueryTrace.query(QuoteMetrics.FIND_QUOTES_WITH_OUTDATED_FORMAT, start);
+	}
+}
+
+
+public QuoteBatchInserter createBatchInserter(int p0,int p1)throws com.idega.data.IDOException{
 	com.idega.data.IDOEntity entity = this.idoCheckOutPooledEntity();
-	int theReturn = ((QuoteEntityBMPBean)entity).ejbHomeGetNumberOfQuotes(p0);
+	QuoteBatchInserter theReturn = ((QuoteEntityBMPBean)entity).ejbHomeCreateBatchInserter(p0,p1);
 	this.idoCheckInPooledEntity(entity);
 	return theReturn;
 }
 
 
+public void scanQuotesByLocale(int p0,int p1,QuoteRowHandler p2)throws com.idega.data.IDOException,java.io.IOException{
+	long start = QuoteMetrics.SCAN_QUOTES_BY_LOCALE.start();
+	try {
+		getRowScanner().scanByLocale(p0,p1,p2);
+	}
+	finally {
+		QuoteMetrics.SCAN_QUOTES_BY_LOCALE.stop(start);
+		QuoteQueryTrace.query(QuoteMetrics.SCAN_QUOTES_BY_LOCALE, start);
+	}
+}
+
+
+public void scanQuotesByLocaleAndOrdinals(int p0,int[] p1,QuoteRowHandler p2)throws com.idega.data.IDOException,java.io.IOException{
+	long start = QuoteMetrics.SCAN_QUOTES_BY_LOCALE_AND_ORDINALS.start();
+	try {
+		getRowScanner().scanByLocaleAndOrdinals(p0,p1,p2);
+	}
+	finally {
+		QuoteMetrics.SCAN_QUOTES_BY_LOCALE_AND_ORDINALS.stop(start);
+		QuoteQueryTrace.query(QuoteMetrics.SCAN_QUOTES_BY_LOCALE_AND_ORDINALS, start);
+	}
+}
+
+
+public void scanQuotesByIDs(int[] p0,QuoteRowHandler p1)throws com.idega.data.IDOException,java.io.IOException{
+	long start = QuoteMetrics.SCAN_QUOTES_BY_IDS.start();
+	try {
+		getRowScanner().scanByIDs(p0,p1);
+	}
+	finally {
+		QuoteMetrics.SCAN_QUOTES_BY_IDS.stop(start);
+		QuoteQueryTrace.query(QuoteMetrics.SCAN_QUOTES_BY_IDS, start);
+	}
+}
+
+
+public void scanQuotePageByLocale(int p0,java.lang.String p1,int p2,int p3,boolean p4,QuoteRowHandler p5)throws com.idega.data.IDOException,java.io.IOException{
+	long start = QuoteMetrics.SCAN_QUOTE_PAGE_BY_LOCALE.start();
+	try {
+		getRowScanner().scanPageByLocale(p0,p1,p2,p3,p4,p5);
+	}
+	finally {
+		QuoteMetrics.SCAN_QUOTE_PAGE_BY_LOCALE.stop(start);
+		QuoteQueryTrace.query(QuoteMetrics.SCAN_QUOTE_PAGE_BY_LOCALE, start);
+	}
+}
+
+
+public void assignOrdinals(int p0)throws com.idega.data.IDOException{
+	long start = QuoteMetrics.ASSIGN_ORDINALS.start();
+	try {
+		com.idega.data.IDOEntity entity = this.idoCheckOutPooledEntity();
+		((QuoteEntityBMPBean)entity).ejbHomeAssignOrdinals(p0);
+		this.idoCheckInPooledEntity(entity);
+	}
+	finally {
+		QuoteMetrics.ASSIGN_ORDINALS.stop(start);
+		QuoteQueryTrace.query(QuoteMetrics.ASSIGN_ORDINALS, start);
+	}
+}
+
+
+public void addOrdinalConstraint()throws com.idega.data.IDOException{
+	long start = QuoteMetrics.ADD_ORDINAL_CONSTRAINT.start();
+	try {
+		com.idega.data.IDOEntity entity = this.idoCheckOutPooledEntity();
+		((QuoteEntityBMPBean)entity).ejbHomeAddOrdinalConstraint();
+		this.idoCheckInPooledEntity(entity);
+	}
+	finally {
+		QuoteMetrics.ADD_ORDINAL_CONSTRAINT.stop(start);
+		QuoteQueryTrace.query(QuoteMetrics.ADD_ORDINAL_CONSTRAINT, start);
+	}
+}
+
+
 }
\ No newline at end of file
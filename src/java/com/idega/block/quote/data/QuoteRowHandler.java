@@ -0,0 +1,16 @@
+package com.idega.block.quote.data;
+
+import java.io.IOException;
+
+/**
+ * Receives the rows of a scan over QU_QUOTE one at a time, straight from the result set, without creating entity
+ * beans. See {@link QuoteEntityHome#scanQuotesByLocale(int, int, QuoteRowHandler)}.
+ */
+public interface QuoteRowHandler {
+
+	/**
+	 * @param ordinal The ordinal, or -1 if not set.
+	 * @param weight The weight, or -1 if not set.
+	 */
+	public void handleRow(int quoteID, int localeID, int ordinal, String text, String author, String origin, String formattedText, int formatVersion, int weight) throws IOException;
+}
@@ -0,0 +1,292 @@
+package com.idega.block.quote.data;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.idega.block.quote.stats.QuoteQueryTrace;
+import com.idega.data.IDOException;
+import com.idega.util.database.ConnectionBroker;
+
+/**
+ * Reads quote rows for a {@link QuoteRowHandler} with plain JDBC, taking connections straight from the connection
+ * broker, so that the read paths used while serving need no entity bean checked out of the pool.
+ */
+final class QuoteRowScanner {
+
+	private final String datasource;
+
+	QuoteRowScanner(String datasource) {
+		this.datasource = datasource;
+	}
+
+	/**
+	 * Passes the quotes of the locale to the handler in primary key order. The rows are read with a forward only,
+	 * read only cursor that fetches <code>fetchSize</code> rows at a time, so memory use does not depend on the
+	 * number of quotes. Auto commit is turned off during the scan since some drivers (PostgreSQL) only use a cursor
+	 * inside a transaction. A connection that is already in a transaction, e.g. one bound to the thread by the IDO
+	 * transaction manager, is used as it is: its transaction belongs to the caller and is neither ended nor rolled
+	 * back here.
+	 */
+	void scanByLocale(int localeID, int fetchSize, QuoteRowHandler handler) throws IDOException, IOException {
+		Connection conn = null;
+		PreparedStatement select = null;
+		ResultSet rs = null;
+		boolean ownTransaction = false;
+		try {
+			conn = ConnectionBroker.getConnection(this.datasource);
+			if (conn.getAutoCommit()) {
+				conn.setAutoCommit(false);
+				ownTransaction = true;
+			}
+			select = conn.prepareStatement(getRowSelect() + " where " + QuoteEntityBMPBean.getColumnNameICLocaleID() + " = ? order by " + QuoteEntityBMPBean.getColumnNameQuoteID(), ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+			select.setFetchSize(fetchSize);
+			select.setInt(1, localeID);
+			rs = select.executeQuery();
+			QuoteQueryTrace.statement();
+			rs.setFetchDirection(ResultSet.FETCH_FORWARD);
+			handleRows(rs, handler);
+		}
+		catch (SQLException e) {
+			throw new IDOException(e, this, "Could not read the quotes of locale " + localeID);
+		}
+		finally {
+			close(rs);
+			close(select);
+			if (conn != null) {
+				if (ownTransaction) {
+					// Only read in the transaction started here, ending it releases the cursor
+					try {
+						conn.rollback();
+					}
+					catch (SQLException e) {
+					}
+					try {
+						conn.setAutoCommit(true);
+					}
+					catch (SQLException e) {
+					}
+				}
+				ConnectionBroker.freeConnection(this.datasource, conn);
+			}
+		}
+	}
+
+	/**
+	 * Passes the quotes of the locale with the given ordinals to the handler, read with a single query.
+	 */
+	void scanByLocaleAndOrdinals(int localeID, int[] ordinals, QuoteRowHandler handler) throws IDOException, IOException {
+		if (ordinals.length == 0) {
+			return;
+		}
+		StringBuffer sql = new StringBuffer(getRowSelect());
+		sql.append(" where ").append(QuoteEntityBMPBean.getColumnNameICLocaleID()).append(" = ? and ").append(QuoteEntityBMPBean.getColumnNameOrdinal()).append(" in (");
+		for (int i = 0; i < ordinals.length; i++) {
+			sql.append(i > 0 ? ", ?" : "?");
+		}
+		sql.append(")");
+
+		Connection conn = null;
+		PreparedStatement select = null;
+		ResultSet rs = null;
+		try {
+			conn = ConnectionBroker.getConnection(this.datasource);
+			select = conn.prepareStatement(sql.toString());
+			select.setInt(1, localeID);
+			for (int i = 0; i < ordinals.length; i++) {
+				select.setInt(i + 2, ordinals[i]);
+			}
+			rs = select.executeQuery();
+			QuoteQueryTrace.statement();
+			handleRows(rs, handler);
+		}
+		catch (SQLException e) {
+			throw new IDOException(e, this, "Could not read quotes by ordinal for locale " + localeID);
+		}
+		finally {
+			close(rs);
+			close(select);
+			if (conn != null) {
+				ConnectionBroker.freeConnection(this.datasource, conn);
+			}
+		}
+	}
+
+	/**
+	 * Passes the quotes with the given primary keys to the handler, read with a single query. Keys of deleted quotes
+	 * are skipped.
+	 */
+	void scanByIDs(int[] ids, QuoteRowHandler handler) throws IDOException, IOException {
+		if (ids.length == 0) {
+			return;
+		}
+		StringBuffer sql = new StringBuffer(getRowSelect());
+		sql.append(" where ").append(QuoteEntityBMPBean.getColumnNameQuoteID()).append(" in (");
+		for (int i = 0; i < ids.length; i++) {
+			sql.append(i > 0 ? ", ?" : "?");
+		}
+		sql.append(")");
+
+		Connection conn = null;
+		PreparedStatement select = null;
+		ResultSet rs = null;
+		try {
+			conn = ConnectionBroker.getConnection(this.datasource);
+			select = conn.prepareStatement(sql.toString());
+			for (int i = 0; i < ids.length; i++) {
+				select.setInt(i + 1, ids[i]);
+			}
+			rs = select.executeQuery();
+			QuoteQueryTrace.statement();
+			handleRows(rs, handler);
+		}
+		catch (SQLException e) {
+			throw new IDOException(e, this, "Could not read quotes by primary key");
+		}
+		finally {
+			close(rs);
+			close(select);
+			if (conn != null) {
+				ConnectionBroker.freeConnection(this.datasource, conn);
+			}
+		}
+	}
+
+	/**
+	 * Reads one page of the quotes of the locale, see {@link QuoteEntityBMPBean#ejbFindQuotesByLocale(int, String, int, int, boolean)}.
+	 *
+	 * @param handler Receives the rows if not null, otherwise only the primary keys are read.
+	 * @return The primary keys of the page.
+	 */
+	List scanPageByLocale(int localeID, String afterAuthor, int afterID, int maxNumberOfQuotes, boolean sortByAuthor, QuoteRowHandler handler) throws IDOException, IOException {
+		Connection conn = null;
+		PreparedStatement statement = null;
+		try {
+			conn = ConnectionBroker.getConnection(this.datasource);
+			List ids = new ArrayList();
+			String idColumn = QuoteEntityBMPBean.getColumnNameQuoteID();
+			String authorColumn = QuoteEntityBMPBean.getColumnNameQuoteAuthor();
+			String columns = handler != null ? getRowSelect() : "select " + idColumn + " from " + QuoteEntityBMPBean.getEntityTableName();
+			String select = columns + " where " + QuoteEntityBMPBean.getColumnNameICLocaleID() + " = ?";
+			boolean afterHasAuthor = false;
+			if (sortByAuthor) {
+				// The cursor is in the quotes with an author, or in those without one that follow them
+				if (afterID == -1 || afterAuthor != null) {
+					afterHasAuthor = afterID != -1;
+					String sql = select + " and " + authorColumn + " is not null";
+					if (afterHasAuthor) {
+						sql += " and (" + authorColumn + " > ? or (" + authorColumn + " = ? and " + idColumn + " > ?))";
+					}
+					statement = conn.prepareStatement(sql + " order by " + authorColumn + ", " + idColumn);
+					statement.setInt(1, localeID);
+					if (afterHasAuthor) {
+						statement.setString(2, afterAuthor);
+						statement.setString(3, afterAuthor);
+						statement.setInt(4, afterID);
+					}
+					addRows(statement, maxNumberOfQuotes, ids, handler);
+					close(statement);
+					statement = null;
+					if (ids.size() >= maxNumberOfQuotes) {
+						return ids;
+					}
+				}
+				select += " and " + authorColumn + " is null";
+			}
+
+			boolean afterInRange = afterID != -1 && !afterHasAuthor;
+			statement = conn.prepareStatement(select + (afterInRange ? " and " + idColumn + " > ?" : "") + " order by " + idColumn);
+			statement.setInt(1, localeID);
+			if (afterInRange) {
+				statement.setInt(2, afterID);
+			}
+			addRows(statement, maxNumberOfQuotes - ids.size(), ids, handler);
+			return ids;
+		}
+		catch (SQLException e) {
+			throw new IDOException(e, this, "Could not read a page of the quotes of locale " + localeID);
+		}
+		finally {
+			close(statement);
+			if (conn != null) {
+				ConnectionBroker.freeConnection(this.datasource, conn);
+			}
+		}
+	}
+
+	private void addRows(PreparedStatement statement, int maxNumberOfIDs, List ids, QuoteRowHandler handler) throws SQLException, IOException {
+		statement.setMaxRows(maxNumberOfIDs);
+		statement.setFetchSize(maxNumberOfIDs);
+		ResultSet rs = statement.executeQuery();
+		QuoteQueryTrace.statement();
+		int rows = 0;
+		try {
+			for (; rows < maxNumberOfIDs && rs.next(); rows++) {
+				ids.add(new Integer(rs.getInt(1)));
+				if (handler != null) {
+					handleRow(rs, handler);
+				}
+			}
+		}
+		finally {
+			close(rs);
+			QuoteQueryTrace.rows(rows);
+		}
+	}
+
+	/**
+	 * The select of the columns passed to a QuoteRowHandler, in the order read by handleRow.
+	 */
+	private static String getRowSelect() {
+		return "select " + QuoteEntityBMPBean.getColumnNameQuoteID() + ", " + QuoteEntityBMPBean.getColumnNameICLocaleID() + ", " + QuoteEntityBMPBean.getColumnNameOrdinal() + ", " + QuoteEntityBMPBean.getColumnNameQuoteText() + ", " + QuoteEntityBMPBean.getColumnNameQuoteAuthor() + ", " + QuoteEntityBMPBean.getColumnNameQuoteOrigin() + ", " + QuoteEntityBMPBean.getColumnNameFormattedText() + ", " + QuoteEntityBMPBean.getColumnNameFormatVersion() + ", " + QuoteEntityBMPBean.getColumnNameWeight() + " from " + QuoteEntityBMPBean.getEntityTableName();
+	}
+
+	private static void handleRows(ResultSet rs, QuoteRowHandler handler) throws SQLException, IOException {
+		int rows = 0;
+		try {
+			while (rs.next()) {
+				handleRow(rs, handler);
+				rows++;
+			}
+		}
+		finally {
+			QuoteQueryTrace.rows(rows);
+		}
+	}
+
+	private static void handleRow(ResultSet rs, QuoteRowHandler handler) throws SQLException, IOException {
+		int ordinal = rs.getInt(3);
+		if (rs.wasNull()) {
+			ordinal = -1;
+		}
+		int weight = rs.getInt(9);
+		if (rs.wasNull()) {
+			weight = -1;
+		}
+		handler.handleRow(rs.getInt(1), rs.getInt(2), ordinal, rs.getString(4), rs.getString(5), rs.getString(6), rs.getString(7), rs.getInt(8), weight);
+	}
+
+	private static void close(ResultSet rs) {
+		if (rs != null) {
+			try {
+				rs.close();
+			}
+			catch (SQLException e) {
+			}
+		}
+	}
+
+	private static void close(PreparedStatement statement) {
+		if (statement != null) {
+			try {
+				statement.close();
+			}
+			catch (SQLException e) {
+			}
+		}
+	}
+}
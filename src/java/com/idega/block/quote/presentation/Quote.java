@@ -1,7 +1,14 @@
 package com.idega.block.quote.presentation;
 
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
 import com.idega.block.quote.business.QuoteBusiness;
 import com.idega.block.quote.business.QuoteHolder;
+import com.idega.block.quote.business.QuoteRequestLoader;
+import com.idega.block.quote.business.QuoteRotation;
+import com.idega.block.quote.stats.QuoteMetrics;
+import com.idega.block.quote.stats.QuoteQueryTrace;
 import com.idega.core.localisation.business.ICLocaleBusiness;
 import com.idega.idegaweb.IWBundle;
 import com.idega.idegaweb.IWResourceBundle;
@@ -13,7 +20,6 @@ import com.idega.presentation.Table;
 import com.idega.presentation.text.Link;
 import com.idega.presentation.text.Text;
 import com.idega.util.PresentationUtil;
-import com.idega.util.text.TextSoap;
 
 /**
  * Title: Quote block
@@ -27,6 +33,8 @@ import com.idega.util.text.TextSoap;
 
 public class Quote extends Block implements Builderaware {
 
+	private static final Logger LOGGER = Logger.getLogger(Quote.class.getName());
+
 	private int _quoteID = -1;
 	private int _objectID = -1;
 	private boolean _hasEditPermission = false;
@@ -40,9 +48,11 @@ public class Quote extends Block implements Builderaware {
 	protected IWBundle _iwb;
 	
 	private boolean _alwaysFetchFromDatabase = false;
+	private QuoteRotation _rotation = null;
 	private boolean _showAuthor = true;
 	private boolean _showOrigin = true;
 	private boolean _showQuotes = true;
+	private String _searchQuery = null;
 
 	public Quote() {
 		setDefaultValues();
@@ -55,77 +65,55 @@ public class Quote extends Block implements Builderaware {
 
 	@Override
 	public void main(IWContext iwc) throws Exception {
-		this._iwb = getBundle(iwc);
-		this._iwrb = this._iwb.getResourceBundle(iwc.getCurrentLocale());
-		this._objectID = getICObjectInstanceID();
-		PresentationUtil.addStyleSheetToHeader(iwc, _iwb.getVirtualPathWithFileNameString("style/quote.css"));
+		long start = QuoteMetrics.RENDER.start();
+		QuoteQueryTrace trace = QuoteQueryTrace.begin(iwc.getRequest());
+		try {
+			this._iwb = getBundle(iwc);
+			this._iwrb = this._iwb.getResourceBundle(iwc.getCurrentLocale());
+			this._objectID = getICObjectInstanceID();
+			PresentationUtil.addStyleSheetToHeader(iwc, _iwb.getVirtualPathWithFileNameString("style/quote.css"));
 
-		this._hasEditPermission = iwc.hasEditPermission(this);
-		this._iLocaleID = ICLocaleBusiness.getLocaleId(iwc.getCurrentLocale());
+			this._hasEditPermission = iwc.hasEditPermission(this);
+			this._iLocaleID = ICLocaleBusiness.getLocaleId(iwc.getCurrentLocale());
 
-		Layer layer = drawLayer();
+			Layer layer = drawLayer();
 		
-		QuoteHolder quote = getQuoteBusiness().getRandomQuote(iwc, this._iLocaleID, this._objectID, this._alwaysFetchFromDatabase);
-		if (quote != null) {
-			this._quoteID = quote.getQuoteID();
-		}
+			QuoteHolder quote = QuoteRequestLoader.getInstance(iwc).getRandomQuote(iwc, this._iLocaleID, this._objectID, this._alwaysFetchFromDatabase, this._searchQuery, this._rotation);
+			if (quote != null) {
+				this._quoteID = quote.getQuoteID();
+			}
 
-		if (this._hasEditPermission) {
-			layer.add(getAdminLayer(iwc));
-		}
+			if (this._hasEditPermission) {
+				layer.add(getAdminLayer(iwc));
+			}
 
-		layer.add(getQuoteLayer(iwc, quote));
+			layer.add(getQuoteLayer(iwc, quote));
 		
-		add(layer);
+			add(layer);
+		}
+		finally {
+			QuoteQueryTrace.end(trace);
+			QuoteMetrics.RENDER.stop(start);
+		}
 	}
 
-	private Layer getQuoteLayer(IWContext iwc, QuoteHolder quote) {
-		Layer layer = new Layer();
-		layer.setStyleClass("quoteItem");
-
-		if (quote != null) {
-			String originString = quote.getOrigin();
-			String textString = quote.getText();
-			if (textString == null) {
-				textString = "";
-			}
-			String authorString = quote.getAuthor();
-			if (authorString == null || authorString.length() == 0) {
-				authorString = this._iwrb.getLocalizedString("unknown", "Unknown");
-			}
-
-			Layer origin = new Layer();
-			origin.setStyleClass("origin");
-			origin.add(new Text(originString + ":"));
-			
-			Layer text = new Layer();
-			text.setStyleClass("text");
-			Text quoteText = null;
-			if (this._showQuotes) {
-				quoteText = new Text("\"" + TextSoap.formatText(textString) + "\"");
-			}
-			else {
-				quoteText = new Text(TextSoap.formatText(textString));
-			}
-			text.add(quoteText);
-			
-			Layer author = new Layer();
-			author.setStyleClass("author");
-			author.add(new Text("-" + Text.getNonBrakingSpace().getText() + authorString));
-
-			if (this._showOrigin && originString != null && originString.length() > 0) {
-				layer.add(origin);
-			}
-			layer.add(text);
-			if (this._showAuthor) {
-				layer.add(author);
-			}
+	/**
+	 * Returns the rendered quote from the fragment cache, only rendering it when the quote, locale or display flags
+	 * have not been rendered before.
+	 */
+	private Text getQuoteLayer(IWContext iwc, QuoteHolder quote) {
+		QuoteFragmentCache fragmentCache = QuoteFragmentCache.getInstance();
+		long key = QuoteFragmentCache.getKey(quote != null ? quote.getQuoteID() : -1, this._iLocaleID, this._showAuthor, this._showOrigin, this._showQuotes);
+		String fragment = fragmentCache.get(key);
+		if (fragment != null) {
+			QuoteMetrics.FRAGMENT_CACHE_HITS.increment();
 		}
 		else {
-			layer.add(new Text(this._iwrb.getLocalizedString("no_quotes", "No quotes in database...")));
+			QuoteMetrics.FRAGMENT_CACHE_MISSES.increment();
+			fragment = QuoteRenderer.render(quote, this._showAuthor, this._showOrigin, this._showQuotes, this._iwrb.getLocalizedString("unknown", "Unknown"), this._iwrb.getLocalizedString("no_quotes", "No quotes in database..."));
+			fragmentCache.put(key, fragment);
 		}
-
-		return layer;
+		return new Text(fragment);
 	}
 
 	private Layer getAdminLayer(IWContext iwc) {
@@ -133,10 +121,15 @@ public class Quote extends Block implements Builderaware {
 		layer.setStyleClass("quoteAdmin");
 
 		layer.add(getCreateLink(iwc));
+		layer.add(getListLink(iwc));
 		if (this._quoteID != -1) {
 			layer.add(getEditLink(iwc));
 			layer.add(getDeleteLink(iwc));
 		}
+		if (iwc.isSuperAdmin()) {
+			layer.add(getImportLink(iwc));
+			layer.add(getExportLink(iwc));
+		}
 
 		return layer;
 	}
@@ -177,6 +170,33 @@ public class Quote extends Block implements Builderaware {
 		return link;
 	}
 
+	private Link getListLink(IWContext iwc) {
+		Link link = new Link(this._iwrb.getLocalizedString("list_quotes", "All Quotes"));
+		link.setWindowToOpen(QuoteEditor.class);
+		link.setStyleClass("quoteAdminLink");
+		link.addParameter(QuoteBusiness.PARAMETER_MODE, QuoteBusiness.PARAMETER_LIST);
+		link.addParameter(QuoteBusiness.PARAMETER_OBJECT_INSTANCE_ID, this._objectID);
+		return link;
+	}
+
+	private Link getImportLink(IWContext iwc) {
+		Link link = new Link(this._iwrb.getLocalizedString("import_quotes", "Import Quotes"));
+		link.setWindowToOpen(QuoteEditor.class);
+		link.setStyleClass("quoteAdminLink");
+		link.addParameter(QuoteBusiness.PARAMETER_MODE, QuoteBusiness.PARAMETER_IMPORT);
+		link.addParameter(QuoteBusiness.PARAMETER_OBJECT_INSTANCE_ID, this._objectID);
+		return link;
+	}
+
+	private Link getExportLink(IWContext iwc) {
+		Link link = new Link(this._iwrb.getLocalizedString("export_quotes", "Export Quotes"));
+		link.setWindowToOpen(QuoteEditor.class);
+		link.setStyleClass("quoteAdminLink");
+		link.addParameter(QuoteBusiness.PARAMETER_MODE, QuoteBusiness.PARAMETER_EXPORT);
+		link.addParameter(QuoteBusiness.PARAMETER_OBJECT_INSTANCE_ID, this._objectID);
+		return link;
+	}
+
 	private void setDefaultValues() {
 		this.width_ = "150";
 	}
@@ -353,6 +373,32 @@ public class Quote extends Block implements Builderaware {
 		this._alwaysFetchFromDatabase = fetchFromDatabase;
 	}
 
+	/**
+	 * Sets how often the block shows a new quote: <code>hourly</code>, <code>daily</code>, <code>weekly</code> or a
+	 * cron expression such as <code>0 6,18 * * *</code>, see {@link QuoteRotation}. Without a rotation the block
+	 * uses the rotation set for the bundle.
+	 */
+	public void setRotation(String rotation) {
+		if (rotation == null || rotation.trim().length() == 0) {
+			this._rotation = null;
+			return;
+		}
+		try {
+			this._rotation = QuoteRotation.valueOf(rotation);
+		}
+		catch (IllegalArgumentException iae) {
+			LOGGER.log(Level.WARNING, "Ignoring the rotation " + rotation + " of a Quote block: " + iae.getMessage());
+			this._rotation = null;
+		}
+	}
+
+	/**
+	 * Limits the block to quotes matching the query, e.g. <code>author:twain</code> or a topic word.
+	 */
+	public void setSearchQuery(String searchQuery) {
+		this._searchQuery = searchQuery;
+	}
+
 	/**
 	 * @param author The _showAuthor to set.
 	 */
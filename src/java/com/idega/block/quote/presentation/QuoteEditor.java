@@ -1,12 +1,26 @@
 package com.idega.block.quote.presentation;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
 import com.idega.block.quote.business.QuoteBusiness;
 import com.idega.block.quote.business.QuoteHolder;
+import com.idega.block.quote.business.QuoteImportStatus;
+import com.idega.block.quote.business.QuoteTransfer;
 import com.idega.core.localisation.business.ICLocaleBusiness;
 import com.idega.idegaweb.IWResourceBundle;
 import com.idega.idegaweb.presentation.IWAdminWindow;
 import com.idega.presentation.IWContext;
+import com.idega.presentation.Table;
+import com.idega.presentation.text.Link;
+import com.idega.presentation.text.Text;
 import com.idega.presentation.ui.CloseButton;
+import com.idega.presentation.ui.DropdownMenu;
 import com.idega.presentation.ui.HiddenInput;
 import com.idega.presentation.ui.SubmitButton;
 import com.idega.presentation.ui.TextArea;
@@ -14,6 +28,8 @@ import com.idega.presentation.ui.TextInput;
 
 public class QuoteEditor extends IWAdminWindow {
 
+	private static final Logger LOGGER = Logger.getLogger(QuoteEditor.class.getName());
+
 	private int _quoteID = -1;
 	private boolean _update = false;
 	private int _objectID = -1;
@@ -21,6 +37,8 @@ public class QuoteEditor extends IWAdminWindow {
 	private QuoteHolder _quote;
 
 	private final static String IW_BUNDLE_IDENTIFIER = "com.idega.block.quote";
+	private final static int LIST_PAGE_SIZE = 20;
+	private final static int LIST_TEXT_LENGTH = 60;
 	private IWResourceBundle _iwrb;
 
 	public QuoteEditor() {
@@ -62,6 +80,25 @@ public class QuoteEditor extends IWAdminWindow {
 		else if (mode.equalsIgnoreCase(QuoteBusiness.PARAMETER_SAVE)) {
 			saveQuote(iwc);
 		}
+		else if (mode.equalsIgnoreCase(QuoteBusiness.PARAMETER_LIST)) {
+			listQuotes(iwc);
+		}
+		else if (mode.equalsIgnoreCase(QuoteBusiness.PARAMETER_IMPORT) && iwc.isSuperAdmin()) {
+			if (iwc.isParameterSet(QuoteBusiness.PARAMETER_IMPORT_FILE)) {
+				importQuotes(iwc);
+			}
+			else {
+				processTransferForm(QuoteBusiness.PARAMETER_IMPORT);
+			}
+		}
+		else if (mode.equalsIgnoreCase(QuoteBusiness.PARAMETER_EXPORT) && iwc.isSuperAdmin()) {
+			if (iwc.isParameterSet(QuoteBusiness.PARAMETER_IMPORT_FILE)) {
+				exportQuotes(iwc);
+			}
+			else {
+				processTransferForm(QuoteBusiness.PARAMETER_EXPORT);
+			}
+		}
 	}
 
 	private void processForm() {
@@ -70,6 +107,8 @@ public class QuoteEditor extends IWAdminWindow {
 		TextInput quoteAuthor = new TextInput(QuoteBusiness.PARAMETER_QUOTE_AUTHOR);
 		quoteAuthor.setLength(24);
 		TextArea quoteText = new TextArea(QuoteBusiness.PARAMETER_QUOTE_TEXT, 40, 6);
+		TextInput quoteWeight = new TextInput(QuoteBusiness.PARAMETER_QUOTE_WEIGHT);
+		quoteWeight.setLength(4);
 
 		if (this._update && this._quote != null) {
 			if (this._quote.getOrigin() != null) {
@@ -81,11 +120,13 @@ public class QuoteEditor extends IWAdminWindow {
 			if (this._quote.getAuthor() != null) {
 				quoteAuthor.setContent(this._quote.getAuthor());
 			}
+			quoteWeight.setContent(Integer.toString(this._quote.getWeight()));
 		}
 
 		addLeft(this._iwrb.getLocalizedString("origin", "Origin") + ":", quoteOrigin, true);
 		addLeft(this._iwrb.getLocalizedString("quote", "Quote") + ":", quoteText, true);
 		addLeft(this._iwrb.getLocalizedString("author", "Author") + ":", quoteAuthor, true);
+		addLeft(this._iwrb.getLocalizedString("weight", "Weight") + ":", quoteWeight, true);
 		addHiddenInput(new HiddenInput(QuoteBusiness.PARAMETER_QUOTE_ID, Integer.toString(this._quoteID)));
 		addHiddenInput(new HiddenInput(QuoteBusiness.PARAMETER_OBJECT_INSTANCE_ID, Integer.toString(this._objectID)));
 
@@ -98,12 +139,230 @@ public class QuoteEditor extends IWAdminWindow {
 		String quoteText = iwc.getParameter(QuoteBusiness.PARAMETER_QUOTE_TEXT);
 		String quoteAuthor = iwc.getParameter(QuoteBusiness.PARAMETER_QUOTE_AUTHOR);
 
-		getQuoteBusiness().saveQuote(iwc, this._objectID, this._quoteID, this._iLocaleID, quoteOrigin, quoteText, quoteAuthor);
+		int quoteWeight = -1;
+		try {
+			quoteWeight = Math.max(Integer.parseInt(iwc.getParameter(QuoteBusiness.PARAMETER_QUOTE_WEIGHT).trim()), 0);
+		}
+		catch (Exception e) {
+			// Not given or not a number, keep the weight
+		}
+
+		getQuoteBusiness().saveQuote(iwc, this._objectID, this._quoteID, this._iLocaleID, quoteOrigin, quoteText, quoteAuthor, quoteWeight);
 
 		setParentToReload();
 		close();
 	}
 
+	/**
+	 * Lists one page of the quotes of the current locale with links to edit and delete them. Pages are fetched by key,
+	 * so only the quotes on the page are read.
+	 */
+	private void listQuotes(IWContext iwc) {
+		int afterID = -1;
+		try {
+			afterID = Integer.parseInt(iwc.getParameter(QuoteBusiness.PARAMETER_AFTER_ID));
+		}
+		catch (NumberFormatException e) {
+			afterID = -1;
+		}
+		String afterAuthor = iwc.getParameter(QuoteBusiness.PARAMETER_AFTER_AUTHOR);
+		boolean sortByAuthor = QuoteBusiness.SORT_AUTHOR.equals(iwc.getParameter(QuoteBusiness.PARAMETER_SORT));
+		String sort = sortByAuthor ? QuoteBusiness.SORT_AUTHOR : null;
+
+		List<QuoteHolder> quotes = getQuoteBusiness().getQuotes(this._iLocaleID, afterAuthor, afterID, LIST_PAGE_SIZE, sortByAuthor);
+		Table table = new Table(4, quotes.size() + 1);
+		table.setCellpadding(2);
+		table.setCellspacing(0);
+		table.add(this._iwrb.getLocalizedString("quote", "Quote"), 1, 1);
+		table.add(this._iwrb.getLocalizedString("author", "Author"), 2, 1);
+
+		int row = 2;
+		QuoteHolder last = null;
+		for (Iterator<QuoteHolder> iter = quotes.iterator(); iter.hasNext(); row++) {
+			QuoteHolder quote = iter.next();
+			String text = quote.getText() != null ? quote.getText() : "";
+			if (text.length() > LIST_TEXT_LENGTH) {
+				text = text.substring(0, LIST_TEXT_LENGTH) + "...";
+			}
+			table.add(text, 1, row);
+			table.add(quote.getAuthor() != null ? quote.getAuthor() : "", 2, row);
+			table.add(getListLink(quote, QuoteBusiness.PARAMETER_EDIT, this._iwrb.getLocalizedString("edit", "Edit")), 3, row);
+			table.add(getListLink(quote, QuoteBusiness.PARAMETER_DELETE, this._iwrb.getLocalizedString("delete", "Delete")), 4, row);
+			last = quote;
+		}
+		addLeft(table);
+
+		// Paging and sorting are links, so that the cursor of the next page is only sent by the next page link
+		Table sortLinks = new Table(2, 1);
+		sortLinks.add(getPageLink(this._iwrb.getLocalizedString("sort_by_id", "Newest last"), null, null), 1, 1);
+		sortLinks.add(getPageLink(this._iwrb.getLocalizedString("sort_by_author", "By author"), QuoteBusiness.SORT_AUTHOR, null), 2, 1);
+		addLeft(this._iwrb.getLocalizedString("sort", "Sort") + ":", sortLinks, true);
+
+		Table pageLinks = new Table(2, 1);
+		pageLinks.add(getPageLink(this._iwrb.getLocalizedString("first_page", "First"), sort, null), 1, 1);
+		if (quotes.size() == LIST_PAGE_SIZE) {
+			pageLinks.add(getPageLink(this._iwrb.getLocalizedString("next_page", "Next"), sort, last), 2, 1);
+		}
+		addLeft(pageLinks);
+
+		addSubmitButton(new CloseButton());
+	}
+
+	/**
+	 * @param after The last quote of the current page, or <code>null</code> for the first page. Its ID, and its author
+	 *        when sorting by author, are the cursor of the page after it.
+	 */
+	private Link getPageLink(String label, String sort, QuoteHolder after) {
+		Link link = new Link(label);
+		link.setWindowToOpen(QuoteEditor.class);
+		link.addParameter(QuoteBusiness.PARAMETER_MODE, QuoteBusiness.PARAMETER_LIST);
+		link.addParameter(QuoteBusiness.PARAMETER_OBJECT_INSTANCE_ID, this._objectID);
+		if (sort != null) {
+			link.addParameter(QuoteBusiness.PARAMETER_SORT, sort);
+		}
+		if (after != null) {
+			link.addParameter(QuoteBusiness.PARAMETER_AFTER_ID, after.getQuoteID());
+			if (sort != null && after.getAuthor() != null) {
+				link.addParameter(QuoteBusiness.PARAMETER_AFTER_AUTHOR, after.getAuthor());
+			}
+		}
+		return link;
+	}
+
+	private Link getListLink(QuoteHolder quote, String mode, String label) {
+		Link link = new Link(label);
+		link.setWindowToOpen(QuoteEditor.class);
+		link.addParameter(QuoteBusiness.PARAMETER_MODE, mode);
+		link.addParameter(QuoteBusiness.PARAMETER_QUOTE_ID, quote.getQuoteID());
+		link.addParameter(QuoteBusiness.PARAMETER_OBJECT_INSTANCE_ID, this._objectID);
+		return link;
+	}
+
+	private void processTransferForm(String mode) {
+		if (getQuoteBusiness().getTransferDirectory() == null) {
+			addLeft(new Text(this._iwrb.getLocalizedString("no_transfer_directory", "No directory for imports and exports has been configured")));
+			addSubmitButton(new CloseButton());
+			return;
+		}
+
+		if (mode.equals(QuoteBusiness.PARAMETER_IMPORT)) {
+			addImportStatus();
+			DropdownMenu file = new DropdownMenu(QuoteBusiness.PARAMETER_IMPORT_FILE);
+			String[] names = getQuoteBusiness().getTransferFileNames();
+			for (int i = 0; i < names.length; i++) {
+				file.addMenuElement(names[i], names[i]);
+			}
+			addLeft(this._iwrb.getLocalizedString("import_file", "File") + ":", file, true);
+		}
+		else {
+			TextInput file = new TextInput(QuoteBusiness.PARAMETER_IMPORT_FILE);
+			file.setLength(40);
+			addLeft(this._iwrb.getLocalizedString("export_file", "File name") + ":", file, true);
+		}
+		DropdownMenu format = new DropdownMenu(QuoteBusiness.PARAMETER_IMPORT_FORMAT);
+		format.addMenuElement(QuoteTransfer.FORMAT_CSV, "CSV");
+		format.addMenuElement(QuoteTransfer.FORMAT_JSON, "JSON");
+
+		addLeft(this._iwrb.getLocalizedString("import_format", "Format") + ":", format, true);
+		addHiddenInput(new HiddenInput(QuoteBusiness.PARAMETER_OBJECT_INSTANCE_ID, Integer.toString(this._objectID)));
+
+		addSubmitButton(new CloseButton());
+		addSubmitButton(new SubmitButton(this._iwrb.getLocalizedImageButton(mode, mode.toUpperCase()), QuoteBusiness.PARAMETER_MODE, mode));
+	}
+
+	/**
+	 * Starts the import of a file that has been placed in the transfer directory of the server, since collections of
+	 * this size are too large to upload through the admin window. Only files directly inside the directory can be
+	 * chosen. The import runs in the background; its progress is shown in the import form.
+	 */
+	private void importQuotes(IWContext iwc) {
+		File file = getQuoteBusiness().getTransferFile(iwc.getParameter(QuoteBusiness.PARAMETER_IMPORT_FILE));
+		String format = iwc.getParameter(QuoteBusiness.PARAMETER_IMPORT_FORMAT);
+
+		if (file == null || !file.isFile()) {
+			addLeft(new Text(this._iwrb.getLocalizedString("import_file_not_found", "The file was not found in the transfer directory")));
+		}
+		else if (getQuoteBusiness().startImport(file, format, this._iLocaleID) == null) {
+			addLeft(new Text(this._iwrb.getLocalizedString("import_running", "Another import is running")));
+		}
+		addImportStatus();
+		addSubmitButton(new CloseButton());
+	}
+
+	/**
+	 * Shows the progress of the last import started, with a link to show it again.
+	 */
+	private void addImportStatus() {
+		QuoteImportStatus status = getQuoteBusiness().getImportStatus();
+		if (status == null) {
+			return;
+		}
+		String state;
+		if (!status.isFinished()) {
+			state = this._iwrb.getLocalizedString("import_in_progress", "Importing");
+		}
+		else if (status.isFailed()) {
+			state = this._iwrb.getLocalizedString("import_failed", "Import failed");
+		}
+		else {
+			state = this._iwrb.getLocalizedString("import_done", "Quotes imported");
+			setParentToReload();
+		}
+		addLeft(new Text(status.getName() + ": " + state + ", " + status.getImported() + " " + this._iwrb.getLocalizedString("quotes", "quotes")));
+
+		if (!status.isFinished()) {
+			Link refresh = new Link(this._iwrb.getLocalizedString("refresh", "Refresh"));
+			refresh.setWindowToOpen(QuoteEditor.class);
+			refresh.addParameter(QuoteBusiness.PARAMETER_MODE, QuoteBusiness.PARAMETER_IMPORT);
+			refresh.addParameter(QuoteBusiness.PARAMETER_OBJECT_INSTANCE_ID, this._objectID);
+			addLeft(refresh);
+		}
+	}
+
+	/**
+	 * Exports the quotes of the current locale to a new file in the transfer directory of the server. Existing files
+	 * are not overwritten.
+	 */
+	private void exportQuotes(IWContext iwc) {
+		File file = getQuoteBusiness().getTransferFile(iwc.getParameter(QuoteBusiness.PARAMETER_IMPORT_FILE));
+		String format = iwc.getParameter(QuoteBusiness.PARAMETER_IMPORT_FORMAT);
+
+		String message;
+		OutputStream stream = null;
+		try {
+			if (file == null) {
+				message = this._iwrb.getLocalizedString("export_file_invalid", "Give a file name without a directory");
+			}
+			else {
+				file.getParentFile().mkdirs();
+				if (!file.createNewFile()) {
+					message = this._iwrb.getLocalizedString("export_file_exists", "A file with this name already exists");
+				}
+				else {
+					stream = new FileOutputStream(file);
+					long exported = getQuoteBusiness().exportQuotes(stream, format, new int[] { this._iLocaleID });
+					message = this._iwrb.getLocalizedString("export_done", "Quotes exported") + ": " + exported;
+				}
+			}
+		}
+		catch (Exception e) {
+			LOGGER.log(Level.WARNING, "Could not export quotes to " + file, e);
+			message = this._iwrb.getLocalizedString("export_failed", "Export failed");
+		}
+		finally {
+			if (stream != null) {
+				try {
+					stream.close();
+				}
+				catch (java.io.IOException e) {
+				}
+			}
+		}
+
+		addLeft(new Text(message));
+		addSubmitButton(new CloseButton());
+	}
+
 	private void deleteQuote(IWContext iwc) {
 		getQuoteBusiness().deleteQuote(iwc, this._objectID, this._quoteID, this._iLocaleID);
 		setParentToReload();
@@ -0,0 +1,140 @@
+package com.idega.block.quote.presentation;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.idega.block.quote.business.QuoteBusiness;
+import com.idega.block.quote.business.QuoteChangeListener;
+
+/**
+ * Cache of the rendered markup of quotes, keyed by quote, locale and the display flags of the {@link Quote} block.
+ * Fragments of a quote are dropped when the quote is saved or deleted. When the cache is full, fragments are evicted
+ * with the CLOCK (second chance) policy, as in the quote cache of the business layer: the hand sweeps over the
+ * fragments, clearing the referenced flag set by lookups, and evicts the first fragment not looked up since the hand
+ * last passed it.
+ */
+final class QuoteFragmentCache implements QuoteChangeListener {
+
+	public static final int DEFAULT_MAX_SIZE = 10000;
+
+	private static final QuoteFragmentCache instance = new QuoteFragmentCache(DEFAULT_MAX_SIZE);
+
+	private static final class Fragment {
+
+		final String markup;
+		volatile boolean referenced;
+
+		Fragment(String markup) {
+			this.markup = markup;
+		}
+	}
+
+	private final ConcurrentMap<Long, Fragment> fragments = new ConcurrentHashMap<Long, Fragment>();
+	private final int maxSize;
+	/**
+	 * The clock hand, guarded by the cache. The iterator of the map is weakly consistent, so fragments added or
+	 * removed meanwhile do not disturb the sweep.
+	 */
+	private Iterator<Map.Entry<Long, Fragment>> hand;
+	private long evictions;
+
+	QuoteFragmentCache(int maxSize) {
+		this.maxSize = Math.max(maxSize, 1);
+	}
+
+	static QuoteFragmentCache getInstance() {
+		return instance;
+	}
+
+	static {
+		QuoteBusiness.getQuoteBusinessInstace().addQuoteChangeListener(instance);
+	}
+
+	/**
+	 * The key holds the quote ID in the upper half and the locale ID and the three display flags in the lower half.
+	 */
+	static long getKey(int quoteID, int localeID, boolean showAuthor, boolean showOrigin, boolean showQuotes) {
+		int flags = (showAuthor ? 1 : 0) | (showOrigin ? 2 : 0) | (showQuotes ? 4 : 0);
+		return ((long) quoteID << 32) | (((localeID << 3) | flags) & 0xFFFFFFFFL);
+	}
+
+	String get(long key) {
+		Fragment fragment = this.fragments.get(new Long(key));
+		if (fragment == null) {
+			return null;
+		}
+		if (!fragment.referenced) {
+			fragment.referenced = true;
+		}
+		return fragment.markup;
+	}
+
+	void put(long key, String markup) {
+		Long k = new Long(key);
+		if (!this.fragments.containsKey(k)) {
+			while (this.fragments.size() >= this.maxSize && evict()) {
+			}
+		}
+		this.fragments.put(k, new Fragment(markup));
+	}
+
+	/**
+	 * @return <code>false</code> if there was nothing to evict.
+	 */
+	private synchronized boolean evict() {
+		if (this.fragments.size() < this.maxSize) {
+			return true;
+		}
+		// Two full sweeps clear every referenced flag, unless lookups keep setting them
+		for (int steps = 2 * this.fragments.size() + 1; steps > 0; steps--) {
+			if (this.hand == null || !this.hand.hasNext()) {
+				this.hand = this.fragments.entrySet().iterator();
+				if (!this.hand.hasNext()) {
+					return false;
+				}
+			}
+			Map.Entry<Long, Fragment> entry = this.hand.next();
+			Fragment fragment = entry.getValue();
+			if (fragment.referenced) {
+				fragment.referenced = false;
+			}
+			else if (this.fragments.remove(entry.getKey(), fragment)) {
+				this.evictions++;
+				return true;
+			}
+		}
+		// Every fragment was looked up again before the hand came back, evict the next one anyway
+		if (this.hand != null && this.hand.hasNext() && this.fragments.remove(this.hand.next().getKey()) != null) {
+			this.evictions++;
+			return true;
+		}
+		return false;
+	}
+
+	int getSize() {
+		return this.fragments.size();
+	}
+
+	synchronized long getEvictions() {
+		return this.evictions;
+	}
+
+	public void quoteChanged(int localeID, int quoteID) {
+		if (quoteID == -1) {
+			clear();
+			return;
+		}
+		for (Iterator<Long> iter = this.fragments.keySet().iterator(); iter.hasNext();) {
+			long key = iter.next().longValue();
+			if ((int) (key >>> 32) == quoteID) {
+				iter.remove();
+			}
+		}
+	}
+
+	void clear() {
+		this.fragments.clear();
+	}
+}
@@ -0,0 +1,118 @@
+package com.idega.block.quote.presentation;
+
+import com.idega.block.quote.business.QuoteHolder;
+import com.idega.block.quote.business.QuoteTransfer;
+import com.idega.presentation.text.Text;
+
+/**
+ * Renders the markup of a quote, the same markup the <code>quoteItem</code> layer of {@link Quote} produced when it
+ * was built from components, so that it can be cached as a string.
+ */
+final class QuoteRenderer {
+
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private QuoteRenderer() {
+	}
+
+	static String render(QuoteHolder quote, boolean showAuthor, boolean showOrigin, boolean showQuotes, String unknownAuthor, String noQuotes) {
+		StringBuffer buffer = new StringBuffer(256);
+		buffer.append("<div class=\"quoteItem\">");
+
+		if (quote != null) {
+			String originString = quote.getOrigin();
+			String textString = quote.getFormattedText();
+			if (textString == null) {
+				textString = "";
+			}
+			String authorString = quote.getAuthor();
+			if (authorString == null || authorString.length() == 0) {
+				authorString = unknownAuthor;
+			}
+
+			if (showOrigin && originString != null && originString.length() > 0) {
+				buffer.append("<div class=\"origin\">").append(originString).append(":</div>");
+			}
+
+			buffer.append("<div class=\"text\">");
+			if (showQuotes) {
+				buffer.append('"').append(textString).append('"');
+			}
+			else {
+				buffer.append(textString);
+			}
+			buffer.append("</div>");
+
+			if (showAuthor) {
+				buffer.append("<div class=\"author\">-").append(Text.getNonBrakingSpace().getText()).append(authorString).append("</div>");
+			}
+		}
+		else {
+			buffer.append(noQuotes);
+		}
+
+		buffer.append("</div>");
+		return buffer.toString();
+	}
+
+	/**
+	 * Renders the quote as a JSON object with the fields of the quote export and the formatted text, or
+	 * <code>null</code> if there is no quote. Characters that could close a script element are escaped, so that the
+	 * object can be embedded in a page as it is.
+	 */
+	static String renderJson(QuoteHolder quote) {
+		if (quote == null) {
+			return "null";
+		}
+
+		StringBuffer buffer = new StringBuffer(256);
+		buffer.append("{\"").append(QuoteTransfer.FIELD_ID).append("\":").append(quote.getQuoteID());
+		buffer.append(",\"").append(QuoteTransfer.FIELD_LOCALE_ID).append("\":").append(quote.getLocaleID());
+		appendJsonField(buffer, QuoteTransfer.FIELD_TEXT, quote.getText());
+		appendJsonField(buffer, QuoteTransfer.FIELD_AUTHOR, quote.getAuthor());
+		appendJsonField(buffer, QuoteTransfer.FIELD_ORIGIN, quote.getOrigin());
+		appendJsonField(buffer, "formatted_text", quote.getFormattedText());
+		buffer.append('}');
+		return buffer.toString();
+	}
+
+	private static void appendJsonField(StringBuffer buffer, String name, String value) {
+		buffer.append(",\"").append(name).append("\":");
+		if (value == null) {
+			buffer.append("null");
+			return;
+		}
+
+		buffer.append('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+				case '"':
+					buffer.append("\\\"");
+					break;
+				case '\\':
+					buffer.append("\\\\");
+					break;
+				case '\n':
+					buffer.append("\\n");
+					break;
+				case '\r':
+					buffer.append("\\r");
+					break;
+				case '\t':
+					buffer.append("\\t");
+					break;
+				default:
+					if (c < 0x20 || c == '<' || c == '>' || c == '&' || c == '\u2028' || c == '\u2029') {
+						buffer.append("\\u");
+						buffer.append(HEX[c >> 12]).append(HEX[(c >> 8) & 0xF]).append(HEX[(c >> 4) & 0xF]).append(HEX[c & 0xF]);
+					}
+					else {
+						buffer.append(c);
+					}
+					break;
+			}
+		}
+		buffer.append('"');
+	}
+}
@@ -0,0 +1,245 @@
+package com.idega.block.quote.presentation;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.idega.block.quote.business.QuoteBusiness;
+import com.idega.block.quote.business.QuoteHolder;
+import com.idega.block.quote.business.QuoteRotation;
+import com.idega.block.quote.business.QuoteTransfer;
+import com.idega.block.quote.stats.QuoteQueryTrace;
+import com.idega.core.component.data.ICObject;
+import com.idega.core.component.data.ICObjectInstance;
+import com.idega.core.component.data.ICObjectInstanceHome;
+import com.idega.core.localisation.business.ICLocaleBusiness;
+import com.idega.data.IDOLookup;
+import com.idega.idegaweb.IWBundle;
+import com.idega.idegaweb.IWMainApplication;
+import com.idega.idegaweb.IWResourceBundle;
+
+/**
+ * Serves the current quote of an object instance without rendering a page, for embedding in other sites and apps.
+ * The quote is the same one the {@link Quote} block with that instance shows:
+ * <pre>
+ * /quote?locale=is_IS&amp;qu_o_i_id=123&amp;format=json
+ * /quote?locale_id=1&amp;qu_o_i_id=123&amp;format=html&amp;show_origin=false
+ * </pre>
+ * Responses carry a strong ETag made from the quote ID and a hash of the body, and may be cached until the next
+ * rotation, so browsers and CDNs only come back after the rollover and are then answered with 304 Not Modified if
+ * the quote has not changed. Only object instances of {@link Quote} blocks are served, so that requests cannot fill
+ * the quote cache with made up instances. Map the servlet in <code>web.xml</code>:
+ * <pre>
+ * &lt;servlet&gt;
+ *   &lt;servlet-name&gt;QuoteServlet&lt;/servlet-name&gt;
+ *   &lt;servlet-class&gt;com.idega.block.quote.presentation.QuoteServlet&lt;/servlet-class&gt;
+ * &lt;/servlet&gt;
+ * &lt;servlet-mapping&gt;
+ *   &lt;servlet-name&gt;QuoteServlet&lt;/servlet-name&gt;
+ *   &lt;url-pattern&gt;/quote/*&lt;/url-pattern&gt;
+ * &lt;/servlet-mapping&gt;
+ * </pre>
+ */
+public class QuoteServlet extends HttpServlet {
+
+	private static final long serialVersionUID = 1L;
+
+	private final static String IW_BUNDLE_IDENTIFIER = "com.idega.block.quote";
+
+	public static final String PARAMETER_LOCALE = "locale";
+	public static final String PARAMETER_FORMAT = "format";
+	public static final String PARAMETER_SHOW_AUTHOR = "show_author";
+	public static final String PARAMETER_SHOW_ORIGIN = "show_origin";
+	public static final String PARAMETER_SHOW_QUOTES = "show_quotes";
+
+	public static final String FORMAT_JSON = QuoteTransfer.FORMAT_JSON;
+	public static final String FORMAT_HTML = "html";
+
+	private static final int MAX_CHECKED_INSTANCES = 10000;
+
+	/**
+	 * Whether each object instance asked for is a Quote block, so that an instance is only looked up once.
+	 */
+	private static final Map<Integer, Boolean> checkedInstances = new LinkedHashMap<Integer, Boolean>(16, 0.75f, true) {
+
+		private static final long serialVersionUID = 1L;
+
+		protected boolean removeEldestEntry(Map.Entry<Integer, Boolean> eldest) {
+			return size() > MAX_CHECKED_INSTANCES;
+		}
+	};
+
+	@Override
+	protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+		int localeID = getLocaleID(request);
+		if (localeID == -1) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Unknown locale");
+			return;
+		}
+		int objectID = getInt(request.getParameter(QuoteBusiness.PARAMETER_OBJECT_INSTANCE_ID), -1);
+		if (objectID != -1 && !isQuoteInstance(objectID)) {
+			response.sendError(HttpServletResponse.SC_NOT_FOUND, "Unknown object instance");
+			return;
+		}
+		String format = request.getParameter(PARAMETER_FORMAT);
+		boolean json = format == null || format.equals(FORMAT_JSON);
+		if (!json && !format.equals(FORMAT_HTML)) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Unknown format: " + format);
+			return;
+		}
+
+		QuoteBusiness business = QuoteBusiness.getQuoteBusinessInstace();
+		long now = System.currentTimeMillis();
+		QuoteHolder quote;
+		QuoteQueryTrace trace = QuoteQueryTrace.begin(request);
+		try {
+			// Keeps the rotation of the block, which the servlet does not know, when the quote expires
+			QuoteRotation rotation = business.getQuoteRotation(localeID, objectID);
+			quote = business.getRandomQuote(IWMainApplication.getDefaultIWApplicationContext(), localeID, objectID, false, null, rotation);
+		}
+		finally {
+			QuoteQueryTrace.end(trace);
+		}
+		long expires = business.getQuoteExpiry(localeID, objectID, now);
+
+		String body;
+		if (json) {
+			body = QuoteRenderer.renderJson(quote);
+		}
+		else {
+			boolean showAuthor = getBoolean(request.getParameter(PARAMETER_SHOW_AUTHOR), true);
+			boolean showOrigin = getBoolean(request.getParameter(PARAMETER_SHOW_ORIGIN), true);
+			boolean showQuotes = getBoolean(request.getParameter(PARAMETER_SHOW_QUOTES), true);
+			body = getFragment(quote, localeID, showAuthor, showOrigin, showQuotes);
+		}
+		String eTag = "\"" + (quote != null ? quote.getQuoteID() : -1) + "-" + Integer.toHexString(body.hashCode()) + "\"";
+
+		response.setHeader("ETag", eTag);
+		if (quote != null) {
+			response.setHeader("Cache-Control", "public, max-age=" + Math.max(0, (expires - now) / 1000));
+			response.setDateHeader("Expires", expires);
+		}
+		else {
+			// An empty locale may get quotes at any time
+			response.setHeader("Cache-Control", "no-cache");
+		}
+
+		if (matches(request.getHeader("If-None-Match"), eTag)) {
+			response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			return;
+		}
+
+		byte[] bytes = body.getBytes(QuoteTransfer.ENCODING);
+		response.setContentType((json ? "application/json" : "text/html") + "; charset=" + QuoteTransfer.ENCODING);
+		response.setContentLength(bytes.length);
+		OutputStream out = response.getOutputStream();
+		out.write(bytes);
+		out.flush();
+	}
+
+	/**
+	 * Returns the markup of the quote from the fragment cache shared with the {@link Quote} block.
+	 */
+	private String getFragment(QuoteHolder quote, int localeID, boolean showAuthor, boolean showOrigin, boolean showQuotes) {
+		QuoteFragmentCache fragmentCache = QuoteFragmentCache.getInstance();
+		long key = QuoteFragmentCache.getKey(quote != null ? quote.getQuoteID() : -1, localeID, showAuthor, showOrigin, showQuotes);
+		String fragment = fragmentCache.get(key);
+		if (fragment == null) {
+			String unknownAuthor = "Unknown";
+			String noQuotes = "No quotes in database...";
+			IWBundle bundle = IWMainApplication.getDefaultIWMainApplication().getBundle(IW_BUNDLE_IDENTIFIER);
+			Locale locale = ICLocaleBusiness.getLocale(localeID);
+			if (bundle != null && locale != null) {
+				IWResourceBundle iwrb = bundle.getResourceBundle(locale);
+				unknownAuthor = iwrb.getLocalizedString("unknown", unknownAuthor);
+				noQuotes = iwrb.getLocalizedString("no_quotes", noQuotes);
+			}
+			fragment = QuoteRenderer.render(quote, showAuthor, showOrigin, showQuotes, unknownAuthor, noQuotes);
+			fragmentCache.put(key, fragment);
+		}
+		return fragment;
+	}
+
+	/**
+	 * @return <code>true</code> if the object instance exists and is a {@link Quote} block.
+	 */
+	private boolean isQuoteInstance(int objectID) {
+		Integer key = new Integer(objectID);
+		synchronized (checkedInstances) {
+			Boolean checked = checkedInstances.get(key);
+			if (checked != null) {
+				return checked.booleanValue();
+			}
+		}
+
+		boolean isQuote = false;
+		try {
+			ICObjectInstanceHome home = (ICObjectInstanceHome) IDOLookup.getHome(ICObjectInstance.class);
+			ICObject object = home.findByPrimaryKey(key).getObject();
+			isQuote = object != null && Quote.class.getName().equals(object.getClassName());
+		}
+		catch (Exception e) {
+			// Not found, or not readable: not served
+		}
+		synchronized (checkedInstances) {
+			checkedInstances.put(key, Boolean.valueOf(isQuote));
+		}
+		return isQuote;
+	}
+
+	private int getLocaleID(HttpServletRequest request) {
+		String localeID = request.getParameter(QuoteBusiness.PARAMETER_LOCALE_ID);
+		if (localeID != null) {
+			return getInt(localeID, -1);
+		}
+		String localeString = request.getParameter(PARAMETER_LOCALE);
+		if (localeString != null) {
+			Locale locale = ICLocaleBusiness.getLocaleFromLocaleString(localeString);
+			return locale != null ? ICLocaleBusiness.getLocaleId(locale) : -1;
+		}
+		return -1;
+	}
+
+	/**
+	 * @return <code>true</code> if the If-None-Match header lists the entity tag or is <code>*</code>.
+	 */
+	static boolean matches(String ifNoneMatch, String eTag) {
+		if (ifNoneMatch == null) {
+			return false;
+		}
+		String[] tags = ifNoneMatch.split(",");
+		for (int i = 0; i < tags.length; i++) {
+			String tag = tags[i].trim();
+			if (tag.startsWith("W/")) {
+				tag = tag.substring(2);
+			}
+			if (tag.equals("*") || tag.equals(eTag)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static int getInt(String value, int defaultValue) {
+		if (value == null) {
+			return defaultValue;
+		}
+		try {
+			return Integer.parseInt(value.trim());
+		}
+		catch (NumberFormatException nfe) {
+			return defaultValue;
+		}
+	}
+
+	private static boolean getBoolean(String value, boolean defaultValue) {
+		return value != null ? Boolean.valueOf(value.trim()).booleanValue() : defaultValue;
+	}
+}
@@ -0,0 +1,33 @@
+package com.idega.block.quote.stats;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A counter backed by a {@link LongAdder}, which spreads concurrent increments over more cells as contention on it
+ * grows, so that counting on the serving threads stays cheap. Reading sums the cells.
+ */
+public class QuoteCounter {
+
+	private final String name;
+	private final LongAdder value = new LongAdder();
+
+	public QuoteCounter(String name) {
+		this.name = name;
+	}
+
+	public String getName() {
+		return this.name;
+	}
+
+	public void increment() {
+		this.value.increment();
+	}
+
+	public void add(long amount) {
+		this.value.add(amount);
+	}
+
+	public long get() {
+		return this.value.sum();
+	}
+}
@@ -0,0 +1,64 @@
+package com.idega.block.quote.stats;
+
+/**
+ * The counters and timers of quote serving, published over JMX by {@link QuoteStats}.
+ */
+public final class QuoteMetrics {
+
+	public static final QuoteTimer FIND_ALL_QUOTES_BY_LOCALE = new QuoteTimer("FindAllQuotesByLocale");
+	public static final QuoteTimer FIND_BY_PRIMARY_KEY = new QuoteTimer("FindByPrimaryKey");
+	public static final QuoteTimer FIND_QUOTES_BY_LOCALE = new QuoteTimer("FindQuotesByLocale");
+	public static final QuoteTimer FIND_QUOTE_BY_LOCALE_AND_ORDINAL = new QuoteTimer("FindQuoteByLocaleAndOrdinal");
+	public static final QuoteTimer FIND_QUOTES_WITH_OUTDATED_FORMAT = new QuoteTimer("FindQuotesWithOutdatedFormat");
+	public static final QuoteTimer GET_NUMBER_OF_QUOTES = new QuoteTimer("GetNumberOfQuotes");
+	public static final QuoteTimer GET_NUMBER_OF_QUOTES_BY_LOCALE = new QuoteTimer("GetNumberOfQuotesByLocale");
+	public static final QuoteTimer GET_MAX_QUOTE_IDS_BY_LOCALE = new QuoteTimer("GetMaxQuoteIDsByLocale");
+	public static final QuoteTimer GET_NEXT_ORDINAL = new QuoteTimer("GetNextOrdinal");
+	public static final QuoteTimer SCAN_QUOTES_BY_LOCALE = new QuoteTimer("ScanQuotesByLocale");
+	public static final QuoteTimer SCAN_QUOTES_BY_LOCALE_AND_ORDINALS = new QuoteTimer("ScanQuotesByLocaleAndOrdinals");
+	public static final QuoteTimer SCAN_QUOTES_BY_IDS = new QuoteTimer("ScanQuotesByIDs");
+	public static final QuoteTimer SCAN_QUOTE_PAGE_BY_LOCALE = new QuoteTimer("ScanQuotePageByLocale");
+	public static final QuoteTimer ASSIGN_ORDINALS = new QuoteTimer("AssignOrdinals");
+	public static final QuoteTimer ADD_ORDINAL_CONSTRAINT = new QuoteTimer("AddOrdinalConstraint");
+	public static final QuoteTimer SAVE_QUOTE = new QuoteTimer("SaveQuote");
+	public static final QuoteTimer DELETE_QUOTE = new QuoteTimer("DeleteQuote");
+	public static final QuoteTimer RENDER = new QuoteTimer("Render");
+
+	/**
+	 * The timers of database calls, their counts add up to the total number of database calls.
+	 */
+	static final QuoteTimer[] DATABASE_TIMERS = { FIND_ALL_QUOTES_BY_LOCALE, FIND_BY_PRIMARY_KEY, FIND_QUOTES_BY_LOCALE, FIND_QUOTE_BY_LOCALE_AND_ORDINAL, FIND_QUOTES_WITH_OUTDATED_FORMAT, GET_NUMBER_OF_QUOTES, GET_NUMBER_OF_QUOTES_BY_LOCALE, GET_MAX_QUOTE_IDS_BY_LOCALE, GET_NEXT_ORDINAL, SCAN_QUOTES_BY_LOCALE, SCAN_QUOTES_BY_LOCALE_AND_ORDINALS, SCAN_QUOTES_BY_IDS, SCAN_QUOTE_PAGE_BY_LOCALE, ASSIGN_ORDINALS, ADD_ORDINAL_CONSTRAINT };
+	static final QuoteTimer[] TIMERS = { FIND_ALL_QUOTES_BY_LOCALE, FIND_BY_PRIMARY_KEY, FIND_QUOTES_BY_LOCALE, FIND_QUOTE_BY_LOCALE_AND_ORDINAL, FIND_QUOTES_WITH_OUTDATED_FORMAT, GET_NUMBER_OF_QUOTES, GET_NUMBER_OF_QUOTES_BY_LOCALE, GET_MAX_QUOTE_IDS_BY_LOCALE, GET_NEXT_ORDINAL, SCAN_QUOTES_BY_LOCALE, SCAN_QUOTES_BY_LOCALE_AND_ORDINALS, SCAN_QUOTES_BY_IDS, SCAN_QUOTE_PAGE_BY_LOCALE, ASSIGN_ORDINALS, ADD_ORDINAL_CONSTRAINT, SAVE_QUOTE, DELETE_QUOTE, RENDER };
+
+	/**
+	 * Quotes assigned to an object instance, i.e. steps taken in the shuffle bags.
+	 */
+	public static final QuoteCounter ROTATIONS = new QuoteCounter("Rotations");
+	/**
+	 * Random picks that missed on the ordinal column and renumbered the locale.
+	 */
+	public static final QuoteCounter ORDINAL_REPAIRS = new QuoteCounter("OrdinalRepairs");
+	/**
+	 * New quotes stored again with the next ordinal after a concurrent insert took theirs.
+	 */
+	public static final QuoteCounter ORDINAL_CONFLICTS = new QuoteCounter("OrdinalConflicts");
+	/**
+	 * Requests answered with the previous quote while another thread refreshed it.
+	 */
+	public static final QuoteCounter STALE_QUOTES_SERVED = new QuoteCounter("StaleQuotesServed");
+	/**
+	 * Quotes computed ahead of their rollover by the rotation scheduler.
+	 */
+	public static final QuoteCounter PRE_ROTATIONS = new QuoteCounter("PreRotations");
+	public static final QuoteCounter FRAGMENT_CACHE_HITS = new QuoteCounter("FragmentCacheHits");
+	public static final QuoteCounter FRAGMENT_CACHE_MISSES = new QuoteCounter("FragmentCacheMisses");
+	/**
+	 * Database calls over the thresholds of {@link QuoteQueryTrace}, logged or not. Only counted while tracing is on.
+	 */
+	public static final QuoteCounter SLOW_QUERIES = new QuoteCounter("SlowQueries");
+
+	static final QuoteCounter[] COUNTERS = { ROTATIONS, ORDINAL_REPAIRS, ORDINAL_CONFLICTS, STALE_QUOTES_SERVED, PRE_ROTATIONS, FRAGMENT_CACHE_HITS, FRAGMENT_CACHE_MISSES, SLOW_QUERIES };
+
+	private QuoteMetrics() {
+	}
+}
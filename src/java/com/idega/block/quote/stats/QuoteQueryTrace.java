@@ -0,0 +1,218 @@
+package com.idega.block.quote.stats;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Counts the SQL statements and rows of quote data access per request and logs slow queries. The entity bean reports
+ * the statements it executes and the rows it reads with {@link #statement()} and {@link #rows(long)}, and the home
+ * closes every call with {@link #query(QuoteTimer, long)}. That adds the call to the trace of the request the thread
+ * is serving, see {@link #begin(HttpServletRequest)}, and logs it to <code>System.err</code> if it took at least the
+ * slow query threshold or read at least the row threshold. Only one in every <code>sampleRate</code> slow queries is
+ * logged; all of them are counted by {@link QuoteMetrics#SLOW_QUERIES}.
+ * <p>
+ * The trace of a request is kept in the request attribute {@link #REQUEST_ATTRIBUTE}. Its <code>toString()</code>
+ * gives the totals in one line, e.g. for the access log pattern
+ * <code>%{com.idega.block.quote.stats.QuoteQueryTrace}r</code>.
+ * <p>
+ * Tracing is off by default. While it is off every hook returns after reading a volatile flag.
+ */
+public class QuoteQueryTrace {
+
+	public static final String REQUEST_ATTRIBUTE = QuoteQueryTrace.class.getName();
+
+	/**
+	 * The bundle property turning tracing on, <code>true</code> or <code>false</code>.
+	 */
+	public static final String PROPERTY_ENABLED = "query_trace";
+	/**
+	 * The bundle property holding the slow query threshold in milliseconds.
+	 */
+	public static final String PROPERTY_SLOW_QUERY_MILLIS = "slow_query_millis";
+	/**
+	 * The bundle property holding the number of rows from which a query counts as slow.
+	 */
+	public static final String PROPERTY_SLOW_QUERY_ROWS = "slow_query_rows";
+	/**
+	 * The bundle property holding how many slow queries there are for every one logged.
+	 */
+	public static final String PROPERTY_SLOW_QUERY_SAMPLE_RATE = "slow_query_sample_rate";
+
+	public static final long DEFAULT_SLOW_QUERY_MILLIS = 100;
+	public static final long DEFAULT_SLOW_QUERY_ROWS = 10000;
+	public static final int DEFAULT_SLOW_QUERY_SAMPLE_RATE = 1;
+
+	private static volatile boolean enabled = false;
+	private static volatile long slowQueryNanos = DEFAULT_SLOW_QUERY_MILLIS * 1000000;
+	private static volatile long slowQueryRows = DEFAULT_SLOW_QUERY_ROWS;
+	private static volatile int sampleRate = DEFAULT_SLOW_QUERY_SAMPLE_RATE;
+	private static final AtomicLong slowQueries = new AtomicLong();
+
+	private static final ThreadLocal<Call> calls = new ThreadLocal<Call>() {
+
+		protected Call initialValue() {
+			return new Call();
+		}
+	};
+
+	/**
+	 * The statements and rows of the database call a thread is in, and the trace of the request it is serving.
+	 */
+	private static final class Call {
+
+		int statements = 0;
+		long rows = 0;
+		QuoteQueryTrace trace;
+	}
+
+	private final String name;
+	private int queries = 0;
+	private int statements = 0;
+	private long rows = 0;
+	private long nanos = 0;
+	private String slowestQuery;
+	private long slowestNanos = 0;
+
+	QuoteQueryTrace(String name) {
+		this.name = name;
+	}
+
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	public static void setEnabled(boolean enable) {
+		enabled = enable;
+	}
+
+	public static void setSlowQueryThreshold(long millis) {
+		slowQueryNanos = millis * 1000000;
+	}
+
+	public static void setSlowQueryRows(long rows) {
+		slowQueryRows = rows;
+	}
+
+	/**
+	 * @param rate Log one in every <code>rate</code> slow queries, at least 1.
+	 */
+	public static void setSampleRate(int rate) {
+		sampleRate = Math.max(rate, 1);
+	}
+
+	/**
+	 * Binds the trace of the request to the current thread, creating it on first use, so that the calls made until
+	 * {@link #end(QuoteQueryTrace)} add up in it.
+	 *
+	 * @return The trace to pass to {@link #end(QuoteQueryTrace)}, or null if tracing is off.
+	 */
+	public static QuoteQueryTrace begin(HttpServletRequest request) {
+		if (!enabled) {
+			return null;
+		}
+		QuoteQueryTrace trace = (QuoteQueryTrace) request.getAttribute(REQUEST_ATTRIBUTE);
+		if (trace == null) {
+			trace = new QuoteQueryTrace(request.getRequestURI());
+			request.setAttribute(REQUEST_ATTRIBUTE, trace);
+		}
+		calls.get().trace = trace;
+		return trace;
+	}
+
+	public static void end(QuoteQueryTrace trace) {
+		if (trace != null) {
+			calls.get().trace = null;
+		}
+	}
+
+	/**
+	 * Counts a statement executed in the current database call.
+	 */
+	public static void statement() {
+		if (!enabled) {
+			return;
+		}
+		calls.get().statements++;
+	}
+
+	/**
+	 * Counts rows read in the current database call.
+	 */
+	public static void rows(long count) {
+		if (!enabled) {
+			return;
+		}
+		calls.get().rows += count;
+	}
+
+	/**
+	 * Ends a database call, adding its statements and rows to the trace of the request and logging it if it is slow.
+	 *
+	 * @param timer The timer of the call, naming it.
+	 * @param start The start of the call, as returned by {@link QuoteTimer#start()}.
+	 */
+	public static void query(QuoteTimer timer, long start) {
+		if (!enabled) {
+			return;
+		}
+		long duration = System.nanoTime() - start;
+		Call call = calls.get();
+		int statements = call.statements;
+		long rows = call.rows;
+		call.statements = 0;
+		call.rows = 0;
+
+		if (call.trace != null) {
+			call.trace.add(timer.getName(), statements, rows, duration);
+		}
+		if (duration >= slowQueryNanos || rows >= slowQueryRows) {
+			QuoteMetrics.SLOW_QUERIES.increment();
+			if (slowQueries.getAndIncrement() % sampleRate == 0) {
+				System.err.println("[QuoteQueryTrace] Slow query " + timer.getName() + ": " + toMillis(duration) + " ms, " + statements + " statements, " + rows + " rows" + (call.trace != null ? ", request " + call.trace.name : "") + ", thread " + Thread.currentThread().getName());
+			}
+		}
+	}
+
+	private synchronized void add(String query, int statements, long rows, long duration) {
+		this.queries++;
+		this.statements += statements;
+		this.rows += rows;
+		this.nanos += duration;
+		if (duration > this.slowestNanos) {
+			this.slowestNanos = duration;
+			this.slowestQuery = query;
+		}
+	}
+
+	public synchronized int getQueries() {
+		return this.queries;
+	}
+
+	public synchronized int getStatements() {
+		return this.statements;
+	}
+
+	public synchronized long getRows() {
+		return this.rows;
+	}
+
+	/**
+	 * @return The time spent in quote data access, in milliseconds.
+	 */
+	public synchronized double getMillis() {
+		return toMillis(this.nanos);
+	}
+
+	private static double toMillis(long nanos) {
+		return Math.round(nanos / 1000d) / 1000d;
+	}
+
+	/**
+	 * @return The totals of the request in one line.
+	 */
+	@Override
+	public synchronized String toString() {
+		return "quote sql: " + this.queries + " queries, " + this.statements + " statements, " + this.rows + " rows, " + toMillis(this.nanos) + " ms" + (this.slowestQuery != null ? ", slowest " + this.slowestQuery + " " + toMillis(this.slowestNanos) + " ms" : "");
+	}
+}
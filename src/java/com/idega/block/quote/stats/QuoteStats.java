@@ -0,0 +1,149 @@
+package com.idega.block.quote.stats;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+import com.idega.block.quote.business.QuoteBusiness;
+
+/**
+ * Read-only MBean publishing {@link QuoteMetrics} and the quote cache counts of {@link QuoteBusiness}. Every timer
+ * shows up as <code>&lt;Name&gt;Calls</code>, <code>&lt;Name&gt;MeanMicros</code>, <code>&lt;Name&gt;P50Micros</code>,
+ * <code>&lt;Name&gt;P99Micros</code> and <code>&lt;Name&gt;P999Micros</code>.
+ */
+public class QuoteStats implements DynamicMBean {
+
+	public static final String OBJECT_NAME = "com.idega.block.quote:type=QuoteStats";
+
+	private final QuoteBusiness business;
+	private final Map<String, String> descriptions = new LinkedHashMap<String, String>();
+
+	public QuoteStats(QuoteBusiness business) {
+		this.business = business;
+
+		this.descriptions.put("CacheHits", "Quote of the day cache hits");
+		this.descriptions.put("CacheMisses", "Quote of the day cache misses");
+		this.descriptions.put("DatabaseCalls", "Calls to the quote finders");
+		for (int i = 0; i < QuoteMetrics.COUNTERS.length; i++) {
+			this.descriptions.put(QuoteMetrics.COUNTERS[i].getName(), QuoteMetrics.COUNTERS[i].getName());
+		}
+		for (int i = 0; i < QuoteMetrics.TIMERS.length; i++) {
+			String name = QuoteMetrics.TIMERS[i].getName();
+			this.descriptions.put(name + "Calls", name + " calls");
+			this.descriptions.put(name + "MeanMicros", name + " mean latency in microseconds");
+			this.descriptions.put(name + "P50Micros", name + " median latency in microseconds");
+			this.descriptions.put(name + "P99Micros", name + " 99th percentile latency in microseconds");
+			this.descriptions.put(name + "P999Micros", name + " 99.9th percentile latency in microseconds");
+		}
+	}
+
+	public ObjectName register() throws JMException {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name = new ObjectName(OBJECT_NAME);
+		if (server.isRegistered(name)) {
+			server.unregisterMBean(name);
+		}
+		server.registerMBean(this, name);
+		return name;
+	}
+
+	public static void unregister() throws JMException {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name = new ObjectName(OBJECT_NAME);
+		if (server.isRegistered(name)) {
+			server.unregisterMBean(name);
+		}
+	}
+
+	public Object getAttribute(String attribute) throws AttributeNotFoundException {
+		if (attribute.equals("CacheHits")) {
+			return new Long(this.business.getQuoteCacheHits());
+		}
+		if (attribute.equals("CacheMisses")) {
+			return new Long(this.business.getQuoteCacheMisses());
+		}
+		if (attribute.equals("DatabaseCalls")) {
+			long calls = 0;
+			for (int i = 0; i < QuoteMetrics.DATABASE_TIMERS.length; i++) {
+				calls += QuoteMetrics.DATABASE_TIMERS[i].getCount();
+			}
+			return new Long(calls);
+		}
+		for (int i = 0; i < QuoteMetrics.COUNTERS.length; i++) {
+			if (attribute.equals(QuoteMetrics.COUNTERS[i].getName())) {
+				return new Long(QuoteMetrics.COUNTERS[i].get());
+			}
+		}
+		for (int i = 0; i < QuoteMetrics.TIMERS.length; i++) {
+			QuoteTimer timer = QuoteMetrics.TIMERS[i];
+			if (attribute.startsWith(timer.getName())) {
+				String suffix = attribute.substring(timer.getName().length());
+				if (suffix.equals("Calls")) {
+					return new Long(timer.getCount());
+				}
+				if (suffix.equals("MeanMicros")) {
+					return new Double(timer.getMean());
+				}
+				if (suffix.equals("P50Micros")) {
+					return new Double(timer.getPercentile(0.5));
+				}
+				if (suffix.equals("P99Micros")) {
+					return new Double(timer.getPercentile(0.99));
+				}
+				if (suffix.equals("P999Micros")) {
+					return new Double(timer.getPercentile(0.999));
+				}
+			}
+		}
+		throw new AttributeNotFoundException(attribute);
+	}
+
+	public AttributeList getAttributes(String[] attributes) {
+		AttributeList list = new AttributeList();
+		for (int i = 0; i < attributes.length; i++) {
+			try {
+				list.add(new Attribute(attributes[i], getAttribute(attributes[i])));
+			}
+			catch (AttributeNotFoundException e) {
+			}
+		}
+		return list;
+	}
+
+	public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+		throw new AttributeNotFoundException("Attribute is read-only: " + attribute.getName());
+	}
+
+	public AttributeList setAttributes(AttributeList attributes) {
+		return new AttributeList();
+	}
+
+	public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+		throw new ReflectionException(new NoSuchMethodException(actionName), "The quote statistics have no operations: " + actionName);
+	}
+
+	public MBeanInfo getMBeanInfo() {
+		List<MBeanAttributeInfo> attributes = new ArrayList<MBeanAttributeInfo>();
+		for (Iterator<Map.Entry<String, String>> iter = this.descriptions.entrySet().iterator(); iter.hasNext();) {
+			Map.Entry<String, String> entry = iter.next();
+			String type = entry.getKey().endsWith("Micros") ? Double.class.getName() : Long.class.getName();
+			attributes.add(new MBeanAttributeInfo(entry.getKey(), type, entry.getValue(), true, false, false));
+		}
+		return new MBeanInfo(getClass().getName(), "Quote serving statistics", attributes.toArray(new MBeanAttributeInfo[attributes.size()]), null, new MBeanOperationInfo[0], null);
+	}
+}
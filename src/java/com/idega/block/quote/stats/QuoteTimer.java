@@ -0,0 +1,98 @@
+package com.idega.block.quote.stats;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts calls and records their latency in a histogram with power of two buckets (in nanoseconds). Like
+ * {@link QuoteCounter} each bucket is a {@link LongAdder}, so concurrent recording spreads over cells instead of
+ * contending on one value. Percentiles are estimated as the upper bound of the bucket they fall in.
+ */
+public class QuoteTimer {
+
+	private static final int BUCKETS = 64;
+
+	private final String name;
+	private final LongAdder[] buckets = new LongAdder[BUCKETS];
+	private final LongAdder sum = new LongAdder();
+
+	public QuoteTimer(String name) {
+		this.name = name;
+		for (int i = 0; i < BUCKETS; i++) {
+			this.buckets[i] = new LongAdder();
+		}
+	}
+
+	public String getName() {
+		return this.name;
+	}
+
+	/**
+	 * @return The current time to pass to {@link #stop(long)}.
+	 */
+	public long start() {
+		return System.nanoTime();
+	}
+
+	public void stop(long start) {
+		record(System.nanoTime() - start);
+	}
+
+	public void record(long nanos) {
+		long value = Math.max(nanos, 1);
+		this.buckets[63 - Long.numberOfLeadingZeros(value)].increment();
+		this.sum.add(value);
+	}
+
+	public long getCount() {
+		long count = 0;
+		long[] buckets = getBuckets();
+		for (int i = 0; i < BUCKETS; i++) {
+			count += buckets[i];
+		}
+		return count;
+	}
+
+	/**
+	 * @return The mean latency in microseconds.
+	 */
+	public double getMean() {
+		long count = getCount();
+		if (count == 0) {
+			return 0;
+		}
+		return this.sum.sum() / 1000d / count;
+	}
+
+	/**
+	 * @param percentile Between 0 and 1, e.g. 0.99.
+	 * @return The estimated latency at the percentile in microseconds.
+	 */
+	public double getPercentile(double percentile) {
+		long[] buckets = getBuckets();
+		long count = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			count += buckets[i];
+		}
+		if (count == 0) {
+			return 0;
+		}
+
+		long rank = (long) Math.ceil(percentile * count);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += buckets[i];
+			if (seen >= rank) {
+				return (i < 62 ? (1L << (i + 1)) : Long.MAX_VALUE) / 1000d;
+			}
+		}
+		return Long.MAX_VALUE / 1000d;
+	}
+
+	private long[] getBuckets() {
+		long[] buckets = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++) {
+			buckets[i] = this.buckets[i].sum();
+		}
+		return buckets;
+	}
+}
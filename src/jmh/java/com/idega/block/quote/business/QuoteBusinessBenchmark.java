@@ -0,0 +1,78 @@
+package com.idega.block.quote.business;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.idega.block.quote.data.QuoteEntity;
+import com.idega.block.quote.data.QuoteEntityHome;
+
+/**
+ * Benchmarks the quote selection paths of {@link QuoteBusiness} over an in-memory {@link FakeQuoteEntityHome}.
+ * Locales above {@link QuoteBusiness#DEFAULT_MAX_RESIDENT_QUOTES} are served through the ordinal finder, the others
+ * from the resident catalog. With <code>weighted</code> set, resident picks go through the alias sampler instead of the
+ * shuffle bag.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class QuoteBusinessBenchmark {
+
+	private static final int LOCALE_ID = 1;
+	private static final int CACHED_OBJECT_ID = 1;
+	private static final int UNCACHED_OBJECT_ID = 2;
+
+	@Param({ "1", "2", "1000", "100000" })
+	public int quotes;
+
+	@Param({ "false", "true" })
+	public boolean weighted;
+
+	private QuoteBusiness business;
+	private QuoteEntity entity;
+
+	@Setup
+	public void setUp() throws Exception {
+		FakeQuoteEntityHome fake = new FakeQuoteEntityHome();
+		fake.addQuotes(LOCALE_ID, this.quotes, this.weighted);
+		QuoteEntityHome home = FakeQuoteEntityHome.create(fake);
+
+		this.business = new QuoteBusiness(home);
+		this.entity = home.findByPrimaryKey(new Integer(1));
+		this.business.getRandomQuote(null, LOCALE_ID, CACHED_OBJECT_ID, false);
+	}
+
+	@Benchmark
+	public QuoteHolder cacheHit() {
+		return this.business.getRandomQuote(null, LOCALE_ID, CACHED_OBJECT_ID, false);
+	}
+
+	@Benchmark
+	public QuoteHolder cacheMiss() {
+		this.business.removeCachedQuote(LOCALE_ID, UNCACHED_OBJECT_ID);
+		return this.business.getRandomQuote(null, LOCALE_ID, UNCACHED_OBJECT_ID, false);
+	}
+
+	@Benchmark
+	public QuoteHolder randomQuoteHolder() {
+		return this.business.getRandomQuoteHolder(LOCALE_ID);
+	}
+
+	@Benchmark
+	public QuoteHolder quoteHolderFromEntity() {
+		return this.business.getQuoteHolder(this.entity);
+	}
+}
@@ -0,0 +1,105 @@
+package com.idega.block.quote.business;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the resident quotes of a locale kept as one {@link QuoteHolder} per quote with {@link QuoteColumns}. The
+ * setup prints the heap taken by each layout, measured around building it; the benchmark reads a random quote the way
+ * a block renders it. The holders get their own strings per field, as records read from JDBC do.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = "-Xmx4g")
+@State(Scope.Benchmark)
+public class QuoteColumnsBenchmark {
+
+	private static final int LOCALE_ID = 1;
+
+	@Param({ "1000000" })
+	public int quotes;
+
+	@Param({ "holders", "columns", "offheap" })
+	public String layout;
+
+	private QuoteHolder[] holders;
+	private QuoteColumns columns;
+	private final Random random = new Random(17);
+
+	@Setup
+	public void setUp() {
+		long before = getUsedHeap();
+		if (this.layout.equals("holders")) {
+			this.holders = createHolders(this.quotes);
+		}
+		else {
+			QuoteColumns.Builder builder = new QuoteColumns.Builder(LOCALE_ID, this.quotes, this.layout.equals("offheap"));
+			for (int i = 0; i < this.quotes; i++) {
+				builder.add(createHolder(i));
+			}
+			this.columns = builder.build();
+		}
+		long used = getUsedHeap() - before;
+		if (this.columns != null && this.columns.isOffHeap()) {
+			used += this.columns.getArenaSize();
+		}
+		System.out.println();
+		System.out.println(this.layout + ": " + used / (1024 * 1024) + " MB, " + used / this.quotes + " bytes per quote");
+	}
+
+	@Benchmark
+	public int read() {
+		QuoteHolder quote;
+		if (this.holders != null) {
+			quote = this.holders[this.random.nextInt(this.holders.length)];
+		}
+		else {
+			quote = this.columns.get(this.random.nextInt(this.columns.size()));
+		}
+		return quote.getFormattedText().length() + quote.getAuthor().length() + quote.getOrigin().length();
+	}
+
+	static QuoteHolder[] createHolders(int count) {
+		QuoteHolder[] holders = new QuoteHolder[count];
+		for (int i = 0; i < count; i++) {
+			holders[i] = createHolder(i);
+		}
+		return holders;
+	}
+
+	static QuoteHolder createHolder(int i) {
+		String text = "Quote number " + i + " of locale " + LOCALE_ID + ", long enough to look like a real quote.";
+		QuoteHolder holder = new QuoteHolder();
+		holder.setQuoteID(i + 1);
+		holder.setLocaleID(LOCALE_ID);
+		holder.setText(text);
+		holder.setFormattedText(new String(text));
+		holder.setAuthor("Author " + (i % 500));
+		holder.setOrigin("Origin " + (i % 50));
+		return holder;
+	}
+
+	static long getUsedHeap() {
+		MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+		for (int i = 0; i < 5; i++) {
+			System.gc();
+		}
+		return memory.getHeapMemoryUsage().getUsed();
+	}
+}
@@ -0,0 +1,56 @@
+package com.idega.block.quote.business;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks keyword queries against the search index of one locale. The generated quotes share most of their words,
+ * so <code>quote</code> matches every quote, <code>author:author author:7</code> one in 500 and a number a handful.
+ */
+@BenchmarkMode({ Mode.AverageTime, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = "-Xmx4g")
+@State(Scope.Benchmark)
+public class QuoteSearchBenchmark {
+
+	private static final int LOCALE_ID = 1;
+
+	@Param({ "10000", "1000000" })
+	public int quotes;
+
+	@Param({ "quote", "author:author author:7", "12345 locale", "nothing" })
+	public String query;
+
+	private QuoteBusiness business;
+
+	@Setup
+	public void setUp() {
+		FakeQuoteEntityHome fake = new FakeQuoteEntityHome();
+		fake.addQuotes(LOCALE_ID, this.quotes);
+		this.business = new QuoteBusiness(FakeQuoteEntityHome.create(fake));
+		this.business.getNumberOfMatchingQuotes(LOCALE_ID, "quote");
+	}
+
+	@Benchmark
+	public int count() {
+		return this.business.getNumberOfMatchingQuotes(LOCALE_ID, this.query);
+	}
+
+	@Benchmark
+	public QuoteHolder randomMatch() {
+		return this.business.getRandomQuoteHolder(LOCALE_ID, this.query);
+	}
+}
@@ -0,0 +1,52 @@
+package com.idega.block.quote.presentation;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.idega.block.quote.business.FakeQuoteEntityHome;
+import com.idega.block.quote.business.QuoteBusiness;
+import com.idega.block.quote.business.QuoteHolder;
+
+/**
+ * Benchmarks the work behind <code>Quote.getQuoteLayer</code>: rendering the quote markup on a fragment cache miss,
+ * and the lookup done on a hit.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class QuoteRenderBenchmark {
+
+	private QuoteHolder quote;
+	private long key;
+
+	@Setup
+	public void setUp() {
+		FakeQuoteEntityHome fake = new FakeQuoteEntityHome();
+		this.quote = QuoteBusiness.getQuoteBusinessInstace().getQuoteHolder(fake.addQuote(1, "Whatever you are, be a good one.", "Abraham Lincoln", "Speeches"));
+		this.key = QuoteFragmentCache.getKey(this.quote.getQuoteID(), 1, true, true, true);
+		QuoteFragmentCache.getInstance().put(this.key, render());
+	}
+
+	@Benchmark
+	public String render() {
+		return QuoteRenderer.render(this.quote, true, true, true, "Unknown", "No quotes in database...");
+	}
+
+	@Benchmark
+	public String cachedFragment() {
+		return QuoteFragmentCache.getInstance().get(this.key);
+	}
+}
@@ -0,0 +1,180 @@
+package com.idega.block.quote.business;
+
+import static org.junit.Assert.assertEquals;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Polls the event table of {@link QuoteDatabaseTransport} in an in-memory H2 database. Runs with the loadtest
+ * profile, which has H2 on the classpath.
+ */
+public class QuoteDatabaseTransportTest {
+
+	private static int databases = 0;
+
+	private String url;
+	private Connection connection;
+	private QuoteDatabaseTransport publisher;
+	private QuoteDatabaseTransport receiver;
+	private RecordingChannel publishingChannel;
+	private RecordingChannel receivingChannel;
+
+	@Before
+	public void startTransports() throws SQLException {
+		this.url = "jdbc:h2:mem:quote_events_" + (databases++);
+		// Keeps the in-memory database open between the connections of the transports
+		this.connection = DriverManager.getConnection(this.url);
+
+		this.publisher = new H2Transport(this.url);
+		this.receiver = new H2Transport(this.url);
+		this.publishingChannel = new RecordingChannel(this.publisher);
+		this.receivingChannel = new RecordingChannel(this.receiver);
+		this.publisher.start(this.publishingChannel);
+		this.receiver.start(this.receivingChannel);
+	}
+
+	@After
+	public void stopTransports() throws SQLException {
+		this.publisher.stop();
+		this.receiver.stop();
+		this.connection.close();
+	}
+
+	@Test
+	public void deliversEventsOfOtherNodesOnce() throws SQLException {
+		this.publisher.publish(this.publishingChannel.getNodeID(), 1, 10);
+		this.publisher.publish(this.publishingChannel.getNodeID(), 1, 11);
+		this.receiver.poll();
+		assertEquals("[10, 11]", this.receivingChannel.getQuoteIDs());
+
+		// The events are read again within the overlap, but not delivered again
+		this.receiver.poll();
+		assertEquals("[10, 11]", this.receivingChannel.getQuoteIDs());
+
+		this.publisher.publish(this.publishingChannel.getNodeID(), 2, 12);
+		this.receiver.poll();
+		assertEquals("[10, 11, 12]", this.receivingChannel.getQuoteIDs());
+
+		this.publisher.poll();
+		assertEquals("[]", this.publishingChannel.getQuoteIDs());
+	}
+
+	@Test
+	public void deliversEventCommittedLateWithinOverlap() throws SQLException {
+		long now = System.currentTimeMillis();
+		insertEvent("other", 1, 20, now);
+		this.receiver.poll();
+		assertEquals("[20]", this.receivingChannel.getQuoteIDs());
+
+		// Created before the newest event read, but committed after it was read
+		insertEvent("other", 2, 21, now - QuoteDatabaseTransport.POLL_OVERLAP / 2);
+		this.receiver.poll();
+		this.receiver.poll();
+		assertEquals("[20, 21]", this.receivingChannel.getQuoteIDs());
+	}
+
+	@Test
+	public void purgesEventsOlderThanRetention() throws SQLException {
+		long now = System.currentTimeMillis();
+		insertEvent("other", 1, 30, now - 2 * QuoteDatabaseTransport.RETENTION);
+		insertEvent("other", 2, 31, now - QuoteDatabaseTransport.RETENTION / 2);
+		insertEvent("other", 3, 32, now);
+		this.receiver.poll();
+		assertEquals(2, countEvents());
+
+		insertEvent("other", 4, 33, now);
+		this.receiver.poll();
+		assertEquals("[30, 31, 32, 33]", this.receivingChannel.getQuoteIDs());
+	}
+
+	private void insertEvent(String nodeID, int sequence, int quoteID, long created) throws SQLException {
+		PreparedStatement insert = this.connection.prepareStatement("insert into QU_QUOTE_EVENT (QU_EVENT_NODE, QU_EVENT_SEQ, IC_LOCALE_ID, QU_QUOTE_ID, QU_EVENT_CREATED) values (?, ?, 1, ?, ?)");
+		try {
+			insert.setString(1, nodeID);
+			insert.setInt(2, sequence);
+			insert.setInt(3, quoteID);
+			insert.setTimestamp(4, new Timestamp(created));
+			insert.executeUpdate();
+		}
+		finally {
+			insert.close();
+		}
+	}
+
+	private int countEvents() throws SQLException {
+		Statement statement = this.connection.createStatement();
+		try {
+			ResultSet rs = statement.executeQuery("select count(*) from QU_QUOTE_EVENT");
+			rs.next();
+			return rs.getInt(1);
+		}
+		finally {
+			statement.close();
+		}
+	}
+
+	/**
+	 * Connects to the test database instead of a datasource of the application, and is only polled by the test.
+	 */
+	private static class H2Transport extends QuoteDatabaseTransport {
+
+		private final String url;
+
+		H2Transport(String url) {
+			this.url = url;
+			setPollMillis(60 * 60 * 1000);
+		}
+
+		protected Connection getConnection() throws SQLException {
+			return DriverManager.getConnection(this.url);
+		}
+
+		protected void freeConnection(Connection conn) {
+			try {
+				conn.close();
+			}
+			catch (SQLException e) {
+			}
+		}
+	}
+
+	/**
+	 * Records the quote IDs received instead of applying them to a business.
+	 */
+	private static class RecordingChannel extends QuoteInvalidationChannel {
+
+		private final List<Integer> quoteIDs = new ArrayList<Integer>();
+
+		RecordingChannel(QuoteInvalidationTransport transport) {
+			super(null, transport);
+		}
+
+		public void receive(int[] localeIDs, int[] quoteIDs) {
+			for (int i = 0; i < quoteIDs.length; i++) {
+				this.quoteIDs.add(new Integer(quoteIDs[i]));
+			}
+		}
+
+		/**
+		 * @return The quote IDs received, sorted, since the events of a poll come in no particular order.
+		 */
+		String getQuoteIDs() {
+			List<Integer> sorted = new ArrayList<Integer>(this.quoteIDs);
+			Collections.sort(sorted);
+			return sorted.toString();
+		}
+	}
+}
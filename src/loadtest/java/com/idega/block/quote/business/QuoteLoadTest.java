@@ -0,0 +1,219 @@
+package com.idega.block.quote.business;
+
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Random;
+
+import com.idega.block.quote.data.LoadTestDatabase;
+import com.idega.block.quote.data.LoadTestQuoteEntityHome;
+import com.idega.block.quote.presentation.LoadTestRenderer;
+import com.idega.block.quote.stats.QuoteMetrics;
+
+/**
+ * Drives concurrent renders of Quote blocks against an embedded database, to catch scaling regressions of the
+ * serving path. Each thread renders random pages of a set of blocks, the way <code>Quote.main</code> does: the quote
+ * is resolved through the {@link QuoteRequestLoader} of the page and its markup through the fragment cache. The
+ * database is seeded with one catalog per locale and read with the SQL of the quote entity bean.
+ * <p>
+ * The run lasts until a rotation has passed, so that the rollover is measured too. Quotes rotate every minute by
+ * default, standing in for the midnight rollover; the rotation scheduler rotates them ahead of it unless
+ * <code>prerotate</code> is turned off. The report gives throughput, latency percentiles and SQL statements per
+ * render, for the whole run and for the seconds around the rollover, and how many quotes the scheduler rotated ahead.
+ * Settings are system properties:
+ * <ul>
+ * <li><code>threads</code>, the number of rendering threads (16)</li>
+ * <li><code>quotes</code>, the catalog size of each locale, comma separated (1000,1000,1000,100000)</li>
+ * <li><code>pages</code>, the number of pages (250), and <code>blocks</code>, the blocks per page (4)</li>
+ * <li><code>seconds</code>, the least duration of the measurement (60), after <code>warmup</code> seconds (10)</li>
+ * <li><code>rotation</code>, the rotation of the blocks (<code>* * * * *</code>)</li>
+ * <li><code>prerotate</code>, whether quotes are rotated ahead of the rollover (true), <code>leadtime</code> seconds
+ * before it (10), at most half a rotation</li>
+ * <li><code>resident</code>, the most quotes a locale keeps in memory (50000)</li>
+ * <li><code>url</code>, the JDBC URL of the database (an in-memory H2 database)</li>
+ * </ul>
+ * Run with <code>mvn -Ploadtest test-compile exec:exec</code>.
+ */
+public class QuoteLoadTest {
+
+	/**
+	 * Renders that start this long before or after the rollover count as rollover renders.
+	 */
+	private static final long ROLLOVER_WINDOW = 2000;
+
+	private final QuoteBusiness business;
+	private final LoadTestDatabase database;
+	private final int[] localeIDs;
+	private final int pages;
+	private final int blocks;
+
+	QuoteLoadTest(QuoteBusiness business, LoadTestDatabase database, int[] localeIDs, int pages, int blocks) {
+		this.business = business;
+		this.database = database;
+		this.localeIDs = localeIDs;
+		this.pages = pages;
+		this.blocks = blocks;
+	}
+
+	public static void main(String[] args) throws Exception {
+		int threads = Integer.getInteger("threads", 16).intValue();
+		String[] sizes = System.getProperty("quotes", "1000,1000,1000,100000").split(",");
+		int pages = Integer.getInteger("pages", 250).intValue();
+		int blocks = Integer.getInteger("blocks", 4).intValue();
+		int seconds = Integer.getInteger("seconds", 60).intValue();
+		int warmup = Integer.getInteger("warmup", 10).intValue();
+		QuoteRotation rotation = QuoteRotation.valueOf(System.getProperty("rotation", "* * * * *"));
+		boolean prerotate = Boolean.valueOf(System.getProperty("prerotate", "true")).booleanValue();
+		int leadTime = Integer.getInteger("leadtime", 10).intValue();
+		int resident = Integer.getInteger("resident", QuoteBusiness.DEFAULT_MAX_RESIDENT_QUOTES).intValue();
+		String url = System.getProperty("url", "jdbc:h2:mem:quotes;DB_CLOSE_DELAY=-1");
+
+		LoadTestDatabase database = new LoadTestDatabase(url, threads + 2);
+		database.createSchema();
+		int[] localeIDs = new int[sizes.length];
+		for (int i = 0; i < sizes.length; i++) {
+			localeIDs[i] = i + 1;
+			database.addQuotes(localeIDs[i], Integer.parseInt(sizes[i].trim()), QuoteBusiness.FORMAT_VERSION);
+		}
+
+		QuoteBusiness business = new QuoteBusiness(new LoadTestQuoteEntityHome(database));
+		business.setMaxResidentQuotes(resident);
+		business.setDefaultRotation(rotation);
+		QuoteRotationScheduler scheduler = new QuoteRotationScheduler(business, leadTime * 1000L);
+		if (prerotate) {
+			scheduler.start();
+		}
+
+		System.out.println("Quote load test: " + threads + " threads, " + pages + " pages of " + blocks + " blocks, catalogs " + Arrays.toString(sizes) + ", rotation " + rotation + (prerotate ? ", rotated " + leadTime + " s ahead" : ", rotated on demand"));
+		try {
+			QuoteLoadTest test = new QuoteLoadTest(business, database, localeIDs, pages, blocks);
+			test.run(threads, warmup * 1000L, -1);
+			long start = System.currentTimeMillis();
+			long rollover = business.getNextRotation(start);
+			if (rollover - start < ROLLOVER_WINDOW) {
+				rollover = business.getNextRotation(rollover);
+			}
+			long end = Math.max(start + seconds * 1000L, rollover + ROLLOVER_WINDOW);
+			long statements = database.getStatementCount();
+			long preRotations = QuoteMetrics.PRE_ROTATIONS.get();
+			Result result = test.run(threads, end - start, rollover);
+
+			SimpleDateFormat format = new SimpleDateFormat("HH:mm:ss");
+			result.print("All renders", end - start);
+			result.rollover.print("Rollover at " + format.format(new Date(rollover)), 2 * ROLLOVER_WINDOW);
+			System.out.println("SQL statements of all threads, including the rotation scheduler: " + (database.getStatementCount() - statements));
+			System.out.println("Quotes rotated ahead of the rollover: " + (QuoteMetrics.PRE_ROTATIONS.get() - preRotations));
+		}
+		finally {
+			scheduler.stop();
+			database.close();
+		}
+	}
+
+	/**
+	 * Runs the threads for <code>duration</code> milliseconds.
+	 *
+	 * @param rollover The time of the rollover to report on, or -1.
+	 */
+	Result run(int threads, final long duration, final long rollover) throws InterruptedException {
+		final Result[] results = new Result[threads];
+		Thread[] workers = new Thread[threads];
+		final long end = System.currentTimeMillis() + duration;
+		for (int i = 0; i < threads; i++) {
+			final int index = i;
+			workers[i] = new Thread(new Runnable() {
+
+				public void run() {
+					results[index] = render(end, rollover, new Random(index));
+				}
+			}, "QuoteLoadTest-" + i);
+			workers[i].start();
+		}
+
+		Result result = new Result();
+		for (int i = 0; i < threads; i++) {
+			workers[i].join();
+			result.add(results[i]);
+		}
+		return result;
+	}
+
+	private Result render(long end, long rollover, Random random) {
+		Result result = new Result();
+		while (System.currentTimeMillis() < end) {
+			int page = random.nextInt(this.pages);
+			QuoteRequestLoader loader = new QuoteRequestLoader(this.business, "/page/" + page);
+			for (int i = 0; i < this.blocks; i++) {
+				int localeID = this.localeIDs[(page + i) % this.localeIDs.length];
+				long statements = this.database.getThreadStatementCount();
+				long started = System.currentTimeMillis();
+				long start = System.nanoTime();
+				QuoteHolder quote = loader.getRandomQuote(null, localeID, page * this.blocks + i, false, null);
+				LoadTestRenderer.render(quote, localeID);
+				long latency = System.nanoTime() - start;
+				long executed = this.database.getThreadStatementCount() - statements;
+
+				result.record(latency, executed);
+				if (rollover != -1 && Math.abs(started - rollover) <= ROLLOVER_WINDOW) {
+					result.rollover.record(latency, executed);
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * The latencies and statement counts of a set of renders.
+	 */
+	static class Result {
+
+		private long[] latencies = new long[1024];
+		private int renders = 0;
+		private long statements = 0;
+		private Result rollover;
+
+		Result() {
+			this(true);
+		}
+
+		private Result(boolean withRollover) {
+			this.rollover = withRollover ? new Result(false) : null;
+		}
+
+		void record(long latency, long executed) {
+			if (this.renders == this.latencies.length) {
+				long[] newLatencies = new long[this.latencies.length * 2];
+				System.arraycopy(this.latencies, 0, newLatencies, 0, this.renders);
+				this.latencies = newLatencies;
+			}
+			this.latencies[this.renders++] = latency;
+			this.statements += executed;
+		}
+
+		void add(Result result) {
+			for (int i = 0; i < result.renders; i++) {
+				record(result.latencies[i], 0);
+			}
+			this.statements += result.statements;
+			if (this.rollover != null && result.rollover != null) {
+				this.rollover.add(result.rollover);
+			}
+		}
+
+		void print(String title, long duration) {
+			if (this.renders == 0) {
+				System.out.println(title + ": no renders");
+				return;
+			}
+			long[] sorted = new long[this.renders];
+			System.arraycopy(this.latencies, 0, sorted, 0, this.renders);
+			Arrays.sort(sorted);
+			System.out.println(title + ": " + this.renders + " renders, " + Math.round(this.renders * 1000.0 / duration) + " renders/s, latency p50 " + micros(sorted, 0.5) + " us, p99 " + micros(sorted, 0.99) + " us, p999 " + micros(sorted, 0.999) + " us, max " + micros(sorted, 1) + " us, " + this.statements + " SQL statements, " + ((float) this.statements / this.renders) + " per render");
+		}
+
+		private static String micros(long[] sorted, double percentile) {
+			int index = Math.min((int) Math.ceil(percentile * sorted.length) - 1, sorted.length - 1);
+			return String.valueOf(sorted[Math.max(index, 0)] / 1000.0);
+		}
+	}
+}
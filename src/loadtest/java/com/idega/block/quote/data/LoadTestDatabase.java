@@ -0,0 +1,171 @@
+package com.idega.block.quote.data;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An embedded in-process database holding the QU_QUOTE table, for load tests. Connections are pooled, and every
+ * statement executed through them is counted, in total and for the executing thread, so a load test can report the
+ * number of SQL statements per render. The table is created from the column names of {@link QuoteEntityBMPBean},
+ * with the same indexes.
+ */
+public class LoadTestDatabase {
+
+	private final BlockingQueue<Connection> pool;
+	private final AtomicLong statements = new AtomicLong();
+	private final ThreadLocal<long[]> threadStatements = new ThreadLocal<long[]>() {
+
+		protected long[] initialValue() {
+			return new long[1];
+		}
+	};
+
+	/**
+	 * @param url The JDBC URL of the database, e.g. <code>jdbc:h2:mem:quotes;DB_CLOSE_DELAY=-1</code>.
+	 * @param poolSize The number of connections, at least the number of threads using the database.
+	 */
+	public LoadTestDatabase(String url, int poolSize) throws SQLException {
+		this.pool = new ArrayBlockingQueue<Connection>(poolSize);
+		for (int i = 0; i < poolSize; i++) {
+			this.pool.add(count(DriverManager.getConnection(url)));
+		}
+	}
+
+	public void createSchema() throws SQLException {
+		Connection conn = getConnection();
+		Statement statement = null;
+		try {
+			statement = conn.createStatement();
+			statement.execute("create table " + QuoteEntityBMPBean.getEntityTableName() + " (" + "QU_QUOTE_ID integer generated by default as identity primary key, " + QuoteEntityBMPBean.getColumnNameQuoteOrigin() + " varchar(255), " + QuoteEntityBMPBean.getColumnNameQuoteText() + " varchar(1000), " + QuoteEntityBMPBean.getColumnNameQuoteAuthor() + " varchar(255), " + QuoteEntityBMPBean.getColumnNameICLocaleID() + " integer, " + QuoteEntityBMPBean.getColumnNameOrdinal() + " integer, " + QuoteEntityBMPBean.getColumnNameFormattedText() + " varchar(4000), " + QuoteEntityBMPBean.getColumnNameFormatVersion() + " integer, " + QuoteEntityBMPBean.getColumnNameWeight() + " integer)");
+			statement.execute("create index IDX_QU_QUOTE_LOCALE_ORDINAL on " + QuoteEntityBMPBean.getEntityTableName() + " (" + QuoteEntityBMPBean.getColumnNameICLocaleID() + ", " + QuoteEntityBMPBean.getColumnNameOrdinal() + ")");
+			statement.execute("create unique index IDX_QU_QUOTE_LOCALE_ORD_UQ on " + QuoteEntityBMPBean.getEntityTableName() + " (" + QuoteEntityBMPBean.getColumnNameICLocaleID() + ", " + QuoteEntityBMPBean.getColumnNameOrdinal() + ")");
+			statement.execute("create index IDX_QU_QUOTE_LOCALE_ID on " + QuoteEntityBMPBean.getEntityTableName() + " (" + QuoteEntityBMPBean.getColumnNameICLocaleID() + ", QU_QUOTE_ID)");
+			statement.execute("create index IDX_QU_QUOTE_LOCALE_AUTHOR on " + QuoteEntityBMPBean.getEntityTableName() + " (" + QuoteEntityBMPBean.getColumnNameICLocaleID() + ", " + QuoteEntityBMPBean.getColumnNameQuoteAuthor() + ", QU_QUOTE_ID)");
+		}
+		finally {
+			if (statement != null) {
+				statement.close();
+			}
+			freeConnection(conn);
+		}
+	}
+
+	/**
+	 * Inserts <code>count</code> quotes with generated texts into the locale, numbered densely from ordinal 0.
+	 */
+	public void addQuotes(int localeID, int count, int formatVersion) throws SQLException {
+		Connection conn = getConnection();
+		PreparedStatement insert = null;
+		try {
+			insert = conn.prepareStatement("insert into " + QuoteEntityBMPBean.getEntityTableName() + " (" + QuoteEntityBMPBean.getColumnNameICLocaleID() + ", " + QuoteEntityBMPBean.getColumnNameOrdinal() + ", " + QuoteEntityBMPBean.getColumnNameQuoteText() + ", " + QuoteEntityBMPBean.getColumnNameQuoteAuthor() + ", " + QuoteEntityBMPBean.getColumnNameQuoteOrigin() + ", " + QuoteEntityBMPBean.getColumnNameFormattedText() + ", " + QuoteEntityBMPBean.getColumnNameFormatVersion() + ") values (?, ?, ?, ?, ?, ?, ?)");
+			for (int i = 0; i < count; i++) {
+				String text = "Quote number " + i + " of locale " + localeID + ", long enough to look like a real quote.";
+				insert.setInt(1, localeID);
+				insert.setInt(2, i);
+				insert.setString(3, text);
+				insert.setString(4, "Author " + (i % 500));
+				insert.setString(5, "Origin " + (i % 50));
+				insert.setString(6, text);
+				insert.setInt(7, formatVersion);
+				insert.addBatch();
+				if (i % 1000 == 999) {
+					insert.executeBatch();
+				}
+			}
+			insert.executeBatch();
+		}
+		finally {
+			if (insert != null) {
+				insert.close();
+			}
+			freeConnection(conn);
+		}
+	}
+
+	public Connection getConnection() throws SQLException {
+		try {
+			return this.pool.take();
+		}
+		catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while waiting for a connection");
+		}
+	}
+
+	public void freeConnection(Connection conn) {
+		this.pool.add(conn);
+	}
+
+	/**
+	 * @return The number of statements executed so far.
+	 */
+	public long getStatementCount() {
+		return this.statements.get();
+	}
+
+	/**
+	 * @return The number of statements executed so far by the current thread.
+	 */
+	public long getThreadStatementCount() {
+		return this.threadStatements.get()[0];
+	}
+
+	public void close() {
+		Connection conn;
+		while ((conn = this.pool.poll()) != null) {
+			try {
+				conn.close();
+			}
+			catch (SQLException e) {
+			}
+		}
+	}
+
+	private Connection count(final Connection conn) {
+		return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class[] { Connection.class }, new InvocationHandler() {
+
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				Object result = call(conn, method, args);
+				if (result instanceof PreparedStatement) {
+					return countExecutions(result, PreparedStatement.class);
+				}
+				if (result instanceof Statement) {
+					return countExecutions(result, Statement.class);
+				}
+				return result;
+			}
+		});
+	}
+
+	private Object countExecutions(final Object statement, Class type) {
+		return Proxy.newProxyInstance(type.getClassLoader(), new Class[] { type }, new InvocationHandler() {
+
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				if (method.getName().startsWith("execute")) {
+					LoadTestDatabase.this.statements.incrementAndGet();
+					LoadTestDatabase.this.threadStatements.get()[0]++;
+				}
+				return call(statement, method, args);
+			}
+		});
+	}
+
+	private static Object call(Object target, Method method, Object[] args) throws Throwable {
+		try {
+			return method.invoke(target, args);
+		}
+		catch (InvocationTargetException ite) {
+			throw ite.getCause();
+		}
+	}
+}
@@ -0,0 +1,44 @@
+package com.idega.block.quote.data;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import com.idega.data.IDOEntity;
+
+/**
+ * The quote home running the SQL of {@link QuoteEntityBMPBean} against a {@link LoadTestDatabase} instead of the
+ * datasource of the application. All calls share one bean, which the home methods used for serving allow since they
+ * keep no state in the bean. Finders that go through the IDO entity cache are not supported.
+ */
+public class LoadTestQuoteEntityHome extends QuoteEntityHomeImpl {
+
+	private final LoadTestQuoteEntityBMPBean entity;
+
+	public LoadTestQuoteEntityHome(LoadTestDatabase database) {
+		this.entity = new LoadTestQuoteEntityBMPBean(database);
+	}
+
+	protected IDOEntity idoCheckOutPooledEntity() {
+		return this.entity;
+	}
+
+	protected void idoCheckInPooledEntity(IDOEntity entity) {
+	}
+
+	private static class LoadTestQuoteEntityBMPBean extends QuoteEntityBMPBean {
+
+		private final LoadTestDatabase database;
+
+		LoadTestQuoteEntityBMPBean(LoadTestDatabase database) {
+			this.database = database;
+		}
+
+		public Connection getConnection() throws SQLException {
+			return this.database.getConnection();
+		}
+
+		public void freeConnection(Connection conn) {
+			this.database.freeConnection(conn);
+		}
+	}
+}
@@ -0,0 +1,30 @@
+package com.idega.block.quote.presentation;
+
+import com.idega.block.quote.business.QuoteHolder;
+import com.idega.block.quote.stats.QuoteMetrics;
+
+/**
+ * The markup step of {@link Quote#main(com.idega.presentation.IWContext)} for load tests, which run without a
+ * request context: the quote is taken from the fragment cache, or rendered and cached on a miss, as in
+ * <code>Quote.getQuoteLayer</code>.
+ */
+public class LoadTestRenderer {
+
+	private LoadTestRenderer() {
+	}
+
+	public static String render(QuoteHolder quote, int localeID) {
+		QuoteFragmentCache fragmentCache = QuoteFragmentCache.getInstance();
+		long key = QuoteFragmentCache.getKey(quote != null ? quote.getQuoteID() : -1, localeID, true, true, true);
+		String fragment = fragmentCache.get(key);
+		if (fragment != null) {
+			QuoteMetrics.FRAGMENT_CACHE_HITS.increment();
+		}
+		else {
+			QuoteMetrics.FRAGMENT_CACHE_MISSES.increment();
+			fragment = QuoteRenderer.render(quote, true, true, true, "Unknown", "No quotes in database...");
+			fragmentCache.put(key, fragment);
+		}
+		return fragment;
+	}
+}
@@ -0,0 +1,228 @@
+package com.idega.block.quote.business;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import javax.ejb.FinderException;
+
+import com.idega.block.quote.data.QuoteEntity;
+import com.idega.block.quote.data.QuoteEntityHome;
+import com.idega.block.quote.data.QuoteRowHandler;
+
+/**
+ * In-memory stand-in for {@link QuoteEntityHome}, so the business layer can be tested and benchmarked without a
+ * database. Homes and entities are dynamic proxies: only the finders and getters used by {@link QuoteBusiness} are
+ * answered, and the setters of an entity change what its getters return. Every other method returns a default value.
+ */
+public class FakeQuoteEntityHome implements InvocationHandler {
+
+	private final Map<Integer, List<QuoteEntity>> quotesByLocale = new HashMap<Integer, List<QuoteEntity>>();
+	private final Map<Integer, QuoteEntity> quotesByID = new HashMap<Integer, QuoteEntity>();
+	private int nextID = 1;
+
+	public static QuoteEntityHome create(FakeQuoteEntityHome handler) {
+		return (QuoteEntityHome) Proxy.newProxyInstance(QuoteEntityHome.class.getClassLoader(), new Class[] { QuoteEntityHome.class }, handler);
+	}
+
+	/**
+	 * Adds <code>count</code> quotes with generated texts to the locale.
+	 */
+	public void addQuotes(int localeID, int count) {
+		addQuotes(localeID, count, false);
+	}
+
+	/**
+	 * @param weighted Whether the quotes get weights from 1 to 10 instead of the default weight.
+	 */
+	public void addQuotes(int localeID, int count, boolean weighted) {
+		for (int i = 0; i < count; i++) {
+			addQuote(localeID, "Quote number " + i + " of locale " + localeID + ", long enough to look like a real quote.", "Author " + (i % 500), "Origin " + (i % 50), weighted ? 1 + i % 10 : -1);
+		}
+	}
+
+	public QuoteEntity addQuote(int localeID, String text, String author, String origin) {
+		return addQuote(localeID, text, author, origin, -1);
+	}
+
+	public QuoteEntity addQuote(int localeID, String text, String author, String origin, int weight) {
+		List<QuoteEntity> quotes = this.quotesByLocale.get(new Integer(localeID));
+		if (quotes == null) {
+			quotes = new ArrayList<QuoteEntity>();
+			this.quotesByLocale.put(new Integer(localeID), quotes);
+		}
+
+		Map<String, Object> values = new HashMap<String, Object>();
+		Integer id = new Integer(this.nextID++);
+		values.put("getPrimaryKey", id);
+		values.put("getICLocaleID", new Integer(localeID));
+		values.put("getOrdinal", new Integer(quotes.size()));
+		values.put("getQuoteText", text);
+		values.put("getFormattedText", text);
+		values.put("getFormatVersion", new Integer(QuoteBusiness.FORMAT_VERSION));
+		values.put("getQuoteAuthor", author);
+		values.put("getQuoteOrigin", origin);
+		values.put("getWeight", new Integer(weight));
+
+		QuoteEntity quote = (QuoteEntity) Proxy.newProxyInstance(QuoteEntity.class.getClassLoader(), new Class[] { QuoteEntity.class }, new EntityHandler(values));
+		quotes.add(quote);
+		this.quotesByID.put(id, quote);
+		return quote;
+	}
+
+	public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+		String name = method.getName();
+		if (name.equals("findAllQuotesByLocale")) {
+			List<QuoteEntity> quotes = this.quotesByLocale.get(args[0]);
+			return quotes != null ? new ArrayList<QuoteEntity>(quotes) : (Collection) new ArrayList<QuoteEntity>();
+		}
+		if (name.equals("getNumberOfQuotes") || name.equals("getNextOrdinal")) {
+			List<QuoteEntity> quotes = this.quotesByLocale.get(args[0]);
+			return new Integer(quotes != null ? quotes.size() : 0);
+		}
+		if (name.equals("getNumberOfQuotesByLocale") || name.equals("getMaxQuoteIDsByLocale")) {
+			Map<Integer, Integer> values = new HashMap<Integer, Integer>();
+			for (Iterator<Map.Entry<Integer, List<QuoteEntity>>> iter = this.quotesByLocale.entrySet().iterator(); iter.hasNext();) {
+				Map.Entry<Integer, List<QuoteEntity>> entry = iter.next();
+				List<QuoteEntity> quotes = entry.getValue();
+				if (quotes.isEmpty()) {
+					continue;
+				}
+				int value = quotes.size();
+				if (name.equals("getMaxQuoteIDsByLocale")) {
+					value = 0;
+					for (int i = 0; i < quotes.size(); i++) {
+						value = Math.max(value, ((Integer) quotes.get(i).getPrimaryKey()).intValue());
+					}
+				}
+				values.put(entry.getKey(), new Integer(value));
+			}
+			return values;
+		}
+		if (name.equals("findByPrimaryKey")) {
+			QuoteEntity quote = this.quotesByID.get(args[0]);
+			if (quote == null) {
+				throw new FinderException("No quote with ID " + args[0]);
+			}
+			return quote;
+		}
+		if (name.equals("findQuoteByLocaleAndOrdinal")) {
+			List<QuoteEntity> quotes = this.quotesByLocale.get(args[0]);
+			int ordinal = ((Integer) args[1]).intValue();
+			if (quotes == null || ordinal < 0 || ordinal >= quotes.size()) {
+				throw new FinderException("No quote with ordinal " + ordinal);
+			}
+			return quotes.get(ordinal);
+		}
+		if (name.equals("scanQuotesByLocale")) {
+			List<QuoteEntity> quotes = this.quotesByLocale.get(args[0]);
+			if (quotes != null) {
+				QuoteRowHandler handler = (QuoteRowHandler) args[2];
+				for (Iterator<QuoteEntity> iter = quotes.iterator(); iter.hasNext();) {
+					handleRow(handler, iter.next());
+				}
+			}
+			return null;
+		}
+		if (name.equals("scanQuotesByLocaleAndOrdinals")) {
+			List<QuoteEntity> quotes = this.quotesByLocale.get(args[0]);
+			int[] ordinals = (int[]) args[1];
+			QuoteRowHandler handler = (QuoteRowHandler) args[2];
+			for (int i = 0; quotes != null && i < ordinals.length; i++) {
+				if (ordinals[i] >= 0 && ordinals[i] < quotes.size()) {
+					handleRow(handler, quotes.get(ordinals[i]));
+				}
+			}
+			return null;
+		}
+		if (name.equals("scanQuotesByIDs")) {
+			int[] ids = (int[]) args[0];
+			QuoteRowHandler handler = (QuoteRowHandler) args[1];
+			for (int i = 0; i < ids.length; i++) {
+				QuoteEntity quote = this.quotesByID.get(new Integer(ids[i]));
+				if (quote != null) {
+					handleRow(handler, quote);
+				}
+			}
+			return null;
+		}
+		if (name.equals("scanQuotePageByLocale")) {
+			// Pages in ID order only, sorting by author is not modelled
+			List<QuoteEntity> quotes = this.quotesByLocale.get(args[0]);
+			int afterID = ((Integer) args[2]).intValue();
+			int maxNumberOfQuotes = ((Integer) args[3]).intValue();
+			QuoteRowHandler handler = (QuoteRowHandler) args[5];
+			int count = 0;
+			for (int i = 0; quotes != null && i < quotes.size() && count < maxNumberOfQuotes; i++) {
+				QuoteEntity quote = quotes.get(i);
+				if (((Integer) quote.getPrimaryKey()).intValue() > afterID) {
+					handleRow(handler, quote);
+					count++;
+				}
+			}
+			return null;
+		}
+		return defaultValue(proxy, method, args);
+	}
+
+	private static void handleRow(QuoteRowHandler handler, QuoteEntity quote) throws IOException {
+		handler.handleRow(((Integer) quote.getPrimaryKey()).intValue(), quote.getICLocaleID(), quote.getOrdinal(), quote.getQuoteText(), quote.getQuoteAuthor(), quote.getQuoteOrigin(), quote.getFormattedText(), quote.getFormatVersion(), quote.getWeight());
+	}
+
+	static Object defaultValue(Object proxy, Method method, Object[] args) {
+		String name = method.getName();
+		if (name.equals("equals")) {
+			return Boolean.valueOf(proxy == args[0]);
+		}
+		if (name.equals("hashCode")) {
+			return new Integer(System.identityHashCode(proxy));
+		}
+		if (name.equals("toString")) {
+			return method.getDeclaringClass().getName() + "@" + Integer.toHexString(System.identityHashCode(proxy));
+		}
+
+		Class type = method.getReturnType();
+		if (type == Boolean.TYPE) {
+			return Boolean.FALSE;
+		}
+		if (type == Integer.TYPE) {
+			return new Integer(-1);
+		}
+		if (type == Long.TYPE) {
+			return new Long(-1);
+		}
+		if (type.isPrimitive() && type != Void.TYPE) {
+			throw new UnsupportedOperationException(method.toString());
+		}
+		return null;
+	}
+
+	private static class EntityHandler implements InvocationHandler {
+
+		private final Map<String, Object> values;
+
+		EntityHandler(Map<String, Object> values) {
+			this.values = values;
+		}
+
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			String name = method.getName();
+			if (name.startsWith("set") && args != null && args.length == 1) {
+				this.values.put("get" + name.substring(3), args[0]);
+				return null;
+			}
+			Object value = this.values.get(name);
+			if (value != null) {
+				return value;
+			}
+			return defaultValue(proxy, method, args);
+		}
+	}
+}
@@ -0,0 +1,66 @@
+package com.idega.block.quote.business;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class QuoteAliasSamplerTest {
+
+	private static final int PICKS = 200000;
+
+	@Test
+	public void picksInProportionToWeights() {
+		int[] weights = { 1, 2, 3, 4, 0, 10 };
+		QuoteAliasSampler sampler = new QuoteAliasSampler(createColumns(weights));
+		assertFalse(sampler.isUniform());
+
+		int[] picks = pick(sampler, weights.length);
+		int total = 0;
+		for (int i = 0; i < weights.length; i++) {
+			total += weights[i];
+		}
+		for (int i = 0; i < weights.length; i++) {
+			assertEquals("Quote " + i, (double) weights[i] / total, (double) picks[i] / PICKS, 0.005);
+		}
+		assertEquals(0, picks[4]);
+	}
+
+	@Test
+	public void picksUniformlyWithEqualWeights() {
+		int[] weights = { 2, 2, 2, 2 };
+		QuoteAliasSampler sampler = new QuoteAliasSampler(createColumns(weights));
+		assertTrue(sampler.isUniform());
+
+		int[] picks = pick(sampler, weights.length);
+		for (int i = 0; i < weights.length; i++) {
+			assertEquals("Quote " + i, 0.25, (double) picks[i] / PICKS, 0.005);
+		}
+	}
+
+	private static int[] pick(QuoteAliasSampler sampler, int size) {
+		Random random = new Random(42);
+		int[] picks = new int[size];
+		for (int i = 0; i < PICKS; i++) {
+			picks[sampler.next(random)]++;
+		}
+		return picks;
+	}
+
+	private static QuoteColumns createColumns(int[] weights) {
+		QuoteColumns.Builder builder = new QuoteColumns.Builder(1, weights.length, false);
+		for (int i = 0; i < weights.length; i++) {
+			QuoteHolder quote = new QuoteHolder();
+			quote.setQuoteID(i + 1);
+			quote.setLocaleID(1);
+			quote.setText("Quote " + i);
+			quote.setFormattedText("Quote " + i);
+			quote.setWeight(weights[i]);
+			builder.add(quote);
+		}
+		return builder.build();
+	}
+}
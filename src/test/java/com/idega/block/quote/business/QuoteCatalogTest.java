@@ -0,0 +1,111 @@
+package com.idega.block.quote.business;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class QuoteCatalogTest {
+
+	@Test
+	public void updatesLocalesInOneBatch() throws Exception {
+		QuoteCatalog catalog = new QuoteCatalog();
+		catalog.setQuotes(1, createColumns(1, 1, 5), catalog.getModificationStamp());
+		catalog.setQuotes(2, createColumns(2, 101, 3), catalog.getModificationStamp());
+
+		List<QuoteHolder> changed = new ArrayList<QuoteHolder>();
+		changed.add(createQuote(2, 1, "edited"));
+		changed.add(createQuote(6, 1, "added"));
+		// moved from locale 2 to locale 1
+		changed.add(createQuote(102, 1, "moved"));
+		catalog.update(changed, new int[] { 4, 103 }, new int[] { 1, 2 });
+
+		QuoteColumns first = catalog.getQuotes(1);
+		assertEquals(6, first.size());
+		assertEquals("edited", first.get(first.indexOf(2)).getText());
+		assertEquals("added", first.get(first.indexOf(6)).getText());
+		assertEquals("moved", first.get(first.indexOf(102)).getText());
+		assertEquals(-1, first.indexOf(4));
+		assertEquals("Quote 1", catalog.getQuote(1).getText());
+
+		QuoteColumns second = catalog.getQuotes(2);
+		assertEquals(1, second.size());
+		assertEquals(101, second.getQuoteID(0));
+		assertNull(catalog.getQuote(103));
+
+		catalog.awaitSamplers();
+		assertNotNull(catalog.getSampler(1));
+		assertSame(first, catalog.getSampler(1).getQuotes());
+		assertSame(second, catalog.getSampler(2).getQuotes());
+	}
+
+	@Test
+	public void neverPicksFromReplacedQuotes() throws Exception {
+		QuoteCatalog catalog = new QuoteCatalog();
+		catalog.setQuotes(1, createColumns(1, 1, 5), catalog.getModificationStamp());
+		catalog.awaitSamplers();
+		assertNotNull(catalog.getSampler(1));
+
+		for (int i = 0; i < 20; i++) {
+			catalog.put(createQuote(1 + i % 5, 1, "edit " + i));
+			// Either no sampler yet, or one built for the quotes now published
+			QuoteAliasSampler sampler = catalog.getSampler(1);
+			assertTrue(sampler == null || sampler.getQuotes() == catalog.getQuotes(1));
+		}
+
+		catalog.awaitSamplers();
+		assertSame(catalog.getQuotes(1), catalog.getSampler(1).getQuotes());
+		assertEquals("edit 19", catalog.getSampler(1).getQuotes().get(4).getText());
+	}
+
+	@Test
+	public void dropsSamplerOfInvalidatedLocale() throws Exception {
+		QuoteCatalog catalog = new QuoteCatalog();
+		catalog.setQuotes(1, createColumns(1, 1, 5), catalog.getModificationStamp());
+		catalog.invalidate(1);
+		catalog.awaitSamplers();
+		// The build queued for the dropped quotes is skipped
+		assertNull(catalog.getSampler(1));
+	}
+
+	@Test
+	public void putAndRemoveSingleQuotes() {
+		QuoteCatalog catalog = new QuoteCatalog();
+		catalog.setQuotes(1, createColumns(1, 1, 3), catalog.getModificationStamp());
+
+		catalog.put(createQuote(2, 1, "edited"));
+		catalog.put(createQuote(4, 1, "added"));
+		catalog.remove(1, 1);
+
+		QuoteColumns quotes = catalog.getQuotes(1);
+		assertEquals(3, quotes.size());
+		assertEquals(2, quotes.getQuoteID(0));
+		assertEquals("edited", quotes.get(0).getText());
+		assertEquals(4, quotes.getQuoteID(2));
+	}
+
+	private QuoteColumns createColumns(int localeID, int firstID, int count) {
+		QuoteColumns.Builder builder = new QuoteColumns.Builder(localeID, count, false);
+		for (int i = 0; i < count; i++) {
+			builder.add(createQuote(firstID + i, localeID, "Quote " + (firstID + i)));
+		}
+		return builder.build();
+	}
+
+	private QuoteHolder createQuote(int quoteID, int localeID, String text) {
+		QuoteHolder quote = new QuoteHolder();
+		quote.setQuoteID(quoteID);
+		quote.setLocaleID(localeID);
+		quote.setText(text);
+		quote.setFormattedText(text);
+		quote.setAuthor("Author");
+		quote.setWeight(1);
+		return quote;
+	}
+}
@@ -0,0 +1,54 @@
+package com.idega.block.quote.business;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class QuoteInvalidationChannelTest {
+
+	private static final int LOCALE_ID = 1;
+	private static final int OBJECT_ID = 7;
+
+	private QuoteBusiness first;
+	private QuoteBusiness second;
+	private QuoteInvalidationChannel firstChannel;
+	private QuoteInvalidationChannel secondChannel;
+
+	@Before
+	public void startNodes() throws Exception {
+		// Both nodes read the same quotes, as from a shared database
+		FakeQuoteEntityHome quotes = new FakeQuoteEntityHome();
+		quotes.addQuote(LOCALE_ID, "The early bird catches the worm", "Proverb", null);
+		this.first = new QuoteBusiness(FakeQuoteEntityHome.create(quotes));
+		this.second = new QuoteBusiness(FakeQuoteEntityHome.create(quotes));
+		this.firstChannel = new QuoteInvalidationChannel(this.first, new QuoteLoopbackTransport());
+		this.secondChannel = new QuoteInvalidationChannel(this.second, new QuoteLoopbackTransport());
+		this.firstChannel.start();
+		this.secondChannel.start();
+	}
+
+	@After
+	public void stopNodes() {
+		this.firstChannel.stop();
+		this.secondChannel.stop();
+	}
+
+	@Test
+	public void saveOnOneNodeUpdatesTheOther() {
+		assertNotNull(this.second.getResidentQuotes(LOCALE_ID));
+		assertEquals(1, this.second.searchQuotes(LOCALE_ID, "bird", 10).size());
+		QuoteHolder shown = this.second.getRandomQuote(null, LOCALE_ID, OBJECT_ID, false);
+		int quoteID = shown.getQuoteID();
+
+		this.first.saveQuote(null, OBJECT_ID, quoteID, LOCALE_ID, null, "The second mouse gets the cheese", null);
+
+		assertEquals("The second mouse gets the cheese", this.second.getQuoteHolder(quoteID).getText());
+		assertEquals("The second mouse gets the cheese", this.second.getResidentQuotes(LOCALE_ID).get(0).getText());
+		assertEquals(0, this.second.searchQuotes(LOCALE_ID, "bird", 10).size());
+		assertEquals(1, this.second.searchQuotes(LOCALE_ID, "mouse", 10).size());
+		assertEquals("The second mouse gets the cheese", this.second.getRandomQuote(null, LOCALE_ID, OBJECT_ID, false).getText());
+	}
+}
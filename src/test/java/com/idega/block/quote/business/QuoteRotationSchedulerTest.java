@@ -0,0 +1,104 @@
+package com.idega.block.quote.business;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class QuoteRotationSchedulerTest {
+
+	private static final long PERIOD = 1000;
+
+	@Test
+	public void preRotatesEachRolloverOfRotationShorterThanLeadTime() throws InterruptedException {
+		ShortRotationBusiness business = new ShortRotationBusiness();
+		QuoteRotationScheduler scheduler = new QuoteRotationScheduler(business, QuoteRotationScheduler.DEFAULT_LEAD_TIME);
+		scheduler.start();
+		Thread.sleep(PERIOD * 4);
+		scheduler.stop();
+
+		List<long[]> calls = business.getCalls();
+		assertTrue("pre-rotations: " + calls.size(), calls.size() >= 2 && calls.size() <= 5);
+		for (int i = 0; i < calls.size(); i++) {
+			long boundary = calls.get(i)[0];
+			long time = calls.get(i)[1];
+			assertTrue("pre-rotated after the rollover", time <= boundary);
+			if (i > 0) {
+				long previous = calls.get(i - 1)[0];
+				assertEquals(previous + PERIOD, boundary);
+				assertTrue("pre-rotated before the previous rollover", time >= previous);
+			}
+		}
+	}
+
+	@Test
+	public void preRotatesQuotesNotLookedUpSincePreviousRollover() {
+		CountingBusiness business = new CountingBusiness();
+		QuoteRotation everyMinute = QuoteRotation.valueOf("* * * * *");
+		QuoteHolder first = business.getRandomQuote(null, 1, 1, false, null, everyMinute);
+		assertEquals(1, first.getQuoteID());
+
+		long boundary = business.getQuoteExpiry(1, 1, System.currentTimeMillis());
+		long next = business.getNextRotation(everyMinute, boundary);
+		assertEquals(1, business.preRotate(boundary));
+		assertEquals(next, business.getQuoteExpiry(1, 1, boundary));
+
+		// No lookup between the two rollovers
+		long after = business.getNextRotation(everyMinute, next);
+		assertEquals(1, business.preRotate(next));
+		assertEquals(after, business.getQuoteExpiry(1, 1, next));
+		assertEquals(3, business.getPicks());
+	}
+
+	/**
+	 * Rolls over every PERIOD milliseconds and records when each rollover is rotated in advance.
+	 */
+	private static class ShortRotationBusiness extends QuoteBusiness {
+
+		private final List<long[]> calls = new ArrayList<long[]>();
+
+		ShortRotationBusiness() {
+			super(null);
+		}
+
+		long getNextBoundary(long now) {
+			return (now / PERIOD + 1) * PERIOD;
+		}
+
+		public synchronized int preRotate(long boundary) {
+			this.calls.add(new long[] { boundary, System.currentTimeMillis() });
+			return 0;
+		}
+
+		synchronized List<long[]> getCalls() {
+			return new ArrayList<long[]>(this.calls);
+		}
+	}
+
+	/**
+	 * Picks a new quote on every call.
+	 */
+	private static class CountingBusiness extends QuoteBusiness {
+
+		private int picks;
+
+		CountingBusiness() {
+			super(null);
+		}
+
+		public QuoteHolder getNextQuoteHolder(int localeID, int objectID, String searchQuery) {
+			QuoteHolder holder = new QuoteHolder();
+			holder.setQuoteID(++this.picks);
+			holder.setLocaleID(localeID);
+			holder.setText("Quote " + this.picks);
+			return holder;
+		}
+
+		int getPicks() {
+			return this.picks;
+		}
+	}
+}
@@ -0,0 +1,52 @@
+package com.idega.block.quote.business;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+import org.junit.Test;
+
+public class QuoteSearchIndexTest {
+
+	@Test
+	public void editReplacesWordsOfOldVersion() {
+		QuoteSearchIndex searchIndex = new QuoteSearchIndex();
+		createIndex(searchIndex, 1);
+		QuoteHolder old = createQuote(1, 1, "The early bird catches the worm");
+		searchIndex.put(null, old);
+
+		searchIndex.put(old, createQuote(1, 1, "The second mouse gets the cheese"));
+		assertEquals("[]", search(searchIndex, 1, "bird"));
+		assertEquals("[1]", search(searchIndex, 1, "mouse"));
+	}
+
+	@Test
+	public void quoteMovedToAnotherLocaleLeavesIndexOfOldLocale() {
+		QuoteSearchIndex searchIndex = new QuoteSearchIndex();
+		createIndex(searchIndex, 1);
+		createIndex(searchIndex, 2);
+		QuoteHolder old = createQuote(1, 1, "The early bird catches the worm");
+		searchIndex.put(null, old);
+
+		searchIndex.put(old, createQuote(1, 2, "The early bird catches the worm"));
+		assertEquals("[]", search(searchIndex, 1, "bird"));
+		assertEquals("[1]", search(searchIndex, 2, "bird"));
+	}
+
+	private static void createIndex(QuoteSearchIndex searchIndex, int localeID) {
+		searchIndex.createIndex(localeID, Locale.ENGLISH).unlock();
+	}
+
+	private static String search(QuoteSearchIndex searchIndex, int localeID, String query) {
+		return Arrays.toString(searchIndex.getIndex(localeID).search(query));
+	}
+
+	private static QuoteHolder createQuote(int quoteID, int localeID, String text) {
+		QuoteHolder quote = new QuoteHolder();
+		quote.setQuoteID(quoteID);
+		quote.setLocaleID(localeID);
+		quote.setText(text);
+		return quote;
+	}
+}
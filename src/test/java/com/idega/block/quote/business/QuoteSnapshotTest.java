@@ -0,0 +1,84 @@
+package com.idega.block.quote.business;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class QuoteSnapshotTest {
+
+	private File file;
+
+	@Before
+	public void createFile() throws IOException {
+		this.file = File.createTempFile("quotes", ".snapshot");
+	}
+
+	@After
+	public void deleteFile() {
+		this.file.delete();
+	}
+
+	@Test
+	public void writesAndReadsOffHeapColumns() throws IOException {
+		assertWrittenAndRead(createColumns(1, true), createColumns(2, true));
+	}
+
+	@Test
+	public void writesAndReadsHeapColumns() throws IOException {
+		assertWrittenAndRead(createColumns(1, false), createColumns(2, false));
+	}
+
+	private void assertWrittenAndRead(QuoteColumns first, QuoteColumns second) throws IOException {
+		List<QuoteColumns> locales = new ArrayList<QuoteColumns>();
+		locales.add(first);
+		locales.add(second);
+		QuoteSnapshot.write(this.file, locales);
+
+		Map<Integer, QuoteColumns> read = QuoteSnapshot.read(this.file);
+		assertEquals(2, read.size());
+		assertSameQuotes(first, read.get(new Integer(1)));
+		assertSameQuotes(second, read.get(new Integer(2)));
+	}
+
+	private void assertSameQuotes(QuoteColumns expected, QuoteColumns actual) {
+		assertNotNull(actual);
+		assertEquals(expected.size(), actual.size());
+		assertTrue(actual.getArenaSize() > 0);
+		for (int i = 0; i < expected.size(); i++) {
+			QuoteHolder expectedQuote = expected.get(i);
+			QuoteHolder actualQuote = actual.get(i);
+			assertEquals(expectedQuote.getQuoteID(), actualQuote.getQuoteID());
+			assertEquals(expectedQuote.getText(), actualQuote.getText());
+			assertEquals(expectedQuote.getFormattedText(), actualQuote.getFormattedText());
+			assertEquals(expectedQuote.getAuthor(), actualQuote.getAuthor());
+			assertEquals(expectedQuote.getOrigin(), actualQuote.getOrigin());
+			assertEquals(expectedQuote.getWeight(), actualQuote.getWeight());
+		}
+	}
+
+	private QuoteColumns createColumns(int localeID, boolean offHeap) {
+		QuoteColumns.Builder builder = new QuoteColumns.Builder(localeID, 100, offHeap);
+		for (int i = 0; i < 100; i++) {
+			QuoteHolder quote = new QuoteHolder();
+			quote.setQuoteID(localeID * 1000 + i);
+			quote.setLocaleID(localeID);
+			quote.setText("Quote " + i + " of locale " + localeID + ", \u00fe\u00f3r");
+			quote.setFormattedText(i % 2 == 0 ? quote.getText() : "<b>" + quote.getText() + "</b>");
+			quote.setAuthor("Author " + (i % 7));
+			quote.setOrigin(i % 3 == 0 ? null : "Origin " + (i % 5));
+			quote.setWeight(1 + i % 4);
+			builder.add(quote);
+		}
+		return builder.build();
+	}
+}
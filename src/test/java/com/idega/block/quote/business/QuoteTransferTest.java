@@ -0,0 +1,60 @@
+package com.idega.block.quote.business;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import org.junit.Test;
+
+public class QuoteTransferTest {
+
+	@Test
+	public void csvExportReadsBackWithWeights() throws IOException {
+		StringWriter writer = new StringWriter();
+		writeQuotes(new QuoteCsvWriter(writer));
+		assertQuotesRead(new QuoteCsvReader(new StringReader(writer.toString())));
+	}
+
+	@Test
+	public void jsonExportReadsBackWithWeights() throws IOException {
+		StringWriter writer = new StringWriter();
+		writeQuotes(new QuoteJsonWriter(writer));
+		assertQuotesRead(new QuoteJsonReader(new StringReader(writer.toString())));
+	}
+
+	@Test
+	public void weightIsNotSetWhenAbsent() throws IOException {
+		QuoteHolder csv = new QuoteCsvReader(new StringReader("id,locale_id,text\r\n1,2,Text\r\n")).read();
+		assertEquals(-1, csv.getWeight());
+		QuoteHolder json = new QuoteJsonReader(new StringReader("[{\"id\":1,\"locale_id\":2,\"text\":\"Text\"}]")).read();
+		assertEquals(-1, json.getWeight());
+	}
+
+	private void writeQuotes(QuoteRecordWriter records) throws IOException {
+		records.write(1, 2, "Weighted, \"quoted\"", "Author", "Origin", 5);
+		records.write(3, 2, "Unweighted", null, null, -1);
+		records.write(4, 2, "Never picked", "Author", null, 0);
+		records.finish();
+	}
+
+	private void assertQuotesRead(QuoteRecordReader records) throws IOException {
+		QuoteHolder weighted = records.read();
+		assertEquals(1, weighted.getQuoteID());
+		assertEquals(2, weighted.getLocaleID());
+		assertEquals("Weighted, \"quoted\"", weighted.getText());
+		assertEquals("Author", weighted.getAuthor());
+		assertEquals("Origin", weighted.getOrigin());
+		assertEquals(5, weighted.getWeight());
+
+		QuoteHolder unweighted = records.read();
+		assertEquals(3, unweighted.getQuoteID());
+		assertNull(unweighted.getAuthor());
+		assertEquals(-1, unweighted.getWeight());
+
+		assertEquals(0, records.read().getWeight());
+		assertNull(records.read());
+	}
+}
@@ -0,0 +1,128 @@
+package com.idega.block.quote.presentation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+import com.idega.block.quote.business.QuoteHolder;
+import com.idega.presentation.text.Text;
+import com.idega.util.text.TextSoap;
+
+public class QuoteFragmentCacheTest {
+
+	private static final String UNKNOWN = "Unknown";
+	private static final String NO_QUOTES = "No quotes in database...";
+
+	@Test
+	public void cachedMarkupMatchesLayerRendering() {
+		QuoteFragmentCache cache = new QuoteFragmentCache(100);
+		QuoteHolder[] quotes = { createQuote(1, "Text", "Author", "Origin"), createQuote(2, "Text", null, null), createQuote(3, null, "", ""), null };
+		for (int i = 0; i < quotes.length; i++) {
+			for (int flags = 0; flags < 8; flags++) {
+				boolean showAuthor = (flags & 1) != 0;
+				boolean showOrigin = (flags & 2) != 0;
+				boolean showQuotes = (flags & 4) != 0;
+				long key = QuoteFragmentCache.getKey(quotes[i] != null ? quotes[i].getQuoteID() : -1, 1, showAuthor, showOrigin, showQuotes);
+				cache.put(key, QuoteRenderer.render(quotes[i], showAuthor, showOrigin, showQuotes, UNKNOWN, NO_QUOTES));
+				assertEquals(renderLayers(quotes[i], showAuthor, showOrigin, showQuotes), cache.get(key));
+			}
+		}
+	}
+
+	@Test
+	public void evictsFragmentsNotLookedUp() {
+		QuoteFragmentCache cache = new QuoteFragmentCache(4);
+		for (int i = 0; i < 4; i++) {
+			cache.put(i, "fragment " + i);
+		}
+		cache.get(0);
+		cache.get(2);
+
+		cache.put(4, "fragment 4");
+		cache.put(5, "fragment 5");
+
+		assertEquals(4, cache.getSize());
+		assertEquals(2, cache.getEvictions());
+		assertNotNull(cache.get(0));
+		assertNotNull(cache.get(2));
+		assertNull(cache.get(1));
+		assertNull(cache.get(3));
+		assertEquals("fragment 5", cache.get(5));
+	}
+
+	@Test
+	public void dropsFragmentsOfChangedQuote() {
+		QuoteFragmentCache cache = new QuoteFragmentCache(100);
+		cache.put(QuoteFragmentCache.getKey(1, 1, true, false, false), "first");
+		cache.put(QuoteFragmentCache.getKey(1, 2, false, true, false), "first, other locale");
+		cache.put(QuoteFragmentCache.getKey(2, 1, true, false, false), "second");
+
+		cache.quoteChanged(1, 1);
+		assertNull(cache.get(QuoteFragmentCache.getKey(1, 1, true, false, false)));
+		assertNull(cache.get(QuoteFragmentCache.getKey(1, 2, false, true, false)));
+		assertEquals("second", cache.get(QuoteFragmentCache.getKey(2, 1, true, false, false)));
+
+		cache.quoteChanged(1, -1);
+		assertEquals(0, cache.getSize());
+	}
+
+	/**
+	 * The markup of the quoteItem layer as Quote built it from Layer and Text components before it was cached: each
+	 * layer prints as a div with its style class around its children.
+	 */
+	private static String renderLayers(QuoteHolder quote, boolean showAuthor, boolean showOrigin, boolean showQuotes) {
+		StringBuffer layer = new StringBuffer();
+		if (quote != null) {
+			String originString = quote.getOrigin();
+			String textString = quote.getText();
+			if (textString == null) {
+				textString = "";
+			}
+			String authorString = quote.getAuthor();
+			if (authorString == null || authorString.length() == 0) {
+				authorString = UNKNOWN;
+			}
+
+			String origin = layer("origin", originString + ":");
+			String text = layer("text", showQuotes ? "\"" + TextSoap.formatText(textString) + "\"" : TextSoap.formatText(textString));
+			String author = layer("author", "-" + Text.getNonBrakingSpace().getText() + authorString);
+
+			if (showOrigin && originString != null && originString.length() > 0) {
+				layer.append(origin);
+			}
+			layer.append(text);
+			if (showAuthor) {
+				layer.append(author);
+			}
+		}
+		else {
+			layer.append(NO_QUOTES);
+		}
+		return layer("quoteItem", layer.toString());
+	}
+
+	private static String layer(String styleClass, String content) {
+		return "<div class=\"" + styleClass + "\">" + content + "</div>";
+	}
+
+	private static QuoteHolder createQuote(int quoteID, String text, String author, String origin) {
+		return new TestQuote(quoteID, text, author, origin);
+	}
+
+	/**
+	 * The setters of QuoteHolder are only open to the business package and subclasses.
+	 */
+	private static class TestQuote extends QuoteHolder {
+
+		TestQuote(int quoteID, String text, String author, String origin) {
+			setQuoteID(quoteID);
+			setLocaleID(1);
+			setText(text);
+			setFormattedText(text != null ? TextSoap.formatText(text) : null);
+			setAuthor(author);
+			setOrigin(origin);
+		}
+	}
+}